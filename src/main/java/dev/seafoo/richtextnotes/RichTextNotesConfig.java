@@ -27,6 +27,16 @@ public interface RichTextNotesConfig extends Config
 		return 5;
 	}
 
+	@ConfigItem(
+		keyName = "compressNotes",
+		name = "Compress Notes",
+		description = "Store notes compressed on disk. Existing notes are converted when next saved, or all at once with 'Recompress All Notes'"
+	)
+	default boolean compressNotes()
+	{
+		return false;
+	}
+
 	@ConfigItem(
 		keyName = "menuPriority",
 		name = "Sidebar Priority",
@@ -12,6 +12,7 @@ import javax.swing.SwingUtilities;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.events.ProfileChanged;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
@@ -60,6 +61,7 @@ public class RichTextNotesPlugin extends Plugin
 		{
 			// Initialize storage service with configManager
 			storageService = new FileStorageService(configManager, gson);
+			storageService.setCompressNotes(config.compressNotes());
 
 			log.debug("Rich Text Notes Initialized with profile: {}", storageService.getCurrentProfileName());
 
@@ -119,6 +121,12 @@ public class RichTextNotesPlugin extends Plugin
 				panel.cleanup();
 			}
 
+			if (storageService != null)
+			{
+				// Wait for the background writer so nothing queued is lost
+				storageService.shutdown();
+			}
+
 		}
 		catch (Exception e)
 		{
@@ -126,6 +134,16 @@ public class RichTextNotesPlugin extends Plugin
 		}
 	}
 
+	@Subscribe
+	public void onConfigChanged(ConfigChanged configChanged)
+	{
+		if (storageService != null && "richtextnotes".equals(configChanged.getGroup())
+			&& "compressNotes".equals(configChanged.getKey()))
+		{
+			storageService.setCompressNotes(config.compressNotes());
+		}
+	}
+
 	@Subscribe
 	public void onProfileChanged(ProfileChanged profileChanged)
 	{
@@ -140,6 +158,9 @@ public class RichTextNotesPlugin extends Plugin
 				panel.saveEditorLayout();
 			}
 
+			// Make sure queued saves land in the old profile before switching
+			storageService.flushPendingSaves();
+
 			String newProfile = storageService.updateCurrentProfile();
 
 			// Switch panel to new profile
@@ -9,12 +9,20 @@ import lombok.extern.slf4j.Slf4j;
 @NoArgsConstructor
 public class Note
 {
+	public static final long UNSAVED_REVISION = -1;
+
 	private String noteId;
 	private String rtfContent;
 	private NoteMetadata metadata;
 	public boolean isModified;
 	private boolean isLoaded;
 
+	// Set when the file was changed outside the plugin while this note had unsaved edits
+	private boolean changedOnDisk;
+
+	// Document revision last handed to the writer, so unchanged notes can skip saving
+	private long savedRevision = UNSAVED_REVISION;
+
 	public Note(String noteId, String rtfContent, NoteMetadata metadata)
 	{
 		this.noteId = noteId;
@@ -26,7 +34,7 @@ public class Note
 
 	public void setRtfContent(String rtfContent)
 	{
-		if (!rtfContent.equals(this.rtfContent))
+		if (this.rtfContent == null || !rtfContent.equals(this.rtfContent))
 		{
 			this.rtfContent = rtfContent;
 			this.isModified = true;
@@ -37,9 +45,35 @@ public class Note
 		}
 	}
 
-	public void markSaved()
+	/**
+	 * Drop the loaded RTF once an editor's document holds the content; saves stream from the document
+	 */
+	public void releaseContent()
+	{
+		this.rtfContent = null;
+	}
+
+	/**
+	 * Record that the content at the given document revision is on its way to disk
+	 */
+	public void markSaved(long revision)
 	{
 		this.isModified = false;
+		this.savedRevision = revision;
+	}
+
+	/**
+	 * Keep the note dirty after a failed write, whatever its revision, so it is retried
+	 */
+	public void markSaveFailed()
+	{
+		this.isModified = true;
+		this.savedRevision = UNSAVED_REVISION;
+	}
+
+	public boolean isSavedRevision(long revision)
+	{
+		return revision == savedRevision;
 	}
 
 	public String getDisplayTitle()
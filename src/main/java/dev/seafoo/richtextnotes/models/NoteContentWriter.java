@@ -0,0 +1,19 @@
+package dev.seafoo.richtextnotes.models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams a note's RTF into a sink, so saving never needs the whole note as a String
+ */
+@FunctionalInterface
+public interface NoteContentWriter
+{
+	/**
+	 * Write the note's current content
+	 *
+	 * @return the last edit journal entry the written content includes, or
+	 * {@link NoteSaveRequest#NO_JOURNAL_SEQUENCE}
+	 */
+	long writeTo(OutputStream out) throws IOException;
+}
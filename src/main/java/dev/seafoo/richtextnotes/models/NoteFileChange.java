@@ -0,0 +1,20 @@
+package dev.seafoo.richtextnotes.models;
+
+import lombok.Value;
+
+/**
+ * A change to a note's files made outside the plugin, e.g. by a sync tool or another editor
+ */
+@Value
+public class NoteFileChange
+{
+	public enum Type
+	{
+		CONTENT_CHANGED,
+		METADATA_CHANGED,
+		DELETED
+	}
+
+	String noteId;
+	Type type;
+}
@@ -80,4 +80,13 @@ public class NoteMetadata
 	{
 		this.lastModified = LocalDateTime.now();
 	}
+
+	/**
+	 * Create a detached copy that is safe to hand to another thread
+	 */
+	public NoteMetadata copy()
+	{
+		return new NoteMetadata(noteId, title, createdDate, lastModified,
+			tags != null ? new ArrayList<>(tags) : new ArrayList<>(), category, pinned, color);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package dev.seafoo.richtextnotes.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Immutable snapshot of a note handed to the storage layer for a background save.
+ * The content is either an RTF string or a writer that streams it straight into the note
+ * file; with neither, only the metadata needs to be written.
+ * journalSequence is the last edit journal entry the string content includes, or -1.
+ * A content writer reports its own when it runs.
+ */
+@Value
+@AllArgsConstructor
+public class NoteSaveRequest
+{
+	public static final long NO_JOURNAL_SEQUENCE = -1;
+
+	String noteId;
+	String rtfContent;
+	NoteContentWriter contentWriter;
+	NoteMetadata metadata;
+	long journalSequence;
+
+	public NoteSaveRequest(String noteId, String rtfContent, NoteMetadata metadata)
+	{
+		this(noteId, rtfContent, null, metadata, NO_JOURNAL_SEQUENCE);
+	}
+
+	/**
+	 * A save whose content is streamed from the editor's document when the write happens
+	 */
+	public static NoteSaveRequest streaming(String noteId, NoteContentWriter contentWriter, NoteMetadata metadata)
+	{
+		return new NoteSaveRequest(noteId, null, contentWriter, metadata, NO_JOURNAL_SEQUENCE);
+	}
+
+	public boolean hasContent()
+	{
+		return rtfContent != null || contentWriter != null;
+	}
+
+	public boolean hasMetadata()
+	{
+		return metadata != null;
+	}
+
+	/**
+	 * Combine a newer request for the same note with this one, keeping whichever
+	 * content and metadata is most recent
+	 */
+	public NoteSaveRequest mergeWith(NoteSaveRequest newer)
+	{
+		return new NoteSaveRequest(
+			noteId,
+			newer.hasContent() ? newer.getRtfContent() : rtfContent,
+			newer.hasContent() ? newer.getContentWriter() : contentWriter,
+			newer.hasMetadata() ? newer.getMetadata() : metadata,
+			newer.hasContent() ? newer.getJournalSequence() : journalSequence
+		);
+	}
+}
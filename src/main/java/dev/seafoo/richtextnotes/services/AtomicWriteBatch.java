@@ -0,0 +1,247 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Crash-safe file writes. Each file is first written to its own temp file next to its target,
+ * then all temp files are fsynced in one pass, renamed over their targets and the touched
+ * directories synced once. A crash at any point leaves either the old or the new file on
+ * disk, never a torn one, and a batch of many files shares a single sync point.
+ */
+@Slf4j
+public class AtomicWriteBatch
+{
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	// Numbers each temp file, so two batches staging the same target never share one
+	private static final AtomicLong tempCounter = new AtomicLong();
+
+	// Target file -> staged temp file, in staging order
+	private final Map<Path, Path> stagedFiles = new LinkedHashMap<>();
+	private final List<Runnable> commitCallbacks = new ArrayList<>();
+
+	/**
+	 * Write a single file atomically and durably
+	 */
+	public static void write(Path target, byte[] data) throws IOException
+	{
+		AtomicWriteBatch batch = new AtomicWriteBatch();
+		batch.stage(target, data);
+		batch.commit();
+	}
+
+	public static boolean isTempFile(Path path)
+	{
+		return path.getFileName().toString().endsWith(TEMP_SUFFIX);
+	}
+
+	/**
+	 * Write the data to a temp file. Nothing is visible at the target until commit.
+	 *
+	 * @return the temp file, which becomes the target on commit
+	 */
+	public Path stage(Path target, byte[] data) throws IOException
+	{
+		Path tempFile = tempFileFor(target);
+		Files.write(tempFile, data);
+		putStaged(target, tempFile);
+		return tempFile;
+	}
+
+	/**
+	 * Stream a file's content straight into its temp file. Nothing is visible at the target until commit.
+	 *
+	 * @return the temp file, which becomes the target on commit
+	 */
+	public Path stage(Path target, ChannelWriter writer) throws IOException
+	{
+		Path tempFile = tempFileFor(target);
+		try (FileChannel channel = FileChannel.open(tempFile,
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			writer.writeTo(channel);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			Files.deleteIfExists(tempFile);
+			throw e;
+		}
+		putStaged(target, tempFile);
+		return tempFile;
+	}
+
+	private static Path tempFileFor(Path target)
+	{
+		return target.resolveSibling(target.getFileName() + "." + tempCounter.incrementAndGet() + TEMP_SUFFIX);
+	}
+
+	/**
+	 * Remember a temp file for its target, deleting one staged earlier for the same target
+	 */
+	private void putStaged(Path target, Path tempFile)
+	{
+		Path replaced = stagedFiles.put(target, tempFile);
+		if (replaced != null)
+		{
+			deleteTempFile(replaced);
+		}
+	}
+
+	/**
+	 * Run something once the batch has been committed successfully
+	 */
+	public void afterCommit(Runnable callback)
+	{
+		commitCallbacks.add(callback);
+	}
+
+	/**
+	 * Take over everything another batch has staged, leaving it empty
+	 */
+	public void include(AtomicWriteBatch other)
+	{
+		other.stagedFiles.forEach(this::putStaged);
+		commitCallbacks.addAll(other.commitCallbacks);
+		other.stagedFiles.clear();
+		other.commitCallbacks.clear();
+	}
+
+	/**
+	 * Target file -> temp file for everything staged so far
+	 */
+	public Map<Path, Path> getStagedFiles()
+	{
+		return Collections.unmodifiableMap(stagedFiles);
+	}
+
+	public boolean isEmpty()
+	{
+		return stagedFiles.isEmpty();
+	}
+
+	public int size()
+	{
+		return stagedFiles.size();
+	}
+
+	/**
+	 * Sync every staged file, move them into place and sync their directories
+	 */
+	public void commit() throws IOException
+	{
+		if (stagedFiles.isEmpty())
+		{
+			commitCallbacks.forEach(Runnable::run);
+			commitCallbacks.clear();
+			return;
+		}
+
+		try
+		{
+			for (Path tempFile : stagedFiles.values())
+			{
+				try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE))
+				{
+					channel.force(true);
+				}
+			}
+
+			Set<Path> directories = new LinkedHashSet<>();
+			for (Map.Entry<Path, Path> entry : stagedFiles.entrySet())
+			{
+				moveIntoPlace(entry.getValue(), entry.getKey());
+				directories.add(entry.getKey().toAbsolutePath().getParent());
+			}
+
+			for (Path directory : directories)
+			{
+				syncDirectory(directory);
+			}
+
+			log.debug("Committed {} files in one sync point", stagedFiles.size());
+			commitCallbacks.forEach(Runnable::run);
+		}
+		catch (IOException e)
+		{
+			abort();
+			throw e;
+		}
+		finally
+		{
+			stagedFiles.clear();
+			commitCallbacks.clear();
+		}
+	}
+
+	/**
+	 * Discard any staged files that haven't been moved into place
+	 */
+	public void abort()
+	{
+		stagedFiles.values().forEach(AtomicWriteBatch::deleteTempFile);
+		stagedFiles.clear();
+		commitCallbacks.clear();
+	}
+
+	private static void deleteTempFile(Path tempFile)
+	{
+		try
+		{
+			Files.deleteIfExists(tempFile);
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to delete temp file: {}", tempFile, e);
+		}
+	}
+
+	private void moveIntoPlace(Path tempFile, Path target) throws IOException
+	{
+		try
+		{
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void syncDirectory(Path directory)
+	{
+		// Persists the renames. Not supported on every platform (e.g. Windows), where the
+		// file system already orders the rename after the data it points to.
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+		{
+			channel.force(true);
+		}
+		catch (IOException e)
+		{
+			log.trace("Directory sync not supported for: {}", directory);
+		}
+	}
+
+	/**
+	 * Writes a staged file's content into its open temp file
+	 */
+	@FunctionalInterface
+	public interface ChannelWriter
+	{
+		void writeTo(FileChannel channel) throws IOException;
+	}
+}
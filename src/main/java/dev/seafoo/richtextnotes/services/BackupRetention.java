@@ -0,0 +1,79 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Decides which backup points to keep. Every backup from the last hour is kept,
+ * then the newest one per hour for the last day, the newest one per day for the
+ * last month and the newest one per week after that.
+ */
+public class BackupRetention
+{
+	public static final BackupRetention DEFAULT = new BackupRetention(
+		Duration.ofHours(1), Duration.ofDays(1), Duration.ofDays(30));
+
+	private final Duration keepAll;
+	private final Duration keepHourly;
+	private final Duration keepDaily;
+
+	public BackupRetention(Duration keepAll, Duration keepHourly, Duration keepDaily)
+	{
+		this.keepAll = keepAll;
+		this.keepHourly = keepHourly;
+		this.keepDaily = keepDaily;
+	}
+
+	/**
+	 * Pick the points that fall outside the policy. Points belong to one series
+	 * (e.g. the backups of a single note) and are thinned independently of other series.
+	 */
+	public <T> List<T> selectExpired(List<T> points, Function<T, LocalDateTime> createdOf, LocalDateTime now)
+	{
+		List<T> newestFirst = new ArrayList<>(points);
+		newestFirst.sort(Comparator.comparing(createdOf).reversed());
+
+		Set<String> filledBuckets = new HashSet<>();
+		List<T> expired = new ArrayList<>();
+
+		for (T point : newestFirst)
+		{
+			String bucket = bucketFor(createdOf.apply(point), now);
+			if (bucket != null && !filledBuckets.add(bucket))
+			{
+				expired.add(point);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * The bucket a backup point competes in, or null if it is recent enough to always keep
+	 */
+	private String bucketFor(LocalDateTime created, LocalDateTime now)
+	{
+		Duration age = Duration.between(created, now);
+
+		if (age.compareTo(keepAll) < 0)
+		{
+			return null;
+		}
+		if (age.compareTo(keepHourly) < 0)
+		{
+			return "h" + created.truncatedTo(ChronoUnit.HOURS);
+		}
+		if (age.compareTo(keepDaily) < 0)
+		{
+			return "d" + created.toLocalDate();
+		}
+		return "w" + created.get(IsoFields.WEEK_BASED_YEAR) + "-" + created.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR);
+	}
+}
@@ -0,0 +1,615 @@
+package dev.seafoo.richtextnotes.services;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Content-addressed backup store. File contents are stored once as compressed blobs
+ * named by their SHA-256 hash, and each backup point is a small manifest mapping note
+ * IDs to blob hashes. Backing up a note that hasn't changed since its last backup
+ * writes nothing at all.
+ *
+ * <pre>
+ * backups/
+ *   blobs/ab/ab12...ef.gz
+ *   manifests/20250101_120000_000_note_123.json
+ * </pre>
+ */
+@Slf4j
+public class BackupStore
+{
+	static final String BLOBS_SUBDIR = "blobs";
+	static final String MANIFESTS_SUBDIR = "manifests";
+	static final String BLOB_EXTENSION = ".gz";
+	static final String MANIFEST_EXTENSION = ".json";
+
+	static final String TYPE_NOTE = "note";
+	static final String TYPE_FULL = "full";
+
+	private static final DateTimeFormatter MANIFEST_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+	private static final int MANIFEST_TIMESTAMP_LENGTH = 19;
+
+	// Backups written before the blob store were plain directories named like this
+	private static final DateTimeFormatter LEGACY_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+	private static final String LEGACY_FULL_PREFIX = "full_";
+
+	// Blobs this young are never swept, so a backup being written right now can't lose its blobs
+	private static final Duration BLOB_GRACE_PERIOD = Duration.ofHours(1);
+
+	private final Path backupDirectory;
+	private final Gson gson;
+
+	// Held while a blob is reused or swept, so a sweep can't delete a blob a backup just renewed
+	private final Object blobLock = new Object();
+
+	// Hashes of each note as of its most recent backup, so unchanged notes are skipped
+	private final Map<String, ManifestEntry> lastBackedUp = new ConcurrentHashMap<>();
+
+	public BackupStore(Path backupDirectory, Gson gson)
+	{
+		this.backupDirectory = backupDirectory;
+		this.gson = gson;
+	}
+
+	public Path getBackupDirectory()
+	{
+		return backupDirectory;
+	}
+
+	/**
+	 * Stage a backup point for one note into the batch. Does nothing if the note's
+	 * files are identical to its last backup.
+	 */
+	public void backupNote(AtomicWriteBatch batch, String noteId, Path noteFile, Path metadataFile) throws IOException
+	{
+		if (!Files.exists(noteFile))
+		{
+			return; // Nothing to back up
+		}
+
+		ManifestEntry entry = storeNote(batch, noteFile, metadataFile);
+		if (entry.equals(lastBackedUp.get(noteId)))
+		{
+			return;
+		}
+
+		Manifest manifest = new Manifest(TYPE_NOTE);
+		manifest.notes.put(noteId, entry);
+		stageManifest(batch, manifest, TYPE_NOTE + "_" + noteId);
+		batch.afterCommit(() -> lastBackedUp.put(noteId, entry));
+	}
+
+	/**
+	 * Stage a manifest covering every note in the directory plus the layout.
+	 * Only contents that were never backed up before produce new blobs.
+	 */
+	public void backupAll(AtomicWriteBatch batch, Path notesDirectory, Path layoutFile) throws IOException
+	{
+		Manifest manifest = new Manifest(TYPE_FULL);
+
+		List<Path> noteFiles;
+		try (Stream<Path> files = Files.list(notesDirectory))
+		{
+			noteFiles = files.filter(p -> p.toString().endsWith(".rtf")).collect(Collectors.toList());
+		}
+
+		for (Path noteFile : noteFiles)
+		{
+			String fileName = noteFile.getFileName().toString();
+			String noteId = fileName.substring(0, fileName.length() - 4);
+			manifest.notes.put(noteId, storeNote(batch, noteFile, notesDirectory.resolve(noteId + ".json")));
+		}
+
+		if (Files.exists(layoutFile))
+		{
+			manifest.layout = storeBlob(batch, Files.readAllBytes(layoutFile));
+		}
+
+		stageManifest(batch, manifest, TYPE_FULL);
+	}
+
+	private ManifestEntry storeNote(AtomicWriteBatch batch, Path noteFile, Path metadataFile) throws IOException
+	{
+		String noteHash = storeBlob(batch, Files.readAllBytes(noteFile));
+		String metadataHash = Files.exists(metadataFile) ? storeBlob(batch, Files.readAllBytes(metadataFile)) : null;
+		return new ManifestEntry(noteHash, metadataHash);
+	}
+
+	/**
+	 * Store content under its hash unless a blob with that hash already exists
+	 */
+	private String storeBlob(AtomicWriteBatch batch, byte[] content) throws IOException
+	{
+		String hash = hash(content);
+		Path blobFile = blobPath(hash);
+
+		if (renewBlob(blobFile))
+		{
+			return hash;
+		}
+
+		Files.createDirectories(blobFile.getParent());
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+		{
+			gzip.write(content);
+		}
+		batch.stage(blobFile, compressed.toByteArray());
+		return hash;
+	}
+
+	/**
+	 * Reuse an existing blob, renewing it to keep it out of a concurrent sweep's reach
+	 *
+	 * @return false if there is no blob to reuse and it has to be written
+	 */
+	private boolean renewBlob(Path blobFile) throws IOException
+	{
+		synchronized (blobLock)
+		{
+			if (!Files.exists(blobFile))
+			{
+				return false;
+			}
+
+			try
+			{
+				Files.setLastModifiedTime(blobFile, FileTime.fromMillis(System.currentTimeMillis()));
+				return true;
+			}
+			catch (NoSuchFileException e)
+			{
+				return false; // Removed by something other than a sweep
+			}
+		}
+	}
+
+	/**
+	 * Delete a blob unless it was renewed since the sweep started. A backup that reuses a
+	 * blob renews it first, so this also covers manifests written after the mark phase.
+	 *
+	 * @return the bytes reclaimed, or -1 if the blob was kept
+	 */
+	private long sweepBlob(Path blobFile, long graceCutoff) throws IOException
+	{
+		synchronized (blobLock)
+		{
+			try
+			{
+				if (Files.getLastModifiedTime(blobFile).toMillis() >= graceCutoff)
+				{
+					return -1;
+				}
+				return deleteFile(blobFile);
+			}
+			catch (NoSuchFileException e)
+			{
+				return -1;
+			}
+		}
+	}
+
+	private void stageManifest(AtomicWriteBatch batch, Manifest manifest, String suffix) throws IOException
+	{
+		Path manifestDir = backupDirectory.resolve(MANIFESTS_SUBDIR);
+		Files.createDirectories(manifestDir);
+
+		String name = LocalDateTime.now().format(MANIFEST_TIMESTAMP) + "_" + suffix + MANIFEST_EXTENSION;
+		batch.stage(manifestDir.resolve(name), gson.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Thin out backup points according to the retention policy, then delete every blob
+	 * no remaining manifest refers to. Runs without the storage I/O lock: manifests are
+	 * only ever added while this runs, and blobs a new backup relies on are either
+	 * written fresh or renewed under the blob lock, which the sweep re-checks.
+	 */
+	public CompactionResult compact(BackupRetention retention, LocalDateTime now) throws IOException
+	{
+		long reclaimed = 0;
+		int removedPoints = 0;
+
+		// Thin manifests, each note's backups and the full backups forming their own series
+		Path manifestDir = backupDirectory.resolve(MANIFESTS_SUBDIR);
+		Map<String, List<BackupPoint>> manifestSeries = new HashMap<>();
+		for (Path manifestFile : listChildren(manifestDir))
+		{
+			BackupPoint point = parseManifestName(manifestFile);
+			if (point != null)
+			{
+				manifestSeries.computeIfAbsent(point.getSeries(), k -> new ArrayList<>()).add(point);
+			}
+		}
+
+		for (List<BackupPoint> series : manifestSeries.values())
+		{
+			for (BackupPoint expired : retention.selectExpired(series, BackupPoint::getCreated, now))
+			{
+				reclaimed += deleteFile(expired.getPath());
+				removedPoints++;
+			}
+		}
+
+		// Thin the old copy-based backup directories by the same rules. A directory holds
+		// every note saved in that second, so it is a point in each of those notes' series
+		// and is only deleted once it has expired from all of them.
+		Map<String, List<BackupPoint>> legacySeries = new HashMap<>();
+		Map<Path, Integer> legacyMemberships = new HashMap<>();
+		for (Path child : listChildren(backupDirectory))
+		{
+			LocalDateTime created = parseLegacyTimestamp(child);
+			if (created == null)
+			{
+				continue;
+			}
+
+			for (String series : legacySeriesOf(child))
+			{
+				legacySeries.computeIfAbsent(series, k -> new ArrayList<>()).add(new BackupPoint(child, series, created));
+				legacyMemberships.merge(child, 1, Integer::sum);
+			}
+		}
+
+		Map<Path, Integer> legacyExpirations = new HashMap<>();
+		for (List<BackupPoint> series : legacySeries.values())
+		{
+			for (BackupPoint expired : retention.selectExpired(series, BackupPoint::getCreated, now))
+			{
+				legacyExpirations.merge(expired.getPath(), 1, Integer::sum);
+			}
+		}
+
+		for (Map.Entry<Path, Integer> expired : legacyExpirations.entrySet())
+		{
+			if (expired.getValue().equals(legacyMemberships.get(expired.getKey())))
+			{
+				reclaimed += deleteRecursively(expired.getKey());
+				removedPoints++;
+			}
+		}
+
+		// Mark every blob still referenced, then sweep the rest
+		Set<String> referenced = new HashSet<>();
+		for (Path manifestFile : listChildren(manifestDir))
+		{
+			if (!markReferencedBlobs(manifestFile, referenced))
+			{
+				// Can't tell what an unreadable manifest needs, so don't delete anything
+				log.warn("Skipping blob sweep, unreadable backup manifest: {}", manifestFile);
+				return new CompactionResult(removedPoints, 0, reclaimed);
+			}
+		}
+
+		int removedBlobs = 0;
+		long graceCutoff = System.currentTimeMillis() - BLOB_GRACE_PERIOD.toMillis();
+		for (Path shardDir : listChildren(backupDirectory.resolve(BLOBS_SUBDIR)))
+		{
+			for (Path blobFile : listChildren(shardDir))
+			{
+				String fileName = blobFile.getFileName().toString();
+				if (AtomicWriteBatch.isTempFile(blobFile))
+				{
+					// Left behind by a crash mid-backup, once it is too old to be a live one
+					long size = sweepBlob(blobFile, graceCutoff);
+					reclaimed += Math.max(size, 0);
+					continue;
+				}
+				if (!fileName.endsWith(BLOB_EXTENSION))
+				{
+					continue;
+				}
+
+				String hash = fileName.substring(0, fileName.length() - BLOB_EXTENSION.length());
+				if (referenced.contains(hash))
+				{
+					continue;
+				}
+
+				long size = sweepBlob(blobFile, graceCutoff);
+				if (size >= 0)
+				{
+					reclaimed += size;
+					removedBlobs++;
+				}
+			}
+
+			try
+			{
+				Files.deleteIfExists(shardDir); // Only succeeds once the shard is empty
+			}
+			catch (IOException ignored)
+			{
+			}
+		}
+
+		return new CompactionResult(removedPoints, removedBlobs, reclaimed);
+	}
+
+	private boolean markReferencedBlobs(Path manifestFile, Set<String> referenced)
+	{
+		try
+		{
+			String json = new String(Files.readAllBytes(manifestFile), StandardCharsets.UTF_8);
+			Manifest manifest = gson.fromJson(json, Manifest.class);
+			if (manifest == null)
+			{
+				return false;
+			}
+
+			if (manifest.notes != null)
+			{
+				for (ManifestEntry entry : manifest.notes.values())
+				{
+					referenced.add(entry.noteHash);
+					if (entry.metadataHash != null)
+					{
+						referenced.add(entry.metadataHash);
+					}
+				}
+			}
+			if (manifest.layout != null)
+			{
+				referenced.add(manifest.layout);
+			}
+			return true;
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+	private BackupPoint parseManifestName(Path manifestFile)
+	{
+		String fileName = manifestFile.getFileName().toString();
+		if (!fileName.endsWith(MANIFEST_EXTENSION) || fileName.length() <= MANIFEST_TIMESTAMP_LENGTH + 1)
+		{
+			return null;
+		}
+
+		try
+		{
+			LocalDateTime created = LocalDateTime.parse(fileName.substring(0, MANIFEST_TIMESTAMP_LENGTH), MANIFEST_TIMESTAMP);
+			String series = fileName.substring(MANIFEST_TIMESTAMP_LENGTH + 1, fileName.length() - MANIFEST_EXTENSION.length());
+			return new BackupPoint(manifestFile, series, created);
+		}
+		catch (DateTimeParseException e)
+		{
+			return null;
+		}
+	}
+
+	private LocalDateTime parseLegacyTimestamp(Path directory)
+	{
+		if (!Files.isDirectory(directory))
+		{
+			return null;
+		}
+
+		String name = directory.getFileName().toString();
+		if (name.startsWith(LEGACY_FULL_PREFIX))
+		{
+			name = name.substring(LEGACY_FULL_PREFIX.length());
+		}
+
+		try
+		{
+			return LocalDateTime.parse(name, LEGACY_TIMESTAMP);
+		}
+		catch (DateTimeParseException e)
+		{
+			return null; // blobs/, manifests/ or something we didn't create
+		}
+	}
+
+	/**
+	 * The series a legacy backup directory belongs to: the full backups form one, and a
+	 * note backup directory is part of the series of every note it has files for
+	 */
+	private Set<String> legacySeriesOf(Path directory) throws IOException
+	{
+		Set<String> series = new HashSet<>();
+		if (directory.getFileName().toString().startsWith(LEGACY_FULL_PREFIX))
+		{
+			series.add("legacy_full");
+			return series;
+		}
+
+		for (Path file : listChildren(directory))
+		{
+			String fileName = file.getFileName().toString();
+			int extension = fileName.lastIndexOf('.');
+			if (extension > 0 && (fileName.endsWith(".rtf") || fileName.endsWith(".json")))
+			{
+				series.add("legacy_" + fileName.substring(0, extension));
+			}
+		}
+
+		if (series.isEmpty())
+		{
+			series.add("legacy");
+		}
+		return series;
+	}
+
+	private static List<Path> listChildren(Path directory) throws IOException
+	{
+		List<Path> children = new ArrayList<>();
+		if (!Files.isDirectory(directory))
+		{
+			return children;
+		}
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+		{
+			stream.forEach(children::add);
+		}
+		return children;
+	}
+
+	private static long deleteFile(Path file) throws IOException
+	{
+		long size = Files.size(file);
+		return Files.deleteIfExists(file) ? size : 0;
+	}
+
+	private static long deleteRecursively(Path directory) throws IOException
+	{
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(directory))
+		{
+			paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+
+		long reclaimed = 0;
+		for (Path path : paths)
+		{
+			if (Files.isDirectory(path))
+			{
+				Files.deleteIfExists(path);
+			}
+			else
+			{
+				reclaimed += deleteFile(path);
+			}
+		}
+		return reclaimed;
+	}
+
+	Path blobPath(String hash)
+	{
+		return backupDirectory.resolve(BLOBS_SUBDIR).resolve(hash.substring(0, 2)).resolve(hash + BLOB_EXTENSION);
+	}
+
+	private static String hash(byte[] content)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * What a compaction pass removed
+	 */
+	@Value
+	public static class CompactionResult
+	{
+		int removedBackupPoints;
+		int removedBlobs;
+		long bytesReclaimed;
+	}
+
+	/**
+	 * A manifest or legacy backup directory, for the retention policy
+	 */
+	@Value
+	private static class BackupPoint
+	{
+		Path path;
+		String series;
+		LocalDateTime created;
+	}
+
+	/**
+	 * A backup point: which blobs made up each note at that moment
+	 */
+	static class Manifest
+	{
+		@SerializedName("created")
+		LocalDateTime created;
+
+		@SerializedName("type")
+		String type;
+
+		@SerializedName("notes")
+		Map<String, ManifestEntry> notes = new LinkedHashMap<>();
+
+		@SerializedName("layout")
+		String layout;
+
+		Manifest(String type)
+		{
+			this.created = LocalDateTime.now();
+			this.type = type;
+		}
+	}
+
+	static class ManifestEntry
+	{
+		@SerializedName("rtf")
+		final String noteHash;
+
+		@SerializedName("json")
+		final String metadataHash;
+
+		ManifestEntry(String noteHash, String metadataHash)
+		{
+			this.noteHash = noteHash;
+			this.metadataHash = metadataHash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass())
+			{
+				return false;
+			}
+			ManifestEntry that = (ManifestEntry) obj;
+			return Objects.equals(noteHash, that.noteHash) &&
+				Objects.equals(metadataHash, that.metadataHash);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(noteHash, metadataHash);
+		}
+	}
+}
@@ -0,0 +1,554 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only, memory-mapped log of document edits made since each note was last saved.
+ * Appending is a few writes into mapped memory, so it can run on every keystroke; the
+ * OS keeps the pages even if the client crashes. Once a save has been committed the
+ * note is checkpointed, and when every note is checkpointed the journal starts over.
+ * When the journal fills up, the edits still unsaved are copied to the front instead
+ * of growing the file.
+ *
+ * <p>A checkpoint is only as durable as the mapped pages, so each save also records the
+ * journal ID and last sequence it includes next to the note. Edits at or below that
+ * sequence are dropped when the journal is opened, even if their checkpoint was lost.
+ *
+ * <p>Only text and item icon insertions and removals are recorded. Formatting changes
+ * are not, so recovered text takes the formatting of the text around it.
+ *
+ * <pre>
+ * header: magic, version, journal ID, next sequence as of the last reset or compaction
+ * record: payload length, CRC32 of payload, payload (type, sequence, note ID, operation)
+ * </pre>
+ */
+@Slf4j
+public class EditJournal
+{
+	private static final int MAGIC = 0x524e4a31; // "RNJ1"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 24;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int INITIAL_CAPACITY = 256 * 1024;
+
+	private static final byte TYPE_INSERT = 1;
+	private static final byte TYPE_REMOVE = 2;
+	private static final byte TYPE_ICON = 3;
+	private static final byte TYPE_CHECKPOINT = 4;
+
+	public static final long NO_SAVED_SEQUENCE = -1;
+
+	private final Path file;
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int position = HEADER_SIZE;
+	private long nextSequence = 1;
+	private long journalId;
+
+	// Notes with journaled edits not yet covered by a checkpoint -> sequence of their last edit
+	private final Map<String, Long> uncheckpointed = new HashMap<>();
+	// Of those, notes with some of their edits saved -> sequence of the last saved one
+	private final Map<String, Long> checkpointed = new HashMap<>();
+	private Map<String, List<Edit>> recovered = new LinkedHashMap<>();
+
+	public EditJournal(Path file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Map the journal file and pick up anything left from a previous session, without
+	 * knowing which edits the notes on disk already include
+	 */
+	public synchronized void open() throws IOException
+	{
+		open((noteId, id) -> NO_SAVED_SEQUENCE);
+	}
+
+	/**
+	 * Map the journal file and pick up the edits left from a previous session that aren't
+	 * in their notes' saved content. The journal is rewritten under a new ID to hold only
+	 * those edits, which stay there until their notes are saved.
+	 */
+	public synchronized void open(SavedSequences saved) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map((int) Math.max(INITIAL_CAPACITY, channel.size()));
+
+		long previousId = buffer.getLong(8);
+		Map<String, List<Edit>> pending = readPending();
+		for (Iterator<Map.Entry<String, List<Edit>>> it = pending.entrySet().iterator(); it.hasNext(); )
+		{
+			Map.Entry<String, List<Edit>> entry = it.next();
+			long lastSaved = saved.lastSaved(entry.getKey(), previousId);
+			entry.getValue().removeIf(edit -> edit.sequence <= lastSaved);
+			if (entry.getValue().isEmpty())
+			{
+				it.remove();
+			}
+		}
+
+		// Sequences saved under the old ID can't be mistaken for ones written from now on
+		do
+		{
+			journalId = new SecureRandom().nextLong();
+		}
+		while (journalId == 0 || journalId == previousId);
+		reset();
+
+		for (Map.Entry<String, List<Edit>> entry : pending.entrySet())
+		{
+			for (Edit edit : entry.getValue())
+			{
+				writeEdit(entry.getKey(), edit, edit.sequence);
+			}
+			recovered.put(entry.getKey(), entry.getValue());
+		}
+
+		if (!recovered.isEmpty())
+		{
+			log.debug("Found unsaved edits for {} notes in {}", recovered.size(), file);
+		}
+	}
+
+	public synchronized boolean isOpen()
+	{
+		return buffer != null;
+	}
+
+	/**
+	 * Hand over the edits recovered at open, grouped by note in the order they were made
+	 */
+	public synchronized Map<String, List<Edit>> takeRecoveredEdits()
+	{
+		Map<String, List<Edit>> edits = recovered;
+		recovered = new LinkedHashMap<>();
+		return edits;
+	}
+
+	public synchronized long currentSequence()
+	{
+		return nextSequence - 1;
+	}
+
+	/**
+	 * Identifies this journal's sequences, which only mean something together with it
+	 */
+	public synchronized long getJournalId()
+	{
+		return journalId;
+	}
+
+	public synchronized void recordInsert(String noteId, int offset, String text)
+	{
+		append(noteId, new Edit(0, Edit.Type.INSERT, offset, text.length(), text, 0, 0));
+	}
+
+	public synchronized void recordRemove(String noteId, int offset, int length)
+	{
+		append(noteId, new Edit(0, Edit.Type.REMOVE, offset, length, null, 0, 0));
+	}
+
+	public synchronized void recordIcon(String noteId, int offset, String itemName, int itemId, int itemQuantity)
+	{
+		append(noteId, new Edit(0, Edit.Type.ICON, offset, 1, itemName, itemId, itemQuantity));
+	}
+
+	/**
+	 * Mark every edit of a note up to the given sequence as saved
+	 */
+	public synchronized void checkpoint(String noteId, long sequence)
+	{
+		Long lastEdit = uncheckpointed.get(noteId);
+		if (buffer == null || lastEdit == null)
+		{
+			return;
+		}
+
+		if (sequence >= lastEdit)
+		{
+			uncheckpointed.remove(noteId);
+			checkpointed.remove(noteId);
+			if (uncheckpointed.isEmpty())
+			{
+				reset(); // Everything is on disk, start over
+				return;
+			}
+		}
+		else
+		{
+			checkpointed.merge(noteId, sequence, Math::max);
+		}
+
+		ByteBuffer payload = beginPayload(TYPE_CHECKPOINT, nextSequence, noteId, 8);
+		payload.putLong(sequence);
+		if (writeRecord(payload))
+		{
+			nextSequence++;
+		}
+	}
+
+	/**
+	 * Forget a note's journaled edits, e.g. when it is deleted
+	 */
+	public synchronized void discard(String noteId)
+	{
+		checkpoint(noteId, Long.MAX_VALUE);
+	}
+
+	public synchronized void close()
+	{
+		if (buffer == null)
+		{
+			return;
+		}
+
+		try
+		{
+			buffer.force();
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to close edit journal: {}", file, e);
+		}
+		buffer = null;
+		channel = null;
+	}
+
+	private void append(String noteId, Edit edit)
+	{
+		if (buffer != null && writeEdit(noteId, edit, nextSequence))
+		{
+			nextSequence++;
+		}
+	}
+
+	private boolean writeEdit(String noteId, Edit edit, long sequence)
+	{
+		byte[] text = edit.text != null ? edit.text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		ByteBuffer payload;
+		switch (edit.type)
+		{
+			case INSERT:
+				payload = beginPayload(TYPE_INSERT, sequence, noteId, 8 + text.length);
+				payload.putInt(edit.offset).putInt(text.length).put(text);
+				break;
+			case REMOVE:
+				payload = beginPayload(TYPE_REMOVE, sequence, noteId, 8);
+				payload.putInt(edit.offset).putInt(edit.length);
+				break;
+			default:
+				payload = beginPayload(TYPE_ICON, sequence, noteId, 16 + text.length);
+				payload.putInt(edit.offset).putInt(edit.itemId).putInt(edit.itemQuantity).putInt(text.length).put(text);
+				break;
+		}
+
+		if (!writeRecord(payload))
+		{
+			return false;
+		}
+		uncheckpointed.put(noteId, sequence);
+		return true;
+	}
+
+	private static ByteBuffer beginPayload(byte type, long sequence, String noteId, int operationSize)
+	{
+		byte[] id = noteId.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 2 + id.length + operationSize);
+		payload.put(type).putLong(sequence).putShort((short) id.length).put(id);
+		return payload;
+	}
+
+	/**
+	 * Append a record to the mapped file, making room for it first if needed
+	 *
+	 * @return false if it couldn't be written
+	 */
+	private boolean writeRecord(ByteBuffer payload)
+	{
+		byte[] bytes = payload.array();
+		int recordSize = RECORD_HEADER_SIZE + bytes.length;
+
+		try
+		{
+			ensureCapacity(recordSize + 4);
+		}
+		catch (IOException e)
+		{
+			log.warn("Edit journal is full and couldn't grow: {}", file, e);
+			return false;
+		}
+
+		position = putRecord(position, bytes);
+		return true;
+	}
+
+	/**
+	 * Copy a record into the mapped file. The length goes in last, so a record only
+	 * becomes visible once it is complete.
+	 *
+	 * @return where the record ends
+	 */
+	private int putRecord(int offset, byte[] bytes)
+	{
+		int recordEnd = offset + RECORD_HEADER_SIZE + bytes.length;
+
+		crc.reset();
+		crc.update(bytes, 0, bytes.length);
+
+		buffer.position(offset + RECORD_HEADER_SIZE);
+		buffer.put(bytes);
+		buffer.putInt(recordEnd, 0); // End marker for the next reader
+		buffer.putInt(offset + 4, (int) crc.getValue());
+		buffer.putInt(offset, bytes.length);
+		return recordEnd;
+	}
+
+	/**
+	 * Read every valid record, dropping edits a later checkpoint covers. Stops at the first
+	 * record that is torn, corrupt or left over from before the journal was last reset,
+	 * which the sequences always increasing give away.
+	 */
+	private Map<String, List<Edit>> readPending()
+	{
+		Map<String, List<Edit>> pending = new LinkedHashMap<>();
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+		{
+			return pending;
+		}
+
+		long lastSequence = 0;
+		int offset = HEADER_SIZE;
+
+		while (offset + RECORD_HEADER_SIZE <= buffer.capacity())
+		{
+			int length = buffer.getInt(offset);
+			if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER_SIZE)
+			{
+				break;
+			}
+
+			byte[] bytes = new byte[length];
+			buffer.position(offset + RECORD_HEADER_SIZE);
+			buffer.get(bytes);
+
+			crc.reset();
+			crc.update(bytes, 0, bytes.length);
+			if ((int) crc.getValue() != buffer.getInt(offset + 4))
+			{
+				break;
+			}
+
+			ByteBuffer payload = ByteBuffer.wrap(bytes);
+			byte type = payload.get();
+			long sequence = payload.getLong();
+			if (sequence <= lastSequence)
+			{
+				break;
+			}
+
+			byte[] id = new byte[payload.getShort()];
+			payload.get(id);
+			String noteId = new String(id, StandardCharsets.UTF_8);
+
+			if (type == TYPE_CHECKPOINT)
+			{
+				long checkpoint = payload.getLong();
+				List<Edit> edits = pending.get(noteId);
+				if (edits != null)
+				{
+					edits.removeIf(edit -> edit.sequence <= checkpoint);
+					if (edits.isEmpty())
+					{
+						pending.remove(noteId);
+					}
+				}
+			}
+			else
+			{
+				Edit edit = readEdit(type, sequence, payload);
+				if (edit == null)
+				{
+					break;
+				}
+				pending.computeIfAbsent(noteId, k -> new ArrayList<>()).add(edit);
+			}
+
+			offset += RECORD_HEADER_SIZE + length;
+			lastSequence = sequence;
+		}
+
+		nextSequence = Math.max(nextSequence, Math.max(buffer.getLong(16), lastSequence + 1));
+		return pending;
+	}
+
+	private static Edit readEdit(byte type, long sequence, ByteBuffer payload)
+	{
+		int offset = payload.getInt();
+		switch (type)
+		{
+			case TYPE_INSERT:
+			{
+				byte[] text = new byte[payload.getInt()];
+				payload.get(text);
+				String value = new String(text, StandardCharsets.UTF_8);
+				return new Edit(sequence, Edit.Type.INSERT, offset, value.length(), value, 0, 0);
+			}
+			case TYPE_REMOVE:
+				return new Edit(sequence, Edit.Type.REMOVE, offset, payload.getInt(), null, 0, 0);
+			case TYPE_ICON:
+			{
+				int itemId = payload.getInt();
+				int itemQuantity = payload.getInt();
+				byte[] name = new byte[payload.getInt()];
+				payload.get(name);
+				return new Edit(sequence, Edit.Type.ICON, offset, 1, new String(name, StandardCharsets.UTF_8), itemId, itemQuantity);
+			}
+			default:
+				return null;
+		}
+	}
+
+	private void reset()
+	{
+		uncheckpointed.clear();
+		checkpointed.clear();
+		writeHeader();
+		buffer.putInt(HEADER_SIZE, 0);
+		position = HEADER_SIZE;
+	}
+
+	private void writeHeader()
+	{
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putLong(8, journalId);
+		buffer.putLong(16, nextSequence);
+	}
+
+	/**
+	 * Make room for the given number of bytes after the last record, first by dropping
+	 * saved edits and checkpoints and only then by growing the file
+	 */
+	private void ensureCapacity(int size) throws IOException
+	{
+		if (position + size <= buffer.capacity())
+		{
+			return;
+		}
+
+		compact();
+
+		// Grow rather than compact again on the next few records
+		int capacity = buffer.capacity();
+		while (position + size > capacity || position > capacity / 2)
+		{
+			capacity *= 2;
+		}
+		if (capacity != buffer.capacity())
+		{
+			map(capacity);
+		}
+	}
+
+	/**
+	 * Rewrite the journal with only the edits not yet saved, keeping their sequences so
+	 * the saves already in flight still cover them
+	 */
+	private void compact()
+	{
+		List<byte[]> live = new ArrayList<>();
+		int offset = HEADER_SIZE;
+		while (offset < position)
+		{
+			int length = buffer.getInt(offset);
+			byte[] bytes = new byte[length];
+			buffer.position(offset + RECORD_HEADER_SIZE);
+			buffer.get(bytes);
+			offset += RECORD_HEADER_SIZE + length;
+
+			ByteBuffer payload = ByteBuffer.wrap(bytes);
+			byte type = payload.get();
+			long sequence = payload.getLong();
+			byte[] id = new byte[payload.getShort()];
+			payload.get(id);
+			String noteId = new String(id, StandardCharsets.UTF_8);
+
+			if (type != TYPE_CHECKPOINT && uncheckpointed.containsKey(noteId)
+				&& sequence > checkpointed.getOrDefault(noteId, 0L))
+			{
+				live.add(bytes);
+			}
+		}
+
+		writeHeader();
+		buffer.putInt(HEADER_SIZE, 0);
+		int end = HEADER_SIZE;
+		for (byte[] bytes : live)
+		{
+			end = putRecord(end, bytes);
+		}
+
+		log.debug("Compacted edit journal from {} to {} bytes", position, end);
+		position = end;
+	}
+
+	private void map(int capacity) throws IOException
+	{
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	/**
+	 * Looks up the last journal sequence a note's saved content includes
+	 */
+	@FunctionalInterface
+	public interface SavedSequences
+	{
+		/**
+		 * @return the sequence, or {@link #NO_SAVED_SEQUENCE} if the note wasn't saved
+		 * with this journal
+		 */
+		long lastSaved(String noteId, long journalId);
+	}
+
+	/**
+	 * One journaled edit. For icons, text holds the item name.
+	 */
+	@Value
+	public static class Edit
+	{
+		public enum Type
+		{
+			INSERT,
+			REMOVE,
+			ICON
+		}
+
+		long sequence;
+		Type type;
+		int offset;
+		int length;
+		String text;
+		int itemId;
+		int itemQuantity;
+	}
+}
@@ -10,21 +10,46 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import dev.seafoo.richtextnotes.models.EditorLayout;
+import dev.seafoo.richtextnotes.models.NoteContentWriter;
+import dev.seafoo.richtextnotes.models.NoteFileChange;
 import dev.seafoo.richtextnotes.models.NoteMetadata;
+import dev.seafoo.richtextnotes.models.NoteSaveRequest;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.swing.SwingUtilities;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.RuneLite;
 import net.runelite.client.config.ConfigManager;
@@ -36,16 +61,61 @@ public class FileStorageService
 	private static final String NOTES_ENHANCED_DIR = "rich-text-notes";
 	private static final String NOTES_SUBDIR = "notes";
 	private static final String BACKUP_SUBDIR = "backups";
+	private static final String METADATA_INDEX_FILE = "notes-index.json";
+	private static final String EDIT_JOURNAL_FILE = "edits.journal";
+	private static final String JOURNAL_ID_PROPERTY = "journal_id";
+	private static final String JOURNAL_SEQUENCE_PROPERTY = "journal_sequence";
 
 	private static final String DEFAULT_PROFILE = "default_profile";
 
 	private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
+	private static final long FLUSH_TIMEOUT_SECONDS = 10;
+
+	// Backup compaction runs in the background, only once saving has been quiet for a while
+	private static final long MAINTENANCE_CHECK_MINUTES = 5;
+	private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+	private static final long COMPACTION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+	private static final int RECOMPRESS_BATCH_SIZE = 20;
+	private static final int NOTE_WRITE_BUFFER_SIZE = 64 * 1024;
 
 	private final Gson gson;
+	private final Gson indexGson;
 	private final Path baseDirectory;
 	private final ConfigManager configManager;
 	private String currentProfileDirectory;
+	private volatile NoteMetadataIndex metadataIndex;
+	private volatile BackupStore backupStore;
+	private volatile EditJournal editJournal;
+	// Last journal sequence each note was saved with since the journal was opened
+	private final Map<String, Long> savedJournalSequences = new ConcurrentHashMap<>();
+	private volatile NoteCache noteCache = new NoteCache();
+	private NotesDirectoryWatcher directoryWatcher;
+
+	// What each file looked like right after we last wrote or deleted it, so the
+	// directory watcher can tell our own writes from everyone else's
+	private final Map<Path, FileStamp> ownWrites = new ConcurrentHashMap<>();
+	// When the watcher last handed over changes; files modified since may be among lost events
+	private volatile long lastWatchedMillis = System.currentTimeMillis();
+	private final List<Consumer<NoteFileChange>> externalChangeListeners = new CopyOnWriteArrayList<>();
+
+	// Write-behind save queue, keyed by note file so repeated saves of a note coalesce
+	private final ExecutorService saveExecutor;
+	private final Map<Path, PendingSave> pendingSaves = new LinkedHashMap<>();
+	private final Object ioLock = new Object();
+	private boolean drainScheduled = false;
+	private int groupCommitDepth = 0;
+
+	private final ScheduledExecutorService maintenanceExecutor;
+	private volatile long lastWriteMillis = System.currentTimeMillis();
+	private long lastCompactionMillis = 0;
+
+	// Whether note files are written deflated; reads handle either format
+	private volatile boolean compressNotes = false;
+
+	// Every streamed note write goes through this one buffer; only used under the I/O lock
+	private final ByteBuffer noteWriteBuffer = ByteBuffer.allocateDirect(NOTE_WRITE_BUFFER_SIZE);
 
 	public FileStorageService(ConfigManager configManager, Gson gson)
 	{
@@ -53,7 +123,24 @@ public class FileStorageService
 		this.gson = gson.newBuilder().setPrettyPrinting()
 			.registerTypeAdapter(LocalDateTime.class, new LocalDateTimeTypeAdapter())
 			.create();
+		// The index is read on every listing, so keep it compact
+		this.indexGson = gson.newBuilder()
+			.registerTypeAdapter(LocalDateTime.class, new LocalDateTimeTypeAdapter())
+			.create();
 		this.baseDirectory = RuneLite.RUNELITE_DIR.toPath().resolve(NOTES_ENHANCED_DIR);
+		this.saveExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "rich-text-notes-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "rich-text-notes-maintenance");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		maintenanceExecutor.scheduleWithFixedDelay(this::compactBackupsIfIdle,
+			MAINTENANCE_CHECK_MINUTES, MAINTENANCE_CHECK_MINUTES, TimeUnit.MINUTES);
 
 		initializeDirectories();
 		updateCurrentProfile();
@@ -132,9 +219,23 @@ public class FileStorageService
 			Path profileDir = getProfileDirectory();
 			Files.createDirectories(profileDir.resolve(NOTES_SUBDIR));
 			Files.createDirectories(profileDir.resolve(BACKUP_SUBDIR));
+			deleteLeftoverTempFiles(profileDir);
+			deleteLeftoverTempFiles(profileDir.resolve(NOTES_SUBDIR));
 
 			log.debug("Created directories for profile: {}", currentProfileDirectory);
 
+			NoteMetadataIndex index = new NoteMetadataIndex(profileDir.resolve(METADATA_INDEX_FILE),
+				profileDir.resolve(NOTES_SUBDIR), indexGson);
+			synchronized (ioLock)
+			{
+				index.load();
+			}
+			metadataIndex = index;
+			noteCache = new NoteCache();
+			backupStore = new BackupStore(profileDir.resolve(BACKUP_SUBDIR), indexGson);
+			openEditJournal(profileDir);
+			startDirectoryWatcher(profileDir);
+
 		}
 		catch (IOException e)
 		{
@@ -143,6 +244,106 @@ public class FileStorageService
 		}
 	}
 
+	private void openEditJournal(Path profileDir)
+	{
+		if (editJournal != null)
+		{
+			editJournal.close();
+		}
+
+		savedJournalSequences.clear();
+		EditJournal journal = new EditJournal(profileDir.resolve(EDIT_JOURNAL_FILE));
+		try
+		{
+			journal.open((noteId, journalId) -> readSavedJournalSequence(profileDir, noteId, journalId));
+		}
+		catch (IOException e)
+		{
+			// Editing still works, unsaved changes just can't be recovered after a crash
+			log.warn("Failed to open edit journal for profile: {}", currentProfileDirectory, e);
+		}
+		editJournal = journal;
+	}
+
+	/**
+	 * The journal sequence recorded in a note's metadata file by its last save, if that
+	 * save was made with the given journal
+	 */
+	private long readSavedJournalSequence(Path profileDir, String noteId, long journalId)
+	{
+		Path metadataFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".json");
+		try
+		{
+			String json = new String(Files.readAllBytes(metadataFile), StandardCharsets.UTF_8);
+			JsonObject saved = gson.fromJson(json, JsonObject.class);
+			if (saved != null && saved.has(JOURNAL_ID_PROPERTY) && saved.has(JOURNAL_SEQUENCE_PROPERTY)
+				&& saved.get(JOURNAL_ID_PROPERTY).getAsLong() == journalId)
+			{
+				return saved.get(JOURNAL_SEQUENCE_PROPERTY).getAsLong();
+			}
+		}
+		catch (Exception e)
+		{
+			log.debug("No saved journal sequence for note: {}", noteId);
+		}
+		return EditJournal.NO_SAVED_SEQUENCE;
+	}
+
+	private void startDirectoryWatcher(Path profileDir)
+	{
+		if (directoryWatcher != null)
+		{
+			directoryWatcher.stop();
+		}
+		ownWrites.clear();
+		lastWatchedMillis = System.currentTimeMillis();
+
+		NotesDirectoryWatcher watcher = new NotesDirectoryWatcher(profileDir.resolve(NOTES_SUBDIR),
+			files -> handleExternalChanges(profileDir, files),
+			() -> reconcileAfterOverflow(profileDir));
+		try
+		{
+			watcher.start();
+			directoryWatcher = watcher;
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to watch notes directory for profile: {}", currentProfileDirectory, e);
+			directoryWatcher = null;
+		}
+	}
+
+	/**
+	 * The current profile's shared cache of open (and recently closed) notes
+	 */
+	public NoteCache getNoteCache()
+	{
+		return noteCache;
+	}
+
+	/**
+	 * The current profile's edit journal. Appends are ignored if it couldn't be opened.
+	 */
+	public EditJournal getEditJournal()
+	{
+		return editJournal;
+	}
+
+	/**
+	 * Temp files only survive if we crashed mid-write; the real file is still intact
+	 */
+	private void deleteLeftoverTempFiles(Path directory) throws IOException
+	{
+		try (Stream<Path> files = Files.list(directory))
+		{
+			for (Path file : files.filter(AtomicWriteBatch::isTempFile).collect(Collectors.toList()))
+			{
+				log.debug("Removing leftover temp file: {}", file);
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
 	private String sanitizeProfileName(String profileName)
 	{
 		if (profileName == null || profileName.trim().isEmpty())
@@ -168,24 +369,133 @@ public class FileStorageService
 	 * Note file operations
 	 */
 
-	public String saveNote(String noteId, String rtfContent) throws IOException
+	private void stageNoteFile(AtomicWriteBatch batch, NoteMetadataIndex.Changes indexChanges, Path profileDir,
+		String noteId, String rtfContent) throws IOException
+	{
+		Path noteFile = prepareNoteFile(batch, indexChanges, profileDir, noteId);
+		batch.stage(noteFile, NoteCodec.encode(rtfContent, compressNotes));
+	}
+
+	/**
+	 * @return the journal sequence the streamed content includes
+	 */
+	private long stageNoteFile(AtomicWriteBatch batch, NoteMetadataIndex.Changes indexChanges, Path profileDir,
+		String noteId, NoteContentWriter content) throws IOException
 	{
-		if (noteId == null)
+		Path noteFile = prepareNoteFile(batch, indexChanges, profileDir, noteId);
+		boolean compress = compressNotes;
+		AtomicLong sequence = new AtomicLong(NoteSaveRequest.NO_JOURNAL_SEQUENCE);
+		batch.stage(noteFile, channel -> sequence.set(NoteCodec.encode(content, compress, channel, noteWriteBuffer)));
+		return sequence.get();
+	}
+
+	/**
+	 * Back up the note's previous version, if any, and make sure it is indexed
+	 */
+	private Path prepareNoteFile(AtomicWriteBatch batch, NoteMetadataIndex.Changes indexChanges, Path profileDir,
+		String noteId) throws IOException
+	{
+		Path noteFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
+
+		// Back up the previous version if the file exists
+		if (Files.exists(noteFile))
 		{
-			noteId = generateNoteId();
+			createBackup(batch, profileDir, noteId);
 		}
 
-		Path noteFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
+		NoteMetadataIndex index = indexFor(profileDir);
+		if (index == null || !index.contains(noteId))
+		{
+			indexChanges.ensureEntry(noteId);
+		}
+		return noteFile;
+	}
 
-		// Create backup if file exists
-		if (Files.exists(noteFile))
+	/**
+	 * The metadata index for a profile, or null if that profile is no longer current
+	 */
+	private NoteMetadataIndex indexFor(Path profileDir)
+	{
+		NoteMetadataIndex index = metadataIndex;
+		if (index != null && index.getNotesDirectory().equals(profileDir.resolve(NOTES_SUBDIR)))
+		{
+			return index;
+		}
+		return null;
+	}
+
+	/**
+	 * The edit journal for a profile, or null if that profile is no longer current
+	 */
+	private EditJournal journalFor(Path profileDir)
+	{
+		return profileDir.equals(getProfileDirectory()) ? editJournal : null;
+	}
+
+	/**
+	 * Commit a batch, then record its metadata changes in the index's delta log.
+	 * The full index is rewritten in the background once the log has grown.
+	 */
+	private void commitWithIndex(AtomicWriteBatch batch, NoteMetadataIndex index, NoteMetadataIndex.Changes indexChanges)
+		throws IOException
+	{
+		commitBatch(batch);
+
+		// The files the changes describe are only on disk now
+		if (index != null)
+		{
+			index.apply(indexChanges);
+			if (index.needsCompaction())
+			{
+				try
+				{
+					maintenanceExecutor.execute(this::compactMetadataIndex);
+				}
+				catch (RejectedExecutionException e)
+				{
+					// Shutting down; the log is folded in at the next startup
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fold the index's delta log back into the index file
+	 */
+	private void compactMetadataIndex()
+	{
+		synchronized (ioLock)
+		{
+			NoteMetadataIndex index = metadataIndex;
+			if (index == null || !index.needsCompaction())
+			{
+				return;
+			}
+
+			try
+			{
+				index.save();
+			}
+			catch (IOException e)
+			{
+				log.warn("Failed to compact metadata index", e);
+			}
+		}
+	}
+
+	/**
+	 * Commit a batch, remembering what the written files look like. The rename keeps
+	 * each temp file's size and modification time, so they are recorded up front.
+	 */
+	private void commitBatch(AtomicWriteBatch batch) throws IOException
+	{
+		for (Map.Entry<Path, Path> staged : batch.getStagedFiles().entrySet())
 		{
-			createBackup(noteId);
+			ownWrites.put(staged.getKey(), FileStamp.of(staged.getValue()));
 		}
 
-		Files.write(noteFile, rtfContent.getBytes(StandardCharsets.UTF_8));
-		log.debug("Saved note: {} for profile: {}", noteId, getCurrentProfileName());
-		return noteId;
+		batch.commit();
+		lastWriteMillis = System.currentTimeMillis();
 	}
 
 	public String loadNote(String noteId) throws IOException
@@ -197,35 +507,212 @@ public class FileStorageService
 			throw new FileNotFoundException("Note not found: " + noteId + " in profile: " + getCurrentProfileName());
 		}
 
-		return new String(Files.readAllBytes(noteFile), StandardCharsets.UTF_8);
+		return NoteCodec.decode(Files.readAllBytes(noteFile));
 	}
 
-	public void deleteNote(String noteId) throws IOException
+	/**
+	 * Open a note for streaming its RTF straight into a reader, without materializing
+	 * the whole note as a String. The caller must close the stream.
+	 */
+	public InputStream openNote(String noteId) throws IOException
 	{
-		// Create backup before deletion
-		createBackup(noteId);
-
 		Path noteFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
-		Path metadataFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".json");
 
-		Files.deleteIfExists(noteFile);
-		Files.deleteIfExists(metadataFile);
-		log.debug("Deleted note: {} from profile: {}", noteId, getCurrentProfileName());
+		InputStream in;
+		try
+		{
+			in = Files.newInputStream(noteFile);
+		}
+		catch (NoSuchFileException e)
+		{
+			throw new FileNotFoundException("Note not found: " + noteId + " in profile: " + getCurrentProfileName());
+		}
+
+		try
+		{
+			return NoteCodec.decodingStream(in);
+		}
+		catch (IOException e)
+		{
+			in.close();
+			throw e;
+		}
+	}
+
+	public void setCompressNotes(boolean compressNotes)
+	{
+		this.compressNotes = compressNotes;
+	}
+
+	/**
+	 * Rewrite every note of the current profile in the configured storage format, in the
+	 * background. Notes already in that format are left alone. Saves are only held up for
+	 * the few notes being rewritten at any moment.
+	 *
+	 * @return the number of notes rewritten
+	 */
+	public CompletableFuture<Integer> recompressNotes()
+	{
+		Path notesDir = getNotesDirectory();
+		boolean compress = compressNotes;
+
+		return CompletableFuture.supplyAsync(() -> {
+			int rewritten = 0;
+			long bytesBefore = 0;
+			long bytesAfter = 0;
+
+			try
+			{
+				List<Path> noteFiles;
+				try (Stream<Path> files = Files.list(notesDir))
+				{
+					noteFiles = files.filter(path -> path.toString().endsWith(".rtf")).collect(Collectors.toList());
+				}
+
+				for (int start = 0; start < noteFiles.size(); start += RECOMPRESS_BATCH_SIZE)
+				{
+					List<Path> chunk = noteFiles.subList(start, Math.min(start + RECOMPRESS_BATCH_SIZE, noteFiles.size()));
+
+					synchronized (ioLock)
+					{
+						AtomicWriteBatch batch = new AtomicWriteBatch();
+						for (Path noteFile : chunk)
+						{
+							if (!Files.exists(noteFile))
+							{
+								continue; // Deleted since we listed the directory
+							}
+
+							byte[] data = Files.readAllBytes(noteFile);
+							if (NoteCodec.isCompressed(data) == compress)
+							{
+								continue;
+							}
+
+							byte[] encoded = NoteCodec.encode(NoteCodec.decode(data), compress);
+							batch.stage(noteFile, encoded);
+							bytesBefore += data.length;
+							bytesAfter += encoded.length;
+							rewritten++;
+						}
+						commitBatch(batch);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+
+			log.debug("Rewrote {} notes ({} compression): {} -> {} bytes",
+				rewritten, compress ? "with" : "without", bytesBefore, bytesAfter);
+			return rewritten;
+		}, maintenanceExecutor);
+	}
+
+	/**
+	 * Delete a note on the background writer thread, after any saves queued before it.
+	 * Callbacks are invoked on the EDT.
+	 */
+	public void queueDelete(String noteId, Runnable onDeleted, Consumer<Exception> onFailed)
+	{
+		Path profileDir = getProfileDirectory();
+		Path noteFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
+		Path metadataFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".json");
+
+		// Drop any queued save so it can't recreate the note after deletion
+		synchronized (pendingSaves)
+		{
+			pendingSaves.remove(noteFile);
+		}
+		ownWrites.put(noteFile, FileStamp.MISSING);
+		ownWrites.put(metadataFile, FileStamp.MISSING);
+
+		saveExecutor.execute(() -> {
+			try
+			{
+				deleteNoteFiles(profileDir, noteId, noteFile, metadataFile);
+			}
+			catch (Exception e)
+			{
+				log.error("Failed to delete note: {}", noteId, e);
+				if (onFailed != null)
+				{
+					SwingUtilities.invokeLater(() -> onFailed.accept(e));
+				}
+				return;
+			}
+
+			log.debug("Deleted note: {} from profile: {}", noteId, profileDir.getFileName());
+			if (onDeleted != null)
+			{
+				SwingUtilities.invokeLater(onDeleted);
+			}
+		});
+	}
+
+	private void deleteNoteFiles(Path profileDir, String noteId, Path noteFile, Path metadataFile) throws IOException
+	{
+		synchronized (ioLock)
+		{
+			// Create backup before deletion
+			AtomicWriteBatch backupBatch = new AtomicWriteBatch();
+			createBackup(backupBatch, profileDir, noteId);
+			backupBatch.commit();
+
+			Files.deleteIfExists(noteFile);
+			Files.deleteIfExists(metadataFile);
+
+			NoteMetadataIndex index = indexFor(profileDir);
+			if (index != null)
+			{
+				index.remove(noteId);
+			}
+
+			EditJournal journal = journalFor(profileDir);
+			if (journal != null)
+			{
+				journal.discard(noteId);
+			}
+		}
+		savedJournalSequences.remove(noteId);
+		noteCache.remove(noteId);
 	}
 
 	/**
 	 * Metadata operations
 	 */
 
-	public void saveNoteMetadata(String noteId, NoteMetadata metadata) throws IOException
+	/**
+	 * Stage a note's metadata file, along with the journal sequence its saved content includes
+	 * if there is one, so the journal can't replay those edits even if their checkpoint is lost
+	 */
+	private void stageMetadataFile(AtomicWriteBatch batch, NoteMetadataIndex.Changes indexChanges, Path profileDir,
+		String noteId, NoteMetadata metadata, EditJournal journal, Long journalSequence) throws IOException
 	{
-		Path metadataFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".json");
-		String json = gson.toJson(metadata);
-		Files.write(metadataFile, json.getBytes(StandardCharsets.UTF_8));
+		Path metadataFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".json");
+		JsonObject saved = gson.toJsonTree(metadata).getAsJsonObject();
+		if (journal != null && journalSequence != null)
+		{
+			saved.addProperty(JOURNAL_ID_PROPERTY, journal.getJournalId());
+			saved.addProperty(JOURNAL_SEQUENCE_PROPERTY, journalSequence);
+		}
+		String json = gson.toJson(saved);
+		Path tempFile = batch.stage(metadataFile, json.getBytes(StandardCharsets.UTF_8));
+
+		// The rename keeps the temp file's modification time, so record it now
+		indexChanges.put(noteId, metadata, Files.getLastModifiedTime(tempFile).toMillis());
 	}
 
 	public NoteMetadata loadNoteMetadata(String noteId) throws IOException
 	{
+		NoteMetadataIndex index = metadataIndex;
+		NoteMetadata indexed = index != null ? index.get(noteId) : null;
+		if (indexed != null)
+		{
+			return indexed;
+		}
+
 		Path metadataFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".json");
 
 		if (!Files.exists(metadataFile))
@@ -239,150 +726,523 @@ public class FileStorageService
 	}
 
 	/**
-	 * Layout persistence
+	 * Background save operations
 	 */
 
-	public void saveEditorLayout(EditorLayout layout) throws IOException
+	/**
+	 * Queue a note to be written on the background writer thread. If a save for the
+	 * same note is still waiting it is replaced by this one, so rapid autosaves only
+	 * hit the disk once. Callbacks are invoked on the EDT.
+	 */
+	public void queueSave(NoteSaveRequest request, Runnable onSaved, Consumer<Exception> onFailed)
 	{
-		Path layoutFile = getProfileDirectory().resolve("layout.json");
-		String json = gson.toJson(layout);
-		Files.write(layoutFile, json.getBytes(StandardCharsets.UTF_8));
+		Path profileDir = getProfileDirectory();
+		Path noteFile = profileDir.resolve(NOTES_SUBDIR).resolve(request.getNoteId() + ".rtf");
+
+		synchronized (pendingSaves)
+		{
+			PendingSave pending = pendingSaves.get(noteFile);
+			if (pending == null)
+			{
+				pending = new PendingSave(profileDir, request);
+				pendingSaves.put(noteFile, pending);
+			}
+			else
+			{
+				pending.request = pending.request.mergeWith(request);
+			}
+
+			if (onSaved != null)
+			{
+				pending.onSaved.add(onSaved);
+			}
+			if (onFailed != null)
+			{
+				pending.onFailed.add(onFailed);
+			}
+
+			scheduleDrain();
+		}
 	}
 
-	public EditorLayout loadEditorLayout() throws IOException
+	/**
+	 * Hold queued saves until the matching {@link #endGroupCommit()} so that everything
+	 * queued in between is written as one batch with a single sync point
+	 */
+	public void beginGroupCommit()
 	{
-		Path layoutFile = getProfileDirectory().resolve("layout.json");
+		synchronized (pendingSaves)
+		{
+			groupCommitDepth++;
+		}
+	}
 
-		if (!Files.exists(layoutFile))
+	public void endGroupCommit()
+	{
+		synchronized (pendingSaves)
 		{
-			return new EditorLayout(); // Return default layout
+			groupCommitDepth = Math.max(0, groupCommitDepth - 1);
+			scheduleDrain();
 		}
+	}
 
-		String json = new String(Files.readAllBytes(layoutFile), StandardCharsets.UTF_8);
-		return gson.fromJson(json, EditorLayout.class);
+	// Must hold the pendingSaves lock
+	private void scheduleDrain()
+	{
+		if (!drainScheduled && groupCommitDepth == 0 && !pendingSaves.isEmpty())
+		{
+			drainScheduled = true;
+			saveExecutor.execute(this::drainPendingSaves);
+		}
 	}
 
 	/**
-	 * List operations
+	 * Block until every queued save has been written. Used before profile switches and shutdown.
 	 */
+	public void flushPendingSaves()
+	{
+		try
+		{
+			saveExecutor.submit(() -> {
+			}).get(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while flushing pending note saves");
+		}
+		catch (ExecutionException | TimeoutException e)
+		{
+			log.error("Failed to flush pending note saves", e);
+		}
+	}
 
-	public List<String> listNotes() throws IOException
+	/**
+	 * Flush queued saves and stop the writer thread
+	 */
+	public void shutdown()
 	{
-		Path notesDir = getProfileDirectory().resolve(NOTES_SUBDIR);
+		maintenanceExecutor.shutdownNow();
+		flushPendingSaves();
+		saveExecutor.shutdown();
 
-		if (!Files.exists(notesDir))
+		if (editJournal != null)
 		{
-			return new ArrayList<>();
+			editJournal.close();
 		}
 
-		return Files.list(notesDir)
-			.filter(path -> path.toString().endsWith(".rtf"))
-			.map(path -> {
-				String filename = path.getFileName().toString();
-				return filename.substring(0, filename.length() - 4); // Remove .rtf extension
-			})
-			.collect(Collectors.toList());
+		if (directoryWatcher != null)
+		{
+			directoryWatcher.stop();
+		}
 	}
 
-	public List<NoteMetadata> listNotesWithMetadata() throws IOException
+	private void drainPendingSaves()
+	{
+		while (true)
+		{
+			List<PendingSave> batch;
+			synchronized (pendingSaves)
+			{
+				if (pendingSaves.isEmpty())
+				{
+					drainScheduled = false;
+					return;
+				}
+
+				batch = new ArrayList<>(pendingSaves.values());
+				pendingSaves.clear();
+			}
+
+			writeBatch(batch);
+		}
+	}
+
+	/**
+	 * Stage every note in the batch as temp files, then publish them all with one commit
+	 */
+	private void writeBatch(List<PendingSave> batch)
 	{
-		List<String> noteIds = listNotes();
-		List<NoteMetadata> metadataList = new ArrayList<>();
+		List<PendingSave> staged = new ArrayList<>();
 
-		for (String noteId : noteIds)
+		synchronized (ioLock)
 		{
+			NoteMetadataIndex index = metadataIndex;
+			AtomicWriteBatch writeBatch = new AtomicWriteBatch();
+			NoteMetadataIndex.Changes indexChanges = new NoteMetadataIndex.Changes();
+
+			for (PendingSave pending : batch)
+			{
+				// Each note is staged on its own so a failed one can be dropped without
+				// leaving half its files in the shared commit
+				NoteSaveRequest request = pending.request;
+				AtomicWriteBatch noteBatch = new AtomicWriteBatch();
+				NoteMetadataIndex.Changes noteChanges = new NoteMetadataIndex.Changes();
+				try
+				{
+					if (request.getContentWriter() != null)
+					{
+						pending.journalSequence = stageNoteFile(noteBatch, noteChanges, pending.profileDir,
+							request.getNoteId(), request.getContentWriter());
+					}
+					else if (request.hasContent())
+					{
+						stageNoteFile(noteBatch, noteChanges, pending.profileDir, request.getNoteId(), request.getRtfContent());
+						pending.journalSequence = request.getJournalSequence();
+					}
+					// Content saves also rewrite the metadata file to record the journal sequence they include
+					EditJournal journal = journalFor(pending.profileDir);
+					boolean journaled = journal != null && pending.journalSequence != NoteSaveRequest.NO_JOURNAL_SEQUENCE;
+					if (request.hasMetadata() || journaled)
+					{
+						NoteMetadata metadata = request.hasMetadata() ? request.getMetadata() : loadNoteMetadata(request.getNoteId());
+						Long journalSequence = journaled ? Long.valueOf(pending.journalSequence)
+							: savedJournalSequences.get(request.getNoteId());
+						stageMetadataFile(noteBatch, noteChanges, pending.profileDir, request.getNoteId(), metadata,
+							journal, journalSequence);
+					}
+					writeBatch.include(noteBatch);
+					if (indexFor(pending.profileDir) == index)
+					{
+						indexChanges.include(noteChanges);
+					}
+					staged.add(pending);
+				}
+				catch (Exception e)
+				{
+					noteBatch.abort();
+					notifyFailed(pending, e);
+				}
+			}
+
 			try
 			{
-				metadataList.add(loadNoteMetadata(noteId));
+				commitWithIndex(writeBatch, index, indexChanges);
 			}
-			catch (IOException e)
+			catch (Exception e)
 			{
-				log.warn("Could not load metadata for note: {} in profile: {}", noteId, getCurrentProfileName(), e);
-				// Add default metadata for notes without metadata files
-				metadataList.add(new NoteMetadata(noteId, "Untitled Note", LocalDateTime.now(), new ArrayList<>()));
+				staged.forEach(pending -> notifyFailed(pending, e));
+				return;
 			}
 		}
 
-		return metadataList;
+		log.debug("Saved {} notes in background", staged.size());
+		for (PendingSave pending : staged)
+		{
+			// The journaled edits this content includes are now safe on disk
+			NoteSaveRequest request = pending.request;
+			EditJournal journal = journalFor(pending.profileDir);
+			if (journal != null && pending.journalSequence != NoteSaveRequest.NO_JOURNAL_SEQUENCE)
+			{
+				savedJournalSequences.put(request.getNoteId(), pending.journalSequence);
+				journal.checkpoint(request.getNoteId(), pending.journalSequence);
+			}
+
+			pending.onSaved.forEach(SwingUtilities::invokeLater);
+		}
+	}
+
+	private void notifyFailed(PendingSave pending, Exception e)
+	{
+		log.error("Background save failed for note: {}", pending.request.getNoteId(), e);
+
+		for (Consumer<Exception> callback : pending.onFailed)
+		{
+			SwingUtilities.invokeLater(() -> callback.accept(e));
+		}
 	}
 
 	/**
-	 * Backup operations
+	 * External change handling
 	 */
 
-	private void createBackup(String noteId) throws IOException
+	/**
+	 * Be told on the EDT when a note's files are changed by something other than this plugin
+	 */
+	public void addExternalChangeListener(Consumer<NoteFileChange> listener)
 	{
-		Path noteFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
-		Path metadataFile = getProfileDirectory().resolve(NOTES_SUBDIR).resolve(noteId + ".json");
+		externalChangeListeners.add(listener);
+	}
 
-		if (!Files.exists(noteFile))
+	/**
+	 * Runs on the watcher thread with the files that changed. Our own writes are skipped,
+	 * everything else updates the index and is passed on to the listeners.
+	 */
+	private void handleExternalChanges(Path profileDir, Set<Path> files)
+	{
+		List<NoteFileChange> changes = new ArrayList<>();
+
+		synchronized (ioLock)
+		{
+			NoteMetadataIndex index = indexFor(profileDir);
+			if (index == null)
+			{
+				return; // Profile was switched away
+			}
+			lastWatchedMillis = System.currentTimeMillis();
+
+			for (Path file : files)
+			{
+				String fileName = file.getFileName().toString();
+				boolean isNote = fileName.endsWith(".rtf");
+				if (!isNote && !fileName.endsWith(".json"))
+				{
+					continue; // Temp files and anything else
+				}
+
+				FileStamp stamp = FileStamp.of(file);
+				if (stamp.equals(ownWrites.get(file)))
+				{
+					continue;
+				}
+				ownWrites.remove(file);
+
+				String noteId = fileName.substring(0, fileName.lastIndexOf('.'));
+				noteCache.discardUnused(noteId); // Open notes are left to their panes
+				if (isNote)
+				{
+					if (stamp == FileStamp.MISSING)
+					{
+						index.remove(noteId);
+						changes.add(new NoteFileChange(noteId, NoteFileChange.Type.DELETED));
+					}
+					else
+					{
+						index.ensureEntry(noteId);
+						changes.add(new NoteFileChange(noteId, NoteFileChange.Type.CONTENT_CHANGED));
+					}
+				}
+				else if (stamp != FileStamp.MISSING && index.contains(noteId))
+				{
+					try
+					{
+						String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+						index.put(noteId, gson.fromJson(json, NoteMetadata.class), stamp.getModified());
+						changes.add(new NoteFileChange(noteId, NoteFileChange.Type.METADATA_CHANGED));
+					}
+					catch (Exception e)
+					{
+						log.warn("Could not read externally changed metadata for note: {}", noteId, e);
+					}
+				}
+			}
+		}
+
+		if (!changes.isEmpty())
 		{
-			return; // Nothing to back up
+			log.debug("Notes changed outside the plugin: {}", changes);
+			notifyExternalChanges(changes);
 		}
+	}
 
-		String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-		Path backupDir = getProfileDirectory().resolve(BACKUP_SUBDIR).resolve(timestamp);
-		Files.createDirectories(backupDir);
+	/**
+	 * The watcher lost events, so re-check the directory against the index once and pass
+	 * on whatever differs. Note files can't be compared with what they were, so any not
+	 * written by us since the watcher last reported is treated as changed.
+	 */
+	private void reconcileAfterOverflow(Path profileDir)
+	{
+		List<NoteFileChange> changes = new ArrayList<>();
 
-		Files.copy(noteFile, backupDir.resolve(noteId + ".rtf"));
-		if (Files.exists(metadataFile))
+		synchronized (ioLock)
 		{
-			Files.copy(metadataFile, backupDir.resolve(noteId + ".json"));
+			NoteMetadataIndex index = indexFor(profileDir);
+			if (index == null)
+			{
+				return;
+			}
+
+			Map<String, NoteMetadata> before = new HashMap<>();
+			for (NoteMetadata metadata : index.getAll())
+			{
+				before.put(metadata.getNoteId(), metadata);
+			}
+			long watchedSince = lastWatchedMillis;
+			lastWatchedMillis = System.currentTimeMillis();
+
+			try
+			{
+				index.load();
+			}
+			catch (IOException e)
+			{
+				log.warn("Failed to reconcile notes directory after missed changes", e);
+				return;
+			}
+			noteCache.discardAllUnused();
+
+			for (String noteId : index.getNoteIds())
+			{
+				NoteMetadata previous = before.remove(noteId);
+				Path noteFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
+				FileStamp stamp = FileStamp.of(noteFile);
+				if (previous == null || (stamp.getModified() >= watchedSince && !stamp.equals(ownWrites.get(noteFile))))
+				{
+					changes.add(new NoteFileChange(noteId, NoteFileChange.Type.CONTENT_CHANGED));
+				}
+				if (previous != null && !previous.equals(index.get(noteId)))
+				{
+					changes.add(new NoteFileChange(noteId, NoteFileChange.Type.METADATA_CHANGED));
+				}
+			}
+
+			for (String noteId : before.keySet())
+			{
+				changes.add(new NoteFileChange(noteId, NoteFileChange.Type.DELETED));
+			}
+		}
+
+		if (!changes.isEmpty())
+		{
+			log.debug("Notes changed outside the plugin while changes were missed: {}", changes);
+			notifyExternalChanges(changes);
 		}
 	}
 
-	public void createFullBackup() throws IOException
+	private void notifyExternalChanges(List<NoteFileChange> changes)
 	{
-		String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-		Path backupDir = getProfileDirectory().resolve(BACKUP_SUBDIR).resolve("full_" + timestamp);
-		Files.createDirectories(backupDir);
+		SwingUtilities.invokeLater(() -> {
+			for (NoteFileChange change : changes)
+			{
+				for (Consumer<NoteFileChange> listener : externalChangeListeners)
+				{
+					listener.accept(change);
+				}
+			}
+		});
+	}
 
-		// Copy all notes and metadata
-		copyDirectoryRecursively(getProfileDirectory().resolve(NOTES_SUBDIR),
-			backupDir.resolve(NOTES_SUBDIR));
-		copyDirectoryRecursively(getProfileDirectory().resolve(NOTES_SUBDIR),
-			backupDir.resolve(NOTES_SUBDIR));
+	/**
+	 * Layout persistence
+	 */
 
-		// Copy layout
+	public void saveEditorLayout(EditorLayout layout) throws IOException
+	{
 		Path layoutFile = getProfileDirectory().resolve("layout.json");
-		if (Files.exists(layoutFile))
+		String json = gson.toJson(layout);
+		AtomicWriteBatch.write(layoutFile, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public EditorLayout loadEditorLayout() throws IOException
+	{
+		Path layoutFile = getProfileDirectory().resolve("layout.json");
+
+		if (!Files.exists(layoutFile))
 		{
-			Files.copy(layoutFile, backupDir.resolve("layout.json"));
+			return new EditorLayout(); // Return default layout
 		}
 
-		log.debug("Created full backup for profile {}: {}", getCurrentProfileName(), backupDir);
+		String json = new String(Files.readAllBytes(layoutFile), StandardCharsets.UTF_8);
+		return gson.fromJson(json, EditorLayout.class);
+	}
+
+	/**
+	 * List operations
+	 */
+
+	public List<String> listNotes() throws IOException
+	{
+		// The directory watcher keeps the index in step with the notes directory
+		NoteMetadataIndex index = metadataIndex;
+		return index != null ? index.getNoteIds() : new ArrayList<>();
+	}
+
+	public List<NoteMetadata> listNotesWithMetadata() throws IOException
+	{
+		// Served from the metadata index, which is kept in step with every metadata write
+		NoteMetadataIndex index = metadataIndex;
+		return index != null ? index.getAll() : new ArrayList<>();
+	}
+
+	/**
+	 * Backup operations
+	 */
+
+	private void createBackup(AtomicWriteBatch batch, Path profileDir, String noteId) throws IOException
+	{
+		Path noteFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".rtf");
+		Path metadataFile = profileDir.resolve(NOTES_SUBDIR).resolve(noteId + ".json");
+
+		backupStoreFor(profileDir).backupNote(batch, noteId, noteFile, metadataFile);
 	}
 
-	private void copyDirectoryRecursively(Path source, Path target) throws IOException
+	/**
+	 * Record a backup point for the whole profile. Only contents that were never
+	 * backed up before take up space; everything else is a reference in the manifest.
+	 */
+	public void createFullBackup() throws IOException
 	{
-		if (!Files.exists(source))
+		Path profileDir = getProfileDirectory();
+
+		synchronized (ioLock)
+		{
+			AtomicWriteBatch batch = new AtomicWriteBatch();
+			backupStoreFor(profileDir).backupAll(batch, profileDir.resolve(NOTES_SUBDIR), profileDir.resolve("layout.json"));
+			batch.commit();
+		}
+
+		log.debug("Created full backup for profile {}", getCurrentProfileName());
+	}
+
+	/**
+	 * Apply the backup retention policy to the current profile and delete blobs
+	 * no longer referenced. Runs without the I/O lock, so saves are never held up.
+	 */
+	public BackupStore.CompactionResult compactBackups() throws IOException
+	{
+		BackupStore store = backupStore;
+		if (store == null)
+		{
+			return new BackupStore.CompactionResult(0, 0, 0);
+		}
+
+		BackupStore.CompactionResult result = store.compact(BackupRetention.DEFAULT, LocalDateTime.now());
+		log.debug("Compacted backups for profile {}: removed {} backup points and {} blobs, reclaimed {} bytes",
+			getCurrentProfileName(), result.getRemovedBackupPoints(), result.getRemovedBlobs(), result.getBytesReclaimed());
+		return result;
+	}
+
+	private void compactBackupsIfIdle()
+	{
+		long now = System.currentTimeMillis();
+		if (now - lastCompactionMillis < COMPACTION_INTERVAL_MILLIS || now - lastWriteMillis < COMPACTION_IDLE_MILLIS)
 		{
 			return;
 		}
 
-		Files.createDirectories(target);
-		Files.walk(source)
-			.forEach(sourcePath -> {
-				try
-				{
-					Path targetPath = target.resolve(source.relativize(sourcePath));
-					if (Files.isDirectory(sourcePath))
-					{
-						Files.createDirectories(targetPath);
-					}
-					else
-					{
-						Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-					}
-				}
-				catch (IOException e)
-				{
-					log.error("Failed to copy: {}", sourcePath, e);
-				}
-			});
+		synchronized (pendingSaves)
+		{
+			if (drainScheduled || !pendingSaves.isEmpty())
+			{
+				return; // Not idle, try again on the next check
+			}
+		}
+
+		try
+		{
+			compactBackups();
+		}
+		catch (Exception e)
+		{
+			log.warn("Backup compaction failed", e);
+		}
+		lastCompactionMillis = now;
 	}
 
-	private String generateNoteId()
+	private BackupStore backupStoreFor(Path profileDir)
+	{
+		BackupStore store = backupStore;
+		if (store != null && store.getBackupDirectory().equals(profileDir.resolve(BACKUP_SUBDIR)))
+		{
+			return store;
+		}
+		return new BackupStore(profileDir.resolve(BACKUP_SUBDIR), indexGson);
+	}
+
+	/**
+	 * A fresh ID for a note that hasn't been written yet
+	 */
+	public String generateNoteId()
 	{
 		return "note_" + System.currentTimeMillis() + "_" + new Random().nextInt(1000);
 	}
@@ -398,7 +1258,49 @@ public class FileStorageService
 		return getProfileDirectory().resolve(NOTES_SUBDIR);
 	}
 
-	private static class LocalDateTimeTypeAdapter implements JsonSerializer<LocalDateTime>, JsonDeserializer<LocalDateTime>
+	/**
+	 * Size and modification time of a file, enough to recognise a file we wrote ourselves
+	 */
+	@Value
+	private static class FileStamp
+	{
+		static final FileStamp MISSING = new FileStamp(-1, -1);
+
+		long modified;
+		long size;
+
+		static FileStamp of(Path file)
+		{
+			try
+			{
+				return new FileStamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+			}
+			catch (IOException e)
+			{
+				return MISSING;
+			}
+		}
+	}
+
+	/**
+	 * A queued save together with the profile it belongs to and everyone waiting on it
+	 */
+	private static class PendingSave
+	{
+		final Path profileDir;
+		final List<Runnable> onSaved = new ArrayList<>();
+		final List<Consumer<Exception>> onFailed = new ArrayList<>();
+		NoteSaveRequest request;
+		long journalSequence = NoteSaveRequest.NO_JOURNAL_SEQUENCE;
+
+		PendingSave(Path profileDir, NoteSaveRequest request)
+		{
+			this.profileDir = profileDir;
+			this.request = request;
+		}
+	}
+
+	static class LocalDateTimeTypeAdapter implements JsonSerializer<LocalDateTime>, JsonDeserializer<LocalDateTime>
 	{
 		@Override
 		public JsonElement serialize(LocalDateTime localDateTime, Type type, JsonSerializationContext context)
@@ -2,15 +2,21 @@ package dev.seafoo.richtextnotes.services;
 
 import dev.seafoo.richtextnotes.ui.components.AsyncImageIcon;
 import java.awt.Component;
-import java.awt.FontMetrics;
+import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -20,6 +26,8 @@ import javax.swing.SwingUtilities;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
+import net.runelite.api.Constants;
+import net.runelite.api.ItemComposition;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.game.ItemManager;
 import net.runelite.client.util.AsyncBufferedImage;
@@ -33,6 +41,14 @@ public class ItemIconService
 {
 
 	private static final int MAX_SEARCH_RESULTS = 60;
+	private static final int MAX_CACHED_ICONS = 1024;
+	// Items read from the cache per client tick while building the name index
+	private static final int INDEX_BATCH_SIZE = 2000;
+	// How long an icon whose image couldn't be had waits before asking for it again
+	private static final long ICON_RETRY_MILLIS = 30_000;
+
+	// Text baseline ascent per font, for centering icons without font metrics on every paint
+	private static final Map<Font, Integer> FONT_ASCENTS = new ConcurrentHashMap<>();
 
 	@Inject
 	private ItemManager itemManager;
@@ -43,6 +59,21 @@ public class ItemIconService
 	@Inject
 	private Client client;
 
+	// Built in the background from the item cache; searched off the client thread
+	private volatile ItemNameIndex itemNameIndex;
+	private final AtomicBoolean indexing = new AtomicBoolean();
+
+	// Icons handed out by item ID and quantity, so every note showing the same item shares
+	// one icon and image. Only weakly held: documents keep the ones in use alive.
+	private final Map<Long, IconReference> icons = new LinkedHashMap<Long, IconReference>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, IconReference> eldest)
+		{
+			return size() > MAX_CACHED_ICONS;
+		}
+	};
+	private final ReferenceQueue<ItemIcon> collectedIcons = new ReferenceQueue<>();
 
 	/**
 	 * Search items by name - main search method for toolbar functionality
@@ -64,7 +95,18 @@ public class ItemIconService
 			return;
 		}
 
-		// Run search on client thread
+		// Check on the client thread whether the item cache changed since the index was built
+		clientThread.invoke(this::updateItemNameIndex);
+
+		ItemNameIndex index = itemNameIndex;
+		if (index != null)
+		{
+			List<ItemSearchResult> results = index.search(search, MAX_SEARCH_RESULTS);
+			SwingUtilities.invokeLater(() -> callback.accept(results));
+			return;
+		}
+
+		// Until the index is ready, search the item cache on the client thread
 		clientThread.invoke(() -> {
 			try
 			{
@@ -82,6 +124,64 @@ public class ItemIconService
 		});
 	}
 
+	/**
+	 * Start building the name index if there is none yet, or if the item count shows the
+	 * item cache changed. Must be called on client thread.
+	 */
+	private void updateItemNameIndex()
+	{
+		ItemNameIndex index = itemNameIndex;
+		int itemCount = client.getItemCount();
+		if ((index != null && index.getItemCount() == itemCount) || !indexing.compareAndSet(false, true))
+		{
+			return;
+		}
+
+		// A batch per tick, so building the index doesn't stall the client
+		ItemNameIndex.Builder builder = new ItemNameIndex.Builder(itemCount);
+		int[] next = {0};
+		clientThread.invoke(() -> {
+			try
+			{
+				int end = Math.min(itemCount, next[0] + INDEX_BATCH_SIZE);
+				for (int i = next[0]; i < end; i++)
+				{
+					try
+					{
+						ItemComposition itemComposition = itemManager.getItemComposition(itemManager.canonicalize(i));
+						builder.add(itemComposition.getId(), itemComposition.getName(), new ItemIconData(
+							itemComposition.getInventoryModel(),
+							itemComposition.getAmbient(),
+							itemComposition.getContrast(),
+							itemComposition.getColorToReplaceWith(),
+							itemComposition.getTextureToReplaceWith()
+						));
+					}
+					catch (Exception e)
+					{
+						log.error("Error indexing item: {}", i, e);
+					}
+				}
+				next[0] = end;
+
+				if (end < itemCount)
+				{
+					return false;
+				}
+
+				itemNameIndex = builder.build();
+				log.debug("Indexed item names for {} items", itemCount);
+			}
+			catch (Exception e)
+			{
+				// Give up on this build, so the next search can start another
+				log.error("Error building item name index", e);
+			}
+			indexing.set(false);
+			return true;
+		});
+	}
+
 	/**
 	 * Core search logic based on ChatboxItemSearch.filterResults()
 	 * Must be called on client thread
@@ -194,12 +294,51 @@ public class ItemIconService
 
 	/**
 	 * Get a centered icon by item ID with specified quantity
-	 * This is the recommended method for getting icons for text insertion
+	 * This is the recommended method for getting icons for text insertion. The image is
+	 * only requested once the icon is painted, see {@link ItemIcon}, and the same item and
+	 * quantity give the same icon for as long as any note uses it.
 	 */
 	public Icon getCenteredIconById(int itemId, int quantity)
 	{
-		AsyncBufferedImage itemImage = getItemImageById(itemId, quantity);
-		return createCenteredIcon(itemImage);
+		if (itemManager == null)
+		{
+			return null;
+		}
+
+		int validQuantity = Math.max(1, quantity);
+		long key = ((long) itemId << 32) | validQuantity;
+		synchronized (icons)
+		{
+			// Drop the entries of icons no note uses any more
+			for (Reference<? extends ItemIcon> collected; (collected = collectedIcons.poll()) != null; )
+			{
+				icons.remove(((IconReference) collected).key, collected);
+			}
+
+			IconReference cached = icons.get(key);
+			ItemIcon icon = cached != null ? cached.get() : null;
+			if (icon == null)
+			{
+				icon = new ItemIcon(this, itemId, validQuantity);
+				icons.put(key, new IconReference(icon, key, collectedIcons));
+			}
+			return icon;
+		}
+	}
+
+	/**
+	 * Weak reference to a shared icon that knows its key, so its entry can be removed once
+	 * the icon is collected
+	 */
+	private static class IconReference extends WeakReference<ItemIcon>
+	{
+		final long key;
+
+		IconReference(ItemIcon icon, long key, ReferenceQueue<ItemIcon> queue)
+		{
+			super(icon, queue);
+			this.key = key;
+		}
 	}
 
 	/**
@@ -277,13 +416,103 @@ public class ItemIconService
 		}
 	}
 
+	/**
+	 * Item icon for text that doesn't ask the item manager for its image until it is first
+	 * painted. It has the item sprite's size either way, so text lays out the same before
+	 * the image exists. The image is only softly held, so under memory pressure the ones
+	 * not painted for a while, i.e. scrolled far out of view, can be dropped and are simply
+	 * requested again when painted.
+	 */
+	public static class ItemIcon implements Icon
+	{
+		private final ItemIconService itemIconService;
+		@Getter
+		private final int itemId;
+		@Getter
+		private final int quantity;
+		private SoftReference<Icon> image;
+		// When the image last couldn't be had, or 0
+		private long failedAt = 0;
+
+		ItemIcon(ItemIconService itemIconService, int itemId, int quantity)
+		{
+			this.itemIconService = itemIconService;
+			this.itemId = itemId;
+			this.quantity = quantity;
+		}
+
+		/**
+		 * Whether the image is held, so painting won't request it
+		 */
+		public boolean isLoaded()
+		{
+			return image != null && image.get() != null;
+		}
+
+		/**
+		 * Stop repainting a component that is going away when the image loads
+		 */
+		public void detachFromComponent(Component component)
+		{
+			Icon icon = image != null ? image.get() : null;
+			if (icon instanceof CenteredImageIcon)
+			{
+				((CenteredImageIcon) icon).detachFromComponent(component);
+			}
+		}
+
+		/**
+		 * The centered image, requested from the item manager if it isn't held
+		 */
+		private Icon getImage()
+		{
+			Icon icon = image != null ? image.get() : null;
+			if (icon == null && (failedAt == 0 || System.currentTimeMillis() - failedAt >= ICON_RETRY_MILLIS))
+			{
+				icon = itemIconService.createCenteredIcon(itemIconService.getItemImageById(itemId, quantity));
+				if (icon == null)
+				{
+					// Already logged; don't ask again on every repaint, but the icon is shared
+					// by every note showing the item, so try again after a while
+					failedAt = System.currentTimeMillis();
+					return null;
+				}
+				failedAt = 0;
+				image = new SoftReference<>(icon);
+			}
+			return icon;
+		}
+
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y)
+		{
+			Icon icon = getImage();
+			if (icon != null)
+			{
+				icon.paintIcon(c, g, x, y);
+			}
+		}
+
+		@Override
+		public int getIconWidth()
+		{
+			return Constants.ITEM_SPRITE_WIDTH;
+		}
+
+		@Override
+		public int getIconHeight()
+		{
+			return Constants.ITEM_SPRITE_HEIGHT;
+		}
+	}
+
 	/**
 	 * Centered image icon that adjusts vertical positioning for text alignment
 	 */
 	public static class CenteredImageIcon implements Icon
 	{
 		private final Icon baseIcon;
-		private Component attachedComponent;
+		private WeakReference<Component> attachedComponent = new WeakReference<>(null);
 
 		public CenteredImageIcon(Image image)
 		{
@@ -303,25 +532,40 @@ public class ItemIconService
 		 */
 		public void attachToComponent(Component component)
 		{
-			this.attachedComponent = component;
+			this.attachedComponent = new WeakReference<>(component);
 			if (baseIcon instanceof AsyncImageIcon)
 			{
 				((AsyncImageIcon) baseIcon).attachToComponent(component);
 			}
 		}
 
+		/**
+		 * Stop repainting a component that is going away
+		 */
+		public void detachFromComponent(Component component)
+		{
+			if (attachedComponent.get() == component)
+			{
+				attachedComponent.clear();
+			}
+			if (baseIcon instanceof AsyncImageIcon)
+			{
+				((AsyncImageIcon) baseIcon).detachFromComponent(component);
+			}
+		}
+
 		@Override
 		public void paintIcon(Component c, Graphics g, int x, int y)
 		{
 			// Ensure we're attached to the component being painted
-			if (c != attachedComponent)
+			if (c != attachedComponent.get())
 			{
 				attachToComponent(c);
 			}
 
-			FontMetrics fm = c.getFontMetrics(c.getFont());
+			Font font = c.getFont();
 			int iconHeight = baseIcon.getIconHeight();
-			int fontAscent = fm.getAscent();
+			int fontAscent = FONT_ASCENTS.computeIfAbsent(font, f -> c.getFontMetrics(f).getAscent());
 
 			// Calculate vertical offset to center icon with text baseline
 			int yOffset = fontAscent - (iconHeight / 2);
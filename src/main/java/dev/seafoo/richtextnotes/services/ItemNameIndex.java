@@ -0,0 +1,155 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * Every searchable item name, gathered once from the item cache so searching doesn't walk
+ * it on the client thread per keystroke. Names are flat char arrays with start offsets,
+ * and each item has the group of items sharing its inventory icon, so look-alikes can be
+ * skipped the way the chatbox item search does. Immutable once built; searches can run
+ * on any thread.
+ */
+final class ItemNameIndex
+{
+	// The client's item count the index was built from; it changes with the item cache
+	@Getter
+	private final int itemCount;
+
+	private final int size;
+	private final int[] ids;
+	private final int[] iconGroups;
+	private final int groupCount;
+	private final char[] names;
+	private final int[] nameStarts;
+	private final char[] lowerNames;
+	private final int[] lowerStarts;
+
+	private ItemNameIndex(Builder builder)
+	{
+		this.itemCount = builder.itemCount;
+		this.size = builder.size;
+		this.ids = Arrays.copyOf(builder.ids, size);
+		this.iconGroups = Arrays.copyOf(builder.iconGroups, size);
+		this.groupCount = builder.groups.size();
+		this.names = builder.names.toString().toCharArray();
+		this.nameStarts = Arrays.copyOf(builder.nameStarts, size + 1);
+		this.lowerNames = builder.lowerNames.toString().toCharArray();
+		this.lowerStarts = Arrays.copyOf(builder.lowerStarts, size + 1);
+	}
+
+	/**
+	 * Items whose lowercase name contains the lowercase search, in item order, skipping
+	 * any whose icon matches an earlier result
+	 */
+	List<ItemIconService.ItemSearchResult> search(String search, int limit)
+	{
+		char[] query = search.toCharArray();
+		BitSet seenIcons = new BitSet(groupCount);
+		List<ItemIconService.ItemSearchResult> results = new ArrayList<>();
+
+		for (int i = 0; i < size && results.size() < limit; i++)
+		{
+			if (seenIcons.get(iconGroups[i]) || !contains(lowerStarts[i], lowerStarts[i + 1], query))
+			{
+				continue;
+			}
+
+			seenIcons.set(iconGroups[i]);
+			String name = new String(names, nameStarts[i], nameStarts[i + 1] - nameStarts[i]);
+			String searchName = new String(lowerNames, lowerStarts[i], lowerStarts[i + 1] - lowerStarts[i]).replace(" ", "_");
+			results.add(new ItemIconService.ItemSearchResult(ids[i], name, searchName));
+		}
+		return results;
+	}
+
+	private boolean contains(int start, int end, char[] query)
+	{
+		if (query.length == 0)
+		{
+			return true;
+		}
+
+		char first = query[0];
+		for (int i = start, last = end - query.length; i <= last; i++)
+		{
+			if (lowerNames[i] != first)
+			{
+				continue;
+			}
+
+			int j = 1;
+			while (j < query.length && lowerNames[i + j] == query[j])
+			{
+				j++;
+			}
+			if (j == query.length)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collects items in item order, keeping the first of each canonical ID
+	 */
+	static class Builder
+	{
+		private final int itemCount;
+		private final BitSet seenIds = new BitSet();
+		private final Map<Object, Integer> groups = new HashMap<>();
+
+		private int size = 0;
+		private int[] ids = new int[64];
+		private int[] iconGroups = new int[64];
+		private int[] nameStarts = new int[65];
+		private int[] lowerStarts = new int[65];
+		private final StringBuilder names = new StringBuilder();
+		private final StringBuilder lowerNames = new StringBuilder();
+
+		Builder(int itemCount)
+		{
+			this.itemCount = itemCount;
+		}
+
+		/**
+		 * Add an item, with a key equal for items that look the same in the inventory
+		 */
+		void add(int id, String name, Object iconKey)
+		{
+			String lowerName = name.toLowerCase();
+			if ("null".equals(lowerName) || id < 0 || seenIds.get(id))
+			{
+				return;
+			}
+			seenIds.set(id);
+
+			if (size == ids.length)
+			{
+				ids = Arrays.copyOf(ids, size * 2);
+				iconGroups = Arrays.copyOf(iconGroups, size * 2);
+				nameStarts = Arrays.copyOf(nameStarts, size * 2 + 1);
+				lowerStarts = Arrays.copyOf(lowerStarts, size * 2 + 1);
+			}
+
+			ids[size] = id;
+			iconGroups[size] = groups.computeIfAbsent(iconKey, k -> groups.size());
+			names.append(name);
+			lowerNames.append(lowerName);
+			size++;
+			nameStarts[size] = names.length();
+			lowerStarts[size] = lowerNames.length();
+		}
+
+		ItemNameIndex build()
+		{
+			return new ItemNameIndex(this);
+		}
+	}
+}
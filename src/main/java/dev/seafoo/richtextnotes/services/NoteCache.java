@@ -0,0 +1,170 @@
+package dev.seafoo.richtextnotes.services;
+
+import dev.seafoo.richtextnotes.models.Note;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.text.StyledDocument;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Profile-wide cache holding one {@link Note} and one document per note ID. Every pane
+ * showing a note gets the same instances, so a note is parsed once and all of its views
+ * edit, and save, the same content. Open notes are reference counted. Once the last
+ * reference is released the note moves to a least-recently-used list bounded by an
+ * estimate of its memory use, so reopening it needs no disk read or parse.
+ */
+@Slf4j
+public class NoteCache
+{
+	private static final long DEFAULT_CLOSED_BUDGET_BYTES = 16L * 1024 * 1024;
+
+	// Rough per-note cost of the element tree, attribute sets and view state around the text
+	private static final long ENTRY_OVERHEAD_BYTES = 4 * 1024;
+
+	private final long closedBudgetBytes;
+	private final Map<String, Entry> open = new HashMap<>();
+	private final LinkedHashMap<String, Entry> closed = new LinkedHashMap<>(16, 0.75f, true);
+	private long closedBytes = 0;
+
+	public NoteCache()
+	{
+		this(DEFAULT_CLOSED_BUDGET_BYTES);
+	}
+
+	public NoteCache(long closedBudgetBytes)
+	{
+		this.closedBudgetBytes = closedBudgetBytes;
+	}
+
+	/**
+	 * Take a reference to a cached note, reviving it from the closed list if needed
+	 *
+	 * @return the shared entry, or null if the note has to be loaded
+	 */
+	public synchronized Entry acquire(String noteId)
+	{
+		Entry entry = open.get(noteId);
+		if (entry == null)
+		{
+			entry = closed.remove(noteId);
+			if (entry == null)
+			{
+				return null;
+			}
+			closedBytes -= entry.estimatedBytes;
+			open.put(noteId, entry);
+		}
+
+		entry.references++;
+		return entry;
+	}
+
+	/**
+	 * Add a freshly loaded note with one reference. If another pane cached the same note
+	 * in the meantime, that entry wins and a reference to it is returned instead.
+	 */
+	public synchronized Entry register(Note note, StyledDocument document)
+	{
+		Entry existing = acquire(note.getNoteId());
+		if (existing != null)
+		{
+			return existing;
+		}
+
+		Entry entry = new Entry(note, document);
+		entry.references = 1;
+		open.put(note.getNoteId(), entry);
+		return entry;
+	}
+
+	/**
+	 * Drop a reference taken by {@link #acquire} or {@link #register}
+	 */
+	public synchronized void release(String noteId)
+	{
+		Entry entry = open.get(noteId);
+		if (entry == null || --entry.references > 0)
+		{
+			return;
+		}
+
+		open.remove(noteId);
+		entry.estimatedBytes = estimateBytes(entry);
+		closed.put(noteId, entry);
+		closedBytes += entry.estimatedBytes;
+		trimClosed();
+	}
+
+	/**
+	 * Forget a note that no pane is showing, e.g. because its file changed on disk
+	 */
+	public synchronized void discardUnused(String noteId)
+	{
+		Entry entry = closed.remove(noteId);
+		if (entry != null)
+		{
+			closedBytes -= entry.estimatedBytes;
+		}
+	}
+
+	public synchronized void discardAllUnused()
+	{
+		closed.clear();
+		closedBytes = 0;
+	}
+
+	/**
+	 * Forget a note entirely, e.g. when it is deleted
+	 */
+	public synchronized void remove(String noteId)
+	{
+		open.remove(noteId);
+		discardUnused(noteId);
+	}
+
+	public synchronized void clear()
+	{
+		open.clear();
+		discardAllUnused();
+	}
+
+	private void trimClosed()
+	{
+		Iterator<Entry> eldest = closed.values().iterator();
+		while (closedBytes > closedBudgetBytes && eldest.hasNext())
+		{
+			Entry entry = eldest.next();
+			eldest.remove();
+			closedBytes -= entry.estimatedBytes;
+			log.debug("Evicted closed note {} from cache", entry.note.getNoteId());
+		}
+	}
+
+	private static long estimateBytes(Entry entry)
+	{
+		String content = entry.note.getRtfContent();
+		long contentChars = content != null ? content.length() : 0;
+		return ENTRY_OVERHEAD_BYTES + 2 * (contentChars + entry.document.getLength());
+	}
+
+	/**
+	 * A cached note and the document every view of it shares
+	 */
+	@Getter
+	public static class Entry
+	{
+		private final Note note;
+		private final StyledDocument document;
+		private int references;
+		private long estimatedBytes;
+
+		private Entry(Note note, StyledDocument document)
+		{
+			this.note = note;
+			this.document = document;
+		}
+	}
+}
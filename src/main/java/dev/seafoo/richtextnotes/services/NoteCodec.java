@@ -0,0 +1,287 @@
+package dev.seafoo.richtextnotes.services;
+
+import dev.seafoo.richtextnotes.models.NoteContentWriter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk encoding of note files. A note is either plain RTF or, when compression is
+ * enabled, a small header followed by the deflated RTF. The header is checked on every
+ * read, so both kinds can sit side by side in the same directory.
+ *
+ * <pre>
+ * compressed: "RTNZ", version byte, uncompressed length (int), deflate stream
+ * </pre>
+ */
+public final class NoteCodec
+{
+	private static final byte[] MAGIC = {'R', 'T', 'N', 'Z'};
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = MAGIC.length + 1 + 4;
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	// Deflate can't expand data by more than about 1032:1, so a larger declared length is corrupt
+	private static final int MAX_DEFLATE_RATIO = 1032;
+	private static final int MAX_NOTE_LENGTH = 256 * 1024 * 1024;
+
+	private NoteCodec()
+	{
+	}
+
+	public static byte[] encode(String content, boolean compress)
+	{
+		byte[] plain = content.getBytes(StandardCharsets.UTF_8);
+		if (!compress)
+		{
+			return plain;
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try
+		{
+			deflater.setInput(plain);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + plain.length / 4 + 64);
+			out.write(MAGIC, 0, MAGIC.length);
+			out.write(VERSION);
+			out.write(ByteBuffer.allocate(4).putInt(plain.length).array(), 0, 4);
+
+			byte[] chunk = new byte[8192];
+			while (!deflater.finished())
+			{
+				int count = deflater.deflate(chunk);
+				out.write(chunk, 0, count);
+			}
+			return out.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Stream a note's content into a new note file through the given buffer. When
+	 * compressing, the length in the header is filled in once everything has been written.
+	 *
+	 * @return the journal sequence reported by the content writer
+	 */
+	public static long encode(NoteContentWriter content, boolean compress, FileChannel channel, ByteBuffer buffer)
+		throws IOException
+	{
+		ChannelOutputStream out = new ChannelOutputStream(channel, buffer);
+		if (!compress)
+		{
+			long sequence = content.writeTo(out);
+			out.flush();
+			return sequence;
+		}
+
+		out.write(MAGIC);
+		out.write(VERSION);
+		out.write(new byte[4]); // Length, patched below
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try
+		{
+			DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 8192);
+			long sequence = content.writeTo(deflated);
+			deflated.finish();
+			out.flush();
+
+			long length = deflater.getBytesRead();
+			if (length > Integer.MAX_VALUE)
+			{
+				throw new IOException("Note is too large to compress: " + length + " bytes");
+			}
+			channel.write(ByteBuffer.allocate(4).putInt(0, (int) length), MAGIC.length + 1);
+			return sequence;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	public static String decode(byte[] data) throws IOException
+	{
+		if (!isCompressed(data))
+		{
+			return new String(data, StandardCharsets.UTF_8);
+		}
+
+		if (data[MAGIC.length] != VERSION)
+		{
+			throw new IOException("Unsupported compressed note version: " + data[MAGIC.length]);
+		}
+
+		// Checked before allocating, so a corrupt header can't ask for an absurd buffer
+		int length = ByteBuffer.wrap(data, MAGIC.length + 1, 4).getInt();
+		long maxLength = Math.min(MAX_NOTE_LENGTH, (long) (data.length - HEADER_SIZE) * MAX_DEFLATE_RATIO);
+		if (length < 0 || length > maxLength)
+		{
+			throw new IOException("Compressed note declares an invalid length: " + length);
+		}
+		byte[] plain = new byte[length];
+
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+			int read = 0;
+			while (read < length && !inflater.finished())
+			{
+				int count = inflater.inflate(plain, read, length - read);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				read += count;
+			}
+
+			if (read != length)
+			{
+				throw new IOException("Compressed note is truncated");
+			}
+			if (!inflater.finished() && inflater.inflate(new byte[1]) > 0)
+			{
+				throw new IOException("Compressed note is longer than its declared length");
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Compressed note is corrupt", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		return new String(plain, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Wrap a raw note file stream so it yields the plain RTF bytes, inflating on the fly
+	 * if the file is compressed. Nothing is read beyond the header up front.
+	 */
+	public static InputStream decodingStream(InputStream in) throws IOException
+	{
+		BufferedInputStream buffered = new BufferedInputStream(in, READ_BUFFER_SIZE);
+		buffered.mark(HEADER_SIZE);
+		byte[] header = buffered.readNBytes(HEADER_SIZE);
+		if (!isCompressed(header))
+		{
+			buffered.reset();
+			return buffered;
+		}
+
+		if (header[MAGIC.length] != VERSION)
+		{
+			throw new IOException("Unsupported compressed note version: " + header[MAGIC.length]);
+		}
+
+		return new InflaterInputStream(buffered, new Inflater(), READ_BUFFER_SIZE)
+		{
+			@Override
+			public void close() throws IOException
+			{
+				try
+				{
+					super.close();
+				}
+				finally
+				{
+					inf.end();
+				}
+			}
+		};
+	}
+
+	public static boolean isCompressed(byte[] data)
+	{
+		if (data.length < HEADER_SIZE)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < MAGIC.length; i++)
+		{
+			if (data[i] != MAGIC[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Buffers writes into a caller-supplied buffer and drains it into a file channel.
+	 * Closing it leaves the channel open.
+	 */
+	private static class ChannelOutputStream extends OutputStream
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		ChannelOutputStream(FileChannel channel, ByteBuffer buffer)
+		{
+			this.channel = channel;
+			this.buffer = buffer;
+			buffer.clear();
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (!buffer.hasRemaining())
+			{
+				drain();
+			}
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			while (length > 0)
+			{
+				if (!buffer.hasRemaining())
+				{
+					drain();
+				}
+				int count = Math.min(length, buffer.remaining());
+				buffer.put(bytes, offset, count);
+				offset += count;
+				length -= count;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			drain();
+		}
+
+		private void drain() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package dev.seafoo.richtextnotes.services;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import dev.seafoo.richtextnotes.models.NoteMetadata;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Single file per profile holding every note's metadata, so listing notes is one
+ * sequential read instead of opening and parsing a JSON file per note.
+ * Entries remember the modification time of the metadata file they came from and are
+ * re-read at startup only when that file changed behind our back.
+ * Changes are appended to a delta log next to the index rather than rewriting it on
+ * every save, and folded into the index by {@link #save()} at startup or once the log
+ * grows. Losing the tail of the log is harmless, the modification times catch it.
+ * Mutations happen under the storage service's I/O lock; reads are safe from any thread.
+ */
+@Slf4j
+public class NoteMetadataIndex
+{
+	private static final int INDEX_VERSION = 1;
+	private static final String NOTE_EXTENSION = ".rtf";
+	private static final String METADATA_EXTENSION = ".json";
+	private static final String DELTA_EXTENSION = ".delta";
+	private static final int DELTA_COMPACTION_RECORDS = 500;
+
+	private final Path indexFile;
+	private final Path deltaFile;
+	private final Path notesDirectory;
+	private final Gson gson;
+	private final Map<String, IndexEntry> entries = new ConcurrentHashMap<>();
+	private boolean dirty = false;
+	private int deltaRecords = 0;
+
+	public NoteMetadataIndex(Path indexFile, Path notesDirectory, Gson gson)
+	{
+		this.indexFile = indexFile;
+		this.deltaFile = indexFile.resolveSibling(indexFile.getFileName() + DELTA_EXTENSION);
+		this.notesDirectory = notesDirectory;
+		this.gson = gson;
+	}
+
+	/**
+	 * Read the index file and reconcile it against the notes directory
+	 */
+	public void load() throws IOException
+	{
+		Map<String, IndexEntry> stored = readIndexFile();
+		int replayed = replayDelta(stored);
+
+		// One directory pass collects the notes and their metadata file times
+		List<String> noteIds = new ArrayList<>();
+		Map<String, Long> metadataTimes = new HashMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(notesDirectory))
+		{
+			for (Path file : files)
+			{
+				String fileName = file.getFileName().toString();
+				if (fileName.endsWith(NOTE_EXTENSION))
+				{
+					noteIds.add(fileName.substring(0, fileName.length() - NOTE_EXTENSION.length()));
+				}
+				else if (fileName.endsWith(METADATA_EXTENSION))
+				{
+					metadataTimes.put(fileName.substring(0, fileName.length() - METADATA_EXTENSION.length()),
+						Files.getLastModifiedTime(file).toMillis());
+				}
+			}
+		}
+
+		int refreshed = 0;
+		entries.clear();
+		for (String noteId : noteIds)
+		{
+			long metadataModified = metadataTimes.getOrDefault(noteId, 0L);
+			IndexEntry entry = stored.get(noteId);
+
+			if (entry == null || entry.metadata == null || entry.metadataModified != metadataModified)
+			{
+				entry = readEntry(noteId, metadataModified);
+				refreshed++;
+			}
+			entries.put(noteId, entry);
+		}
+
+		dirty = refreshed > 0 || stored.size() != entries.size() || Files.exists(deltaFile);
+		if (dirty)
+		{
+			save();
+		}
+
+		log.debug("Loaded metadata index with {} notes ({} from the delta log, {} refreshed from disk)",
+			entries.size(), replayed, refreshed);
+	}
+
+	private Map<String, IndexEntry> readIndexFile()
+	{
+		Map<String, IndexEntry> stored = new HashMap<>();
+		if (!Files.exists(indexFile))
+		{
+			return stored;
+		}
+
+		try
+		{
+			String json = new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8);
+			IndexFile file = gson.fromJson(json, IndexFile.class);
+			if (file != null && file.version == INDEX_VERSION && file.notes != null)
+			{
+				for (IndexEntry entry : file.notes)
+				{
+					if (entry.noteId != null)
+					{
+						stored.put(entry.noteId, entry);
+					}
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			log.warn("Metadata index is unreadable, rebuilding: {}", indexFile, e);
+		}
+		return stored;
+	}
+
+	/**
+	 * Apply the delta log on top of the index file. A torn last line from a crash is
+	 * skipped, the reconcile against the notes directory makes up for it.
+	 */
+	private int replayDelta(Map<String, IndexEntry> stored)
+	{
+		if (!Files.exists(deltaFile))
+		{
+			return 0;
+		}
+
+		int replayed = 0;
+		try
+		{
+			for (String line : Files.readAllLines(deltaFile, StandardCharsets.UTF_8))
+			{
+				DeltaRecord record;
+				try
+				{
+					record = gson.fromJson(line, DeltaRecord.class);
+				}
+				catch (Exception e)
+				{
+					continue;
+				}
+
+				if (record == null)
+				{
+					continue;
+				}
+				if (record.put != null && record.put.noteId != null)
+				{
+					stored.put(record.put.noteId, record.put);
+					replayed++;
+				}
+				else if (record.remove != null)
+				{
+					stored.remove(record.remove);
+					replayed++;
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			log.warn("Metadata index delta log is unreadable, ignoring it: {}", deltaFile, e);
+		}
+		return replayed;
+	}
+
+	private IndexEntry readEntry(String noteId, long metadataModified)
+	{
+		NoteMetadata metadata = null;
+		if (metadataModified != 0)
+		{
+			try
+			{
+				Path metadataFile = notesDirectory.resolve(noteId + METADATA_EXTENSION);
+				String json = new String(Files.readAllBytes(metadataFile), StandardCharsets.UTF_8);
+				metadata = gson.fromJson(json, NoteMetadata.class);
+			}
+			catch (Exception e)
+			{
+				log.warn("Could not load metadata for note: {}", noteId, e);
+			}
+		}
+
+		if (metadata == null)
+		{
+			metadata = defaultMetadata(noteId);
+		}
+		return new IndexEntry(noteId, metadata, metadataModified);
+	}
+
+	static NoteMetadata defaultMetadata(String noteId)
+	{
+		return new NoteMetadata(noteId, "Untitled Note", LocalDateTime.now(), new ArrayList<>());
+	}
+
+	/**
+	 * Write the whole index and drop the delta log, if anything changed since it was last written
+	 */
+	public void save() throws IOException
+	{
+		if (!dirty && deltaRecords == 0)
+		{
+			return;
+		}
+
+		IndexFile file = new IndexFile();
+		file.version = INDEX_VERSION;
+		file.notes = new ArrayList<>(entries.values());
+		AtomicWriteBatch.write(indexFile, gson.toJson(file).getBytes(StandardCharsets.UTF_8));
+
+		// Replaying a leftover log over the new index is harmless, so no need to sync this
+		Files.deleteIfExists(deltaFile);
+		dirty = false;
+		deltaRecords = 0;
+	}
+
+	/**
+	 * Whether the delta log has grown enough, or a write to it failed, so the index
+	 * should be rewritten with {@link #save()}
+	 */
+	public boolean needsCompaction()
+	{
+		return dirty || deltaRecords >= DELTA_COMPACTION_RECORDS;
+	}
+
+	/**
+	 * Record changes whose files have been committed
+	 */
+	public void apply(Changes changes)
+	{
+		List<DeltaRecord> records = new ArrayList<>();
+		for (IndexEntry entry : changes.updates.values())
+		{
+			entries.put(entry.noteId, entry);
+			records.add(DeltaRecord.put(entry));
+		}
+		for (IndexEntry entry : changes.defaults.values())
+		{
+			if (entries.putIfAbsent(entry.noteId, entry) == null)
+			{
+				records.add(DeltaRecord.put(entry));
+			}
+		}
+		appendDelta(records);
+	}
+
+	private void appendDelta(List<DeltaRecord> records)
+	{
+		if (records.isEmpty())
+		{
+			return;
+		}
+
+		StringBuilder lines = new StringBuilder();
+		for (DeltaRecord record : records)
+		{
+			lines.append(gson.toJson(record)).append('\n');
+		}
+
+		try
+		{
+			Files.write(deltaFile, lines.toString().getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			deltaRecords += records.size();
+		}
+		catch (IOException e)
+		{
+			// The entries are still right in memory, so get them to disk with a full write
+			log.warn("Failed to append to metadata index delta log: {}", deltaFile, e);
+			dirty = true;
+		}
+	}
+
+	public Path getNotesDirectory()
+	{
+		return notesDirectory;
+	}
+
+	/**
+	 * Record metadata that was just written, along with its file's modification time
+	 */
+	public void put(String noteId, NoteMetadata metadata, long metadataModified)
+	{
+		IndexEntry entry = new IndexEntry(noteId, metadata.copy(), metadataModified);
+		entries.put(noteId, entry);
+		appendDelta(Collections.singletonList(DeltaRecord.put(entry)));
+	}
+
+	/**
+	 * Make sure a freshly created note shows up even before its metadata is written
+	 */
+	public void ensureEntry(String noteId)
+	{
+		if (!entries.containsKey(noteId))
+		{
+			IndexEntry entry = new IndexEntry(noteId, defaultMetadata(noteId), 0);
+			entries.put(noteId, entry);
+			appendDelta(Collections.singletonList(DeltaRecord.put(entry)));
+		}
+	}
+
+	public void remove(String noteId)
+	{
+		if (entries.remove(noteId) != null)
+		{
+			appendDelta(Collections.singletonList(DeltaRecord.remove(noteId)));
+		}
+	}
+
+	public boolean contains(String noteId)
+	{
+		return entries.containsKey(noteId);
+	}
+
+	/**
+	 * Get a copy of a note's metadata, or null if the note isn't indexed
+	 */
+	public NoteMetadata get(String noteId)
+	{
+		IndexEntry entry = entries.get(noteId);
+		return entry != null ? entry.metadata.copy() : null;
+	}
+
+	/**
+	 * Get copies of every indexed note's metadata
+	 */
+	public List<NoteMetadata> getAll()
+	{
+		List<NoteMetadata> metadataList = new ArrayList<>(entries.size());
+		for (IndexEntry entry : entries.values())
+		{
+			metadataList.add(entry.metadata.copy());
+		}
+		return metadataList;
+	}
+
+	public List<String> getNoteIds()
+	{
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * Index updates for files staged in a batch, held back until that batch is committed
+	 * so a failed write never shows up in the index
+	 */
+	public static class Changes
+	{
+		private final Map<String, IndexEntry> updates = new LinkedHashMap<>();
+		private final Map<String, IndexEntry> defaults = new LinkedHashMap<>();
+
+		/**
+		 * Metadata staged for writing, along with its temp file's modification time
+		 */
+		public void put(String noteId, NoteMetadata metadata, long metadataModified)
+		{
+			updates.put(noteId, new IndexEntry(noteId, metadata.copy(), metadataModified));
+		}
+
+		/**
+		 * A note file staged for writing that isn't indexed yet and needs an entry
+		 */
+		public void ensureEntry(String noteId)
+		{
+			defaults.putIfAbsent(noteId, new IndexEntry(noteId, defaultMetadata(noteId), 0));
+		}
+
+		public void include(Changes other)
+		{
+			updates.putAll(other.updates);
+			other.defaults.forEach(defaults::putIfAbsent);
+		}
+	}
+
+	private static class IndexFile
+	{
+		@SerializedName("version")
+		int version;
+
+		@SerializedName("notes")
+		List<IndexEntry> notes;
+	}
+
+	/**
+	 * One line of the delta log: either an entry that was put or the ID of one removed
+	 */
+	private static class DeltaRecord
+	{
+		@SerializedName("put")
+		IndexEntry put;
+
+		@SerializedName("remove")
+		String remove;
+
+		static DeltaRecord put(IndexEntry entry)
+		{
+			DeltaRecord record = new DeltaRecord();
+			record.put = entry;
+			return record;
+		}
+
+		static DeltaRecord remove(String noteId)
+		{
+			DeltaRecord record = new DeltaRecord();
+			record.remove = noteId;
+			return record;
+		}
+	}
+
+	private static class IndexEntry
+	{
+		@SerializedName("id")
+		final String noteId;
+
+		@SerializedName("metadata")
+		final NoteMetadata metadata;
+
+		@SerializedName("metadata_modified")
+		final long metadataModified;
+
+		IndexEntry(String noteId, NoteMetadata metadata, long metadataModified)
+		{
+			this.noteId = noteId;
+			this.metadata = metadata;
+			this.metadataModified = metadataModified;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches a notes directory on its own thread and reports which files changed.
+ * Events are collected until the directory has been quiet for a moment, so a burst
+ * of writes from a sync tool is reported as one set of files.
+ */
+@Slf4j
+public class NotesDirectoryWatcher
+{
+	private static final long SETTLE_MILLIS = 300;
+
+	private final Path directory;
+	private final Consumer<Set<Path>> onChanges;
+	private final Runnable onOverflow;
+
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * @param onChanges  called with the files that were created, modified or deleted
+	 * @param onOverflow called when events were lost and the directory must be reconciled
+	 */
+	public NotesDirectoryWatcher(Path directory, Consumer<Set<Path>> onChanges, Runnable onOverflow)
+	{
+		this.directory = directory;
+		this.onChanges = onChanges;
+		this.onOverflow = onOverflow;
+	}
+
+	public void start() throws IOException
+	{
+		watchService = directory.getFileSystem().newWatchService();
+		directory.register(watchService,
+			StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_MODIFY,
+			StandardWatchEventKinds.ENTRY_DELETE);
+
+		running = true;
+		thread = new Thread(this::run, "rich-text-notes-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop()
+	{
+		running = false;
+		if (watchService != null)
+		{
+			try
+			{
+				watchService.close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Failed to close watch service for {}", directory, e);
+			}
+		}
+	}
+
+	private void run()
+	{
+		while (running)
+		{
+			try
+			{
+				WatchKey key = watchService.take();
+				Set<Path> changed = new LinkedHashSet<>();
+				boolean overflow = false;
+
+				// Keep collecting until things settle
+				while (key != null)
+				{
+					for (WatchEvent<?> event : key.pollEvents())
+					{
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+						{
+							overflow = true;
+						}
+						else
+						{
+							changed.add(directory.resolve((Path) event.context()));
+						}
+					}
+
+					if (!key.reset())
+					{
+						log.warn("Notes directory is no longer accessible: {}", directory);
+						running = false;
+						break;
+					}
+					key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				if (overflow)
+				{
+					onOverflow.run();
+				}
+				else if (!changed.isEmpty())
+				{
+					onChanges.accept(changed);
+				}
+			}
+			catch (InterruptedException | ClosedWatchServiceException e)
+			{
+				break;
+			}
+			catch (Exception e)
+			{
+				log.warn("Failed to handle changes in {}", directory, e);
+			}
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package dev.seafoo.richtextnotes.ui.components;
 
 import java.awt.Component;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import javax.swing.ImageIcon;
 import javax.swing.SwingUtilities;
-import javax.swing.text.JTextComponent;
 import net.runelite.client.util.AsyncBufferedImage;
 
 /**
@@ -15,14 +18,19 @@ import net.runelite.client.util.AsyncBufferedImage;
 public class AsyncImageIcon extends ImageIcon
 {
 	private final AsyncBufferedImage asyncImage;
-	private final List<Component> componentsToRepaint = new ArrayList<>();
+
+	// Components to repaint when the image loads, with where the icon was painted on each
+	// while it was still loading. Weakly held, so a closed editor or popup isn't kept
+	// reachable by an icon that outlives it.
+	private final Map<Component, Set<Rectangle>> componentsToRepaint = new WeakHashMap<>();
+	private boolean loaded = false;
 
 	public AsyncImageIcon(AsyncBufferedImage asyncImage)
 	{
 		super(asyncImage);
 		this.asyncImage = asyncImage;
 
-		// Register for load notification
+		// Register for load notification, once for all components
 		if (asyncImage != null)
 		{
 			asyncImage.onLoaded(() -> SwingUtilities.invokeLater(this::repaintComponents));
@@ -34,38 +42,40 @@ public class AsyncImageIcon extends ImageIcon
 	 */
 	public void attachToComponent(Component component)
 	{
-		if (component != null && !componentsToRepaint.contains(component))
+		if (component != null && !loaded)
+		{
+			componentsToRepaint.putIfAbsent(component, new HashSet<>());
+		}
+	}
+
+	/**
+	 * Stop repainting a component that is going away
+	 */
+	public void detachFromComponent(Component component)
+	{
+		componentsToRepaint.remove(component);
+	}
+
+	@Override
+	public void paintIcon(Component c, Graphics g, int x, int y)
+	{
+		// Until the image is in, remember where it should show so only that gets repainted
+		Set<Rectangle> regions = loaded ? null : componentsToRepaint.get(c);
+		if (regions != null)
 		{
-			componentsToRepaint.add(component);
-			// If already loaded, repaint immediately
-			if (asyncImage != null)
-			{
-				asyncImage.onLoaded(() -> SwingUtilities.invokeLater(() -> {
-					component.repaint();
-					// For text components, also revalidate
-					if (component instanceof JTextComponent)
-					{
-						component.revalidate();
-					}
-				}));
-			}
+			regions.add(new Rectangle(x, y, getIconWidth(), getIconHeight()));
 		}
+		super.paintIcon(c, g, x, y);
 	}
 
 	private void repaintComponents()
 	{
-		for (Component component : componentsToRepaint)
+		loaded = true;
+		for (Map.Entry<Component, Set<Rectangle>> entry : componentsToRepaint.entrySet())
 		{
-			if (component != null)
-			{
-				component.repaint();
-				// For text components, also revalidate to ensure proper layout
-				if (component instanceof JTextComponent)
-				{
-					component.revalidate();
-				}
-			}
+			IconRepaintCoalescer.iconLoaded(entry.getKey(), entry.getValue());
 		}
+		componentsToRepaint.clear();
 	}
 
 	/**
@@ -82,4 +92,4 @@ public class AsyncImageIcon extends ImageIcon
 		return icon;
 	}
 
-}
\ No newline at end of file
+}
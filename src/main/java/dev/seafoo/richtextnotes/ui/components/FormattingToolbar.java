@@ -511,12 +511,6 @@ public class FormattingToolbar extends JToolBar implements CaretListener
 
 			if (centeredIcon != null)
 			{
-				// Attach icon to text pane for repaint on load
-				if (centeredIcon instanceof ItemIconService.CenteredImageIcon)
-				{
-					((ItemIconService.CenteredImageIcon) centeredIcon).attachToComponent(textPane);
-				}
-
 				// Create attributes with icon and metadata
 				SimpleAttributeSet attrs = new SimpleAttributeSet();
 				StyleConstants.setIcon(attrs, centeredIcon);
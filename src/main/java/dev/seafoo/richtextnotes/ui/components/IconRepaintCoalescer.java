@@ -0,0 +1,89 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.awt.Component;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.Timer;
+import javax.swing.text.JTextComponent;
+
+/**
+ * Collects the repaints item icons ask for as their images finish loading and issues them
+ * together a frame later: one revalidate per text component, and repaints of just the
+ * regions the icons occupy. A note opening with hundreds of icons is laid out again once,
+ * not once per icon. Only used on the EDT.
+ */
+final class IconRepaintCoalescer
+{
+	private static final int FRAME_DELAY_MS = 16;
+
+	// Regions to repaint per component; an empty list repaints all of it
+	private static final Map<Component, List<Rectangle>> pending = new LinkedHashMap<>();
+
+	private static final Timer flushTimer = new Timer(FRAME_DELAY_MS, e -> flush());
+
+	static
+	{
+		flushTimer.setRepeats(false);
+	}
+
+	private IconRepaintCoalescer()
+	{
+	}
+
+	/**
+	 * Queue a repaint of the regions an icon was painted in, or of the whole component if
+	 * it wasn't painted there yet
+	 */
+	static void iconLoaded(Component component, Collection<Rectangle> regions)
+	{
+		List<Rectangle> dirty = pending.get(component);
+		if (dirty == null)
+		{
+			pending.put(component, new ArrayList<>(regions));
+		}
+		else if (!dirty.isEmpty())
+		{
+			if (regions.isEmpty())
+			{
+				dirty.clear();
+			}
+			else
+			{
+				dirty.addAll(regions);
+			}
+		}
+
+		if (!flushTimer.isRunning())
+		{
+			flushTimer.start();
+		}
+	}
+
+	private static void flush()
+	{
+		for (Map.Entry<Component, List<Rectangle>> entry : pending.entrySet())
+		{
+			Component component = entry.getKey();
+			if (component instanceof JTextComponent)
+			{
+				component.revalidate();
+			}
+
+			if (entry.getValue().isEmpty())
+			{
+				component.repaint();
+				continue;
+			}
+
+			for (Rectangle region : entry.getValue())
+			{
+				component.repaint(region.x, region.y, region.width, region.height);
+			}
+		}
+		pending.clear();
+	}
+}
@@ -0,0 +1,42 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import dev.seafoo.richtextnotes.services.ItemIconService;
+import java.awt.Container;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import javax.swing.JComponent;
+import javax.swing.text.Element;
+import javax.swing.text.IconView;
+
+/**
+ * View for an item icon in a note. It takes up the item sprite's size from the start,
+ * but only lets the icon request its image once it is painted inside the scroll
+ * viewport, so opening a note with hundreds of items only renders the ones in sight.
+ */
+class ItemIconView extends IconView
+{
+	private final ItemIconService.ItemIcon icon;
+
+	ItemIconView(Element elem, ItemIconService.ItemIcon icon)
+	{
+		super(elem);
+		this.icon = icon;
+	}
+
+	@Override
+	public void paint(Graphics g, Shape a)
+	{
+		// Text panes are sometimes painted whole, e.g. into an offscreen buffer, so the clip
+		// alone doesn't say whether an icon can be seen
+		Rectangle alloc = a.getBounds();
+		Container container = getContainer();
+		if (!icon.isLoaded() && container instanceof JComponent
+			&& !((JComponent) container).getVisibleRect().intersects(alloc))
+		{
+			return;
+		}
+
+		icon.paintIcon(container, g, alloc.x, alloc.y);
+	}
+}
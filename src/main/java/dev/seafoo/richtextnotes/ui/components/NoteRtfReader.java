@@ -0,0 +1,771 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import dev.seafoo.richtextnotes.services.ItemIconService;
+import java.awt.Color;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+/**
+ * RTF reader for the dialect notes are saved in: a font table, a color table and
+ * character formatting over plain paragraphs, as written by {@link NoteRtfWriter} and
+ * the JDK's RTF writer before it. It builds the same document the JDK reader followed
+ * by placeholder conversion did, but collects the text and its runs first and inserts
+ * them in one go, and turns {{ITEM:id:name:qty}} placeholders into icons as soon as
+ * their closing braces are decoded.
+ * <p>
+ * Anything outside that dialect, such as nested groups, style sheets or paragraph
+ * formatting, makes {@link #read} give up before the document is touched, so the caller
+ * can hand the same bytes to the JDK reader. The RTF is parsed straight from the stream,
+ * so the caller only has to keep enough of it to replay in that case.
+ */
+final class NoteRtfReader
+{
+	private static final String PLACEHOLDER_PREFIX = NotesEnhancedDocument.ICON_PLACEHOLDER_PREFIX;
+	private static final String PLACEHOLDER_SUFFIX = NotesEnhancedDocument.ICON_PLACEHOLDER_SUFFIX;
+
+	// Byte to character tables; the JDK reader starts out in Latin-1 and switches on \ansi
+	private static final char[] LATIN1 = new char[256];
+	private static final char[] ANSI = new char[256];
+
+	// On/off character formatting, shared with the writer so both agree on the keys
+	private static final Map<String, Object> BOOLEAN_ATTRIBUTES = new HashMap<>();
+
+	// Control words and symbols that stand for a single character
+	private static final Map<String, Character> TEXT_KEYWORDS = new HashMap<>();
+
+	static
+	{
+		for (int i = 0; i < 256; i++)
+		{
+			LATIN1[i] = (char) i;
+			ANSI[i] = i < 0x80 || i > 0xA0 ? (char) i : 0;
+		}
+		System.arraycopy(NoteRtfWriter.ANSI_HIGH, 0, ANSI, 0x80, NoteRtfWriter.ANSI_HIGH.length);
+
+		for (int i = 0; i < NoteRtfWriter.BOOLEAN_WORDS.length; i++)
+		{
+			BOOLEAN_ATTRIBUTES.put(NoteRtfWriter.BOOLEAN_WORDS[i], NoteRtfWriter.BOOLEAN_KEYS[i]);
+		}
+
+		for (Map.Entry<Character, String> entry : NoteRtfWriter.TEXT_KEYWORDS.entrySet())
+		{
+			TEXT_KEYWORDS.put(entry.getValue(), entry.getKey());
+		}
+		TEXT_KEYWORDS.put("\\", '\\');
+		TEXT_KEYWORDS.put("{", '{');
+		TEXT_KEYWORDS.put("}", '}');
+		TEXT_KEYWORDS.put(" ", '\u00A0');
+		TEXT_KEYWORDS.put("~", '\u00A0');
+		TEXT_KEYWORDS.put("tab", '\t');
+	}
+
+	private enum Destination
+	{
+		NONE, DOCUMENT, FONT_TABLE, COLOR_TABLE, END
+	}
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final InputStream in;
+	private final NotesEnhancedDocument.IconLookup icons;
+	private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+	private int bufferPosition = 0;
+	private int bufferLimit = 0;
+
+	private Destination destination = Destination.NONE;
+	private int level = 0;
+	private boolean groupOpened = false;
+	private char[] charset = LATIN1;
+	private int skippedCharacters = 0;
+
+	private final Map<Integer, String> fontTable = new HashMap<>();
+	private Integer fontNumber;
+	private StringBuilder fontName;
+	private boolean fontNameEnded;
+
+	private final List<Color> colors = new ArrayList<>();
+	private int red, green, blue;
+	private Color[] colorTable;
+
+	// Formatting as the JDK reader tracks it; fonts and colors are resolved per run
+	private final SimpleAttributeSet characterAttributes = new SimpleAttributeSet();
+	private Integer font, foreground, background;
+	private AttributeSet runAttributes;
+
+	private final StringBuilder text = new StringBuilder();
+	private final List<NotesEnhancedDocument.Run> runs = new ArrayList<>();
+	private int runStart = 0;
+	private boolean inParagraph = false;
+	private boolean hasContent = false;
+
+	private int placeholderSearchStart = 0;
+	private int placeholderStart = -1;
+
+	private NoteRtfReader(InputStream in, ItemIconService itemIconService)
+	{
+		this.in = in;
+		this.icons = itemIconService != null ? new NotesEnhancedDocument.IconLookup(itemIconService) : null;
+
+		StyleConstants.setItalic(characterAttributes, false);
+		StyleConstants.setBold(characterAttributes, false);
+		StyleConstants.setUnderline(characterAttributes, false);
+		StyleConstants.setForeground(characterAttributes, Color.black);
+	}
+
+	/**
+	 * Read RTF into an empty document, restoring item icons if an icon service is given.
+	 * A progressive read leaves most of a large note for the document to add later, see
+	 * {@link NotesEnhancedDocument#loadProgressively}.
+	 *
+	 * @return false, leaving the document untouched, if the RTF needs the JDK reader
+	 */
+	static boolean read(InputStream in, NotesEnhancedDocument doc, ItemIconService itemIconService, boolean progressive)
+		throws IOException, BadLocationException
+	{
+		NoteRtfReader reader = new NoteRtfReader(in, itemIconService);
+		if (!reader.parse())
+		{
+			return false;
+		}
+
+		if (reader.hasContent)
+		{
+			reader.finishContent();
+			NotesEnhancedDocument.Snapshot content = new NotesEnhancedDocument.Snapshot(reader.text.toString(), reader.runs);
+			if (progressive)
+			{
+				doc.loadProgressively(content, paragraphAttributes(doc));
+			}
+			else
+			{
+				doc.load(content, paragraphAttributes(doc));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The attributes the JDK reader gives every paragraph it ends
+	 */
+	private static AttributeSet paragraphAttributes(NotesEnhancedDocument doc)
+	{
+		SimpleAttributeSet attributes = new SimpleAttributeSet();
+		StyleConstants.setLeftIndent(attributes, 0f);
+		StyleConstants.setRightIndent(attributes, 0f);
+		StyleConstants.setFirstLineIndent(attributes, 0f);
+		attributes.setResolveParent(doc.getStyle(StyleContext.DEFAULT_STYLE));
+		return attributes;
+	}
+
+	/**
+	 * The next byte of the stream, or -1 at its end
+	 */
+	private int next() throws IOException
+	{
+		int b = peek();
+		if (b >= 0)
+		{
+			bufferPosition++;
+		}
+		return b;
+	}
+
+	private int peek() throws IOException
+	{
+		if (bufferPosition == bufferLimit)
+		{
+			int count = in.read(buffer, 0, buffer.length);
+			if (count <= 0)
+			{
+				return -1;
+			}
+			bufferPosition = 0;
+			bufferLimit = count;
+		}
+		return buffer[bufferPosition] & 0xFF;
+	}
+
+	private boolean parse() throws IOException
+	{
+		int b;
+		while ((b = next()) >= 0)
+		{
+			boolean ok;
+			switch (b)
+			{
+				case '{':
+					ok = beginGroup();
+					break;
+				case '}':
+					ok = endGroup();
+					break;
+				case '\\':
+					ok = readControl();
+					break;
+				case '\n':
+				case '\r':
+					// Unescaped line breaks are only there to keep lines short
+					ok = true;
+					break;
+				default:
+					// Raw 8-bit text would be decoded in chunks ahead of the parser; ours is always escaped
+					ok = b < 0x80 && handleText(charset[b]);
+					break;
+			}
+
+			if (!ok)
+			{
+				return false;
+			}
+		}
+		return destination == Destination.END;
+	}
+
+	private boolean readControl() throws IOException
+	{
+		int b = next();
+		if (b < 0)
+		{
+			return false;
+		}
+
+		if (b == '\'')
+		{
+			int high = Character.digit(next(), 16);
+			int low = Character.digit(next(), 16);
+			if (high < 0 || low < 0)
+			{
+				return false;
+			}
+
+			char ch = charset[high * 16 + low];
+			return ch == 0 || handleText(ch);
+		}
+
+		if (!isLetter(b))
+		{
+			if (b == '\n' || b == '\r')
+			{
+				return handleKeyword("par", 0, false);
+			}
+			return b < 0x80 && handleKeyword(String.valueOf((char) b), 0, false);
+		}
+
+		StringBuilder word = new StringBuilder().append((char) b);
+		while (isLetter(peek()))
+		{
+			word.append((char) next());
+		}
+		String keyword = word.toString();
+
+		boolean hasParameter = false;
+		long parameter = 0;
+		if (peek() == '-' || isDigit(peek()))
+		{
+			boolean negative = peek() == '-';
+			if (negative)
+			{
+				next();
+			}
+
+			int digits = 0;
+			while (isDigit(peek()) && digits < 10)
+			{
+				parameter = parameter * 10 + (next() - '0');
+				digits++;
+			}
+			if (digits == 0 || isDigit(peek()))
+			{
+				return false;
+			}
+
+			parameter = negative ? -parameter : parameter;
+			if (parameter < Integer.MIN_VALUE || parameter > Integer.MAX_VALUE)
+			{
+				return false;
+			}
+			hasParameter = true;
+		}
+
+		// A space ends the control word and is not part of the text
+		int delimiter = peek();
+		if (delimiter >= 0 && delimiter < 0x80 && Character.isWhitespace(delimiter))
+		{
+			next();
+		}
+		else if (delimiter >= 0x80)
+		{
+			return false;
+		}
+
+		return handleKeyword(keyword, (int) parameter, hasParameter);
+	}
+
+	private static boolean isLetter(int b)
+	{
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+
+	private static boolean isDigit(int b)
+	{
+		return b >= '0' && b <= '9';
+	}
+
+	private boolean beginGroup()
+	{
+		skippedCharacters = 0;
+		level++;
+		if (level == 1 && destination == Destination.NONE)
+		{
+			return true;
+		}
+
+		// The font and color tables are the only groups inside the document
+		groupOpened = true;
+		return level == 2 && destination == Destination.DOCUMENT;
+	}
+
+	private boolean endGroup()
+	{
+		skippedCharacters = 0;
+		level--;
+		if (groupOpened || level < 0)
+		{
+			return false;
+		}
+
+		switch (destination)
+		{
+			case FONT_TABLE:
+				endFont();
+				destination = Destination.DOCUMENT;
+				return true;
+			case COLOR_TABLE:
+				colorTable = colors.toArray(new Color[0]);
+				destination = Destination.DOCUMENT;
+				return true;
+			case DOCUMENT:
+				destination = Destination.END;
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean handleKeyword(String keyword, int parameter, boolean hasParameter)
+	{
+		// The plain-text stand-in after a unicode character may be a control word, which is dropped too
+		if (skippedCharacters > 0)
+		{
+			skippedCharacters--;
+			return true;
+		}
+
+		if (groupOpened)
+		{
+			groupOpened = false;
+			if (keyword.equals("fonttbl"))
+			{
+				destination = Destination.FONT_TABLE;
+				return !hasParameter;
+			}
+			if (keyword.equals("colortbl"))
+			{
+				destination = Destination.COLOR_TABLE;
+				return !hasParameter;
+			}
+			return false;
+		}
+
+		if (!hasParameter)
+		{
+			Character ch = TEXT_KEYWORDS.get(keyword);
+			if (ch != null)
+			{
+				return handleText(ch);
+			}
+
+			if (keyword.equals("ansi"))
+			{
+				charset = ANSI;
+				return true;
+			}
+		}
+		else if (keyword.equals("u"))
+		{
+			boolean ok = handleText((char) (parameter < 0 ? parameter + 65536 : parameter));
+			skippedCharacters = 1;
+			return ok;
+		}
+		else if (keyword.equals("rtf"))
+		{
+			if (level != 1 || destination != Destination.NONE)
+			{
+				return false;
+			}
+			destination = Destination.DOCUMENT;
+			return true;
+		}
+
+		switch (destination)
+		{
+			case DOCUMENT:
+				return handleFormatting(keyword, parameter, hasParameter);
+			case FONT_TABLE:
+				if (keyword.equals("f") && hasParameter)
+				{
+					endFont();
+					fontNumber = parameter;
+					return true;
+				}
+				// Font family words like \fnil are not used
+				return !hasParameter && keyword.charAt(0) == 'f';
+			case COLOR_TABLE:
+				return hasParameter && setColorComponent(keyword, parameter);
+			default:
+				return false;
+		}
+	}
+
+	private boolean handleFormatting(String keyword, int parameter, boolean hasParameter)
+	{
+		if (keyword.equals("par") && !hasParameter)
+		{
+			if (!appendText('\n'))
+			{
+				return false;
+			}
+			inParagraph = false;
+			return true;
+		}
+
+		Object key = BOOLEAN_ATTRIBUTES.get(keyword);
+		if (key == null && keyword.equals("ulnone") && !hasParameter)
+		{
+			key = StyleConstants.Underline;
+			hasParameter = true;
+			parameter = 0;
+		}
+
+		if (key != null)
+		{
+			formattingChanged();
+			characterAttributes.addAttribute(key, !hasParameter || parameter != 0);
+			return true;
+		}
+
+		if (!hasParameter)
+		{
+			return false;
+		}
+
+		switch (keyword)
+		{
+			case "f":
+				formattingChanged();
+				font = parameter;
+				return true;
+			case "cf":
+				formattingChanged();
+				foreground = parameter;
+				return true;
+			case "cb":
+				formattingChanged();
+				background = parameter;
+				return true;
+			case "fs":
+				formattingChanged();
+				StyleConstants.setFontSize(characterAttributes, parameter / 2);
+				return true;
+			case "sl":
+				formattingChanged();
+				if (parameter == 1000)
+				{
+					characterAttributes.removeAttribute(StyleConstants.LineSpacing);
+				}
+				else
+				{
+					StyleConstants.setLineSpacing(characterAttributes, parameter / 20f);
+				}
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean setColorComponent(String keyword, int value)
+	{
+		switch (keyword)
+		{
+			case "red":
+				red = value;
+				return true;
+			case "green":
+				green = value;
+				return true;
+			case "blue":
+				blue = value;
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean handleText(char ch)
+	{
+		if (skippedCharacters > 0)
+		{
+			skippedCharacters--;
+			return true;
+		}
+
+		switch (destination)
+		{
+			case DOCUMENT:
+				if (groupOpened || !appendText(ch))
+				{
+					return false;
+				}
+				inParagraph = true;
+				return true;
+			case FONT_TABLE:
+				return appendFontName(ch);
+			case COLOR_TABLE:
+				if (ch == ';')
+				{
+					if ((red | green | blue) < 0 || red > 255 || green > 255 || blue > 255)
+					{
+						return false;
+					}
+					colors.add(new Color(red, green, blue));
+				}
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean appendFontName(char ch)
+	{
+		if (fontNumber == null || fontNameEnded)
+		{
+			return false;
+		}
+
+		if (fontName == null)
+		{
+			fontName = new StringBuilder();
+		}
+
+		if (ch == ';')
+		{
+			fontNameEnded = true;
+			endFont();
+		}
+		else
+		{
+			fontName.append(ch);
+		}
+		return true;
+	}
+
+	private void endFont()
+	{
+		if (fontNumber != null && fontName != null)
+		{
+			fontTable.put(fontNumber, fontName.toString());
+		}
+		fontName = null;
+		fontNameEnded = false;
+	}
+
+	/**
+	 * Start a new run, since the formatting of the text that follows may differ
+	 */
+	private void formattingChanged()
+	{
+		endRun();
+		runAttributes = null;
+	}
+
+	private void endRun()
+	{
+		if (text.length() > runStart)
+		{
+			runs.add(new NotesEnhancedDocument.Run(runStart, text.length(), runAttributes));
+			runStart = text.length();
+		}
+	}
+
+	private boolean appendText(char ch)
+	{
+		if (runAttributes == null)
+		{
+			runAttributes = currentTextAttributes();
+			if (runAttributes == null)
+			{
+				return false;
+			}
+		}
+
+		hasContent = true;
+		text.append(ch);
+		if (icons != null)
+		{
+			findPlaceholder(ch);
+		}
+		return true;
+	}
+
+	/**
+	 * The attributes the JDK reader gives text in the current state, or null if the
+	 * state refers to a color it doesn't have
+	 */
+	private AttributeSet currentTextAttributes()
+	{
+		SimpleAttributeSet attributes = new SimpleAttributeSet(characterAttributes);
+
+		String family = font != null ? fontTable.get(font) : null;
+		if (family != null)
+		{
+			StyleConstants.setFontFamily(attributes, family);
+		}
+
+		// Without a color table the default black stays, and color numbers mean nothing
+		if (colorTable != null)
+		{
+			if (foreground != null)
+			{
+				if (foreground < 0 || foreground >= colorTable.length)
+				{
+					return null;
+				}
+				StyleConstants.setForeground(attributes, colorTable[foreground]);
+			}
+			else
+			{
+				attributes.removeAttribute(StyleConstants.Foreground);
+			}
+
+			if (background != null)
+			{
+				if (background < 0 || background >= colorTable.length)
+				{
+					return null;
+				}
+				StyleConstants.setBackground(attributes, colorTable[background]);
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Watch the text for placeholders as it grows, the way the document's own scan finds
+	 * them: the first prefix after the previous placeholder, up to the next suffix
+	 */
+	private void findPlaceholder(char ch)
+	{
+		int end = text.length();
+		if (placeholderStart < 0)
+		{
+			int start = end - PLACEHOLDER_PREFIX.length();
+			if (ch == PLACEHOLDER_PREFIX.charAt(PLACEHOLDER_PREFIX.length() - 1)
+				&& start >= placeholderSearchStart && endsWith(PLACEHOLDER_PREFIX))
+			{
+				placeholderStart = start;
+			}
+			return;
+		}
+
+		if (ch != PLACEHOLDER_SUFFIX.charAt(PLACEHOLDER_SUFFIX.length() - 1)
+			|| end - PLACEHOLDER_SUFFIX.length() < placeholderStart + PLACEHOLDER_PREFIX.length()
+			|| !endsWith(PLACEHOLDER_SUFFIX))
+		{
+			return;
+		}
+
+		int start = placeholderStart;
+		placeholderStart = -1;
+		placeholderSearchStart = end;
+
+		NotesEnhancedDocument.RestoredItem item =
+			NotesEnhancedDocument.restorePlaceholder(text.substring(start, end), icons);
+		if (item != null)
+		{
+			replaceText(start, item.text, item.attributes != null ? item.attributes : SimpleAttributeSet.EMPTY);
+			placeholderSearchStart = text.length();
+		}
+	}
+
+	private boolean endsWith(String suffix)
+	{
+		int offset = text.length() - suffix.length();
+		if (offset < 0)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < suffix.length(); i++)
+		{
+			if (text.charAt(offset + i) != suffix.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replace everything from the given offset with a run of its own
+	 */
+	private void replaceText(int start, String replacement, AttributeSet attributes)
+	{
+		truncate(start);
+		text.append(replacement);
+		runs.add(new NotesEnhancedDocument.Run(start, text.length(), attributes));
+		runStart = text.length();
+	}
+
+	private void truncate(int length)
+	{
+		endRun();
+		while (!runs.isEmpty() && runs.get(runs.size() - 1).start >= length)
+		{
+			runs.remove(runs.size() - 1);
+		}
+
+		if (!runs.isEmpty())
+		{
+			NotesEnhancedDocument.Run last = runs.get(runs.size() - 1);
+			if (last.end > length)
+			{
+				runs.set(runs.size() - 1, new NotesEnhancedDocument.Run(last.start, length, last.attributes));
+			}
+		}
+
+		text.setLength(length);
+		runStart = length;
+	}
+
+	/**
+	 * Drop the newline of the last paragraph mark, which becomes the document's own
+	 * final newline, as loading always did
+	 */
+	private void finishContent()
+	{
+		endRun();
+		if (!inParagraph)
+		{
+			truncate(text.length() - 1);
+		}
+	}
+}
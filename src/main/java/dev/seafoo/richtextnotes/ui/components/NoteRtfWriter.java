@@ -0,0 +1,497 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * RTF writer for note snapshots. It streams the runs of a
+ * {@link NotesEnhancedDocument.Snapshot} straight to the output and writes icons as
+ * {{ITEM:id:name:qty}} placeholders where they occur, so saving needs no document copy.
+ * <p>
+ * The output matches what the JDK's RTF writer produced for the placeholder copy this
+ * replaces, down to its quirks: the same font and color numbering, the same "ansi"
+ * escaping, and the foreground color never being reset to the default. Runs whose
+ * attributes resolve through a named style need the JDK writer's style sheet and are
+ * not supported, see {@link #canWrite}.
+ */
+final class NoteRtfWriter
+{
+	private static final String DEFAULT_FONT_FAMILY = "Monospaced";
+	private static final float DEFAULT_FONT_SIZE = 12f;
+
+	// Character formatting written as on/off control words, in the JDK writer's order
+	static final Object[] BOOLEAN_KEYS = {
+		StyleConstants.Italic, StyleConstants.Bold, StyleConstants.Underline,
+		"caps", "outl", "scaps", "shad", "v", "strike", "deleted"
+	};
+	static final String[] BOOLEAN_WORDS = {
+		"i", "b", "ul", "caps", "outl", "scaps", "shad", "v", "strike", "deleted"
+	};
+
+	// Characters of the JDK reader's "ansi" table at bytes 0x80-0x9F; 0xA1-0xFF are Latin-1
+	static final char[] ANSI_HIGH = {
+		1026, 1027, 8218, 402, 8222, 8230, 8224, 8225, 710, 8240, 352, 8249, 346, 356, 381, 377,
+		1106, 0, 0, 0, 0, 0, 0, 0, 0, 8482, 353, 8250, 347, 357, 382, 378
+	};
+
+	// Characters outside the "ansi" set that RTF has control words for
+	static final Map<Character, String> TEXT_KEYWORDS = new HashMap<>();
+
+	static
+	{
+		TEXT_KEYWORDS.put('\u2011', "_");
+		TEXT_KEYWORDS.put('\u2022', "bullet");
+		TEXT_KEYWORDS.put('\u2014', "emdash");
+		TEXT_KEYWORDS.put('\u2003', "emspace");
+		TEXT_KEYWORDS.put('\u2013', "endash");
+		TEXT_KEYWORDS.put('\u2002', "enspace");
+		TEXT_KEYWORDS.put('\u201C', "ldblquote");
+		TEXT_KEYWORDS.put('\u2018', "lquote");
+		TEXT_KEYWORDS.put('\u200E', "ltrmark");
+		TEXT_KEYWORDS.put('\u201D', "rdblquote");
+		TEXT_KEYWORDS.put('\u2019', "rquote");
+		TEXT_KEYWORDS.put('\u200F', "rtlmark");
+		TEXT_KEYWORDS.put('\u200D', "zwj");
+		TEXT_KEYWORDS.put('\u200C', "zwnj");
+		TEXT_KEYWORDS.put('\u2027', "-");
+	}
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final NotesEnhancedDocument.Snapshot snapshot;
+	private final OutputStream out;
+	private final byte[] buffer = new byte[8192];
+	private int buffered = 0;
+
+	private final Map<String, Integer> fonts = new HashMap<>();
+	private final List<String> fontOrder = new ArrayList<>();
+	private final Map<Color, Integer> colors = new HashMap<>();
+	private final List<Color> colorOrder = new ArrayList<>();
+
+	// Character formatting in effect at the current point of the output
+	private final SimpleAttributeSet current = new SimpleAttributeSet();
+	private boolean afterKeyword = false;
+
+	private NoteRtfWriter(NotesEnhancedDocument.Snapshot snapshot, OutputStream out)
+	{
+		this.snapshot = snapshot;
+		this.out = out;
+	}
+
+	/**
+	 * Whether the snapshot only uses formatting this writer reproduces exactly
+	 */
+	static boolean canWrite(NotesEnhancedDocument.Snapshot snapshot)
+	{
+		for (NotesEnhancedDocument.Run run : snapshot.runs)
+		{
+			if (run.attributes.getResolveParent() != null)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write the snapshot as RTF. The stream is flushed but not closed.
+	 */
+	static void write(NotesEnhancedDocument.Snapshot snapshot, OutputStream out) throws IOException
+	{
+		NoteRtfWriter writer = new NoteRtfWriter(snapshot, out);
+		writer.collectTables();
+		writer.writeHeader();
+		writer.writeBody();
+		writer.flush();
+	}
+
+	/**
+	 * Callback for each stretch of text the document copy used to hold as one element
+	 */
+	private interface LeafVisitor
+	{
+		void visit(AttributeSet attributes, String placeholder, int start, int end) throws IOException;
+	}
+
+	/**
+	 * Walk the snapshot as the elements of the copy the JDK writer saw: neighbouring runs
+	 * with equal attributes merged, each icon replaced by an unformatted placeholder, and
+	 * the document's unformatted final newline at the end
+	 */
+	private void visitLeaves(LeafVisitor visitor) throws IOException
+	{
+		List<NotesEnhancedDocument.Run> runs = snapshot.runs;
+		int i = 0;
+		while (i < runs.size())
+		{
+			AttributeSet attributes = runs.get(i).attributes;
+			int start = runs.get(i).start;
+			int end = runs.get(i).end;
+			while (i + 1 < runs.size() && runs.get(i + 1).attributes.isEqual(attributes))
+			{
+				end = runs.get(++i).end;
+			}
+			i++;
+
+			String placeholder = NotesEnhancedDocument.placeholderFor(attributes);
+			if (placeholder == null)
+			{
+				visitor.visit(attributes, null, start, end);
+				continue;
+			}
+
+			for (int pos = start; pos < end; pos++)
+			{
+				visitor.visit(SimpleAttributeSet.EMPTY, placeholder, pos, pos + 1);
+			}
+		}
+
+		visitor.visit(SimpleAttributeSet.EMPTY, null, snapshot.text.length(), snapshot.text.length());
+	}
+
+	private void collectTables() throws IOException
+	{
+		// The document's root and paragraphs have no formatting of their own
+		addFont(DEFAULT_FONT_FAMILY);
+		addColor(Color.black);
+
+		visitLeaves((attributes, placeholder, start, end) -> {
+			addColor(StyleConstants.getForeground(attributes));
+			Object background = attributes.getAttribute(StyleConstants.Background);
+			if (background instanceof Color)
+			{
+				addColor((Color) background);
+			}
+			addFont(StyleConstants.getFontFamily(attributes));
+		});
+	}
+
+	private void addFont(String font)
+	{
+		if (!fonts.containsKey(font))
+		{
+			fonts.put(font, fontOrder.size());
+			fontOrder.add(font);
+		}
+	}
+
+	private void addColor(Color color)
+	{
+		if (!colors.containsKey(color))
+		{
+			colors.put(color, colorOrder.size());
+			colorOrder.add(color);
+		}
+	}
+
+	private void writeHeader() throws IOException
+	{
+		writeBeginGroup();
+		writeControlWord("rtf", 1);
+		writeControlWord("ansi");
+		writeLineBreak();
+
+		writeBeginGroup();
+		writeControlWord("fonttbl");
+		for (int i = 0; i < fontOrder.size(); i++)
+		{
+			writeControlWord("f", i);
+			writeControlWord("fnil");
+			writeText(fontOrder.get(i));
+			writeText(";");
+		}
+		writeEndGroup();
+		writeLineBreak();
+
+		if (colorOrder.size() > 1)
+		{
+			writeBeginGroup();
+			writeControlWord("colortbl");
+			for (Color color : colorOrder)
+			{
+				writeControlWord("red", color.getRed());
+				writeControlWord("green", color.getGreen());
+				writeControlWord("blue", color.getBlue());
+				writeRaw(";");
+			}
+			writeEndGroup();
+			writeLineBreak();
+		}
+
+		// Where the JDK writer puts document properties; notes have none
+		writeLineBreak();
+	}
+
+	private void writeBody() throws IOException
+	{
+		visitLeaves((attributes, placeholder, start, end) -> {
+			updateCharacterAttributes(attributes);
+			if (placeholder != null)
+			{
+				writeText(placeholder);
+				return;
+			}
+
+			String text = snapshot.text;
+			for (int pos = start; pos < end; pos++)
+			{
+				char ch = text.charAt(pos);
+				if (ch == '\n')
+				{
+					endParagraph();
+				}
+				else
+				{
+					writeCharacter(ch);
+				}
+			}
+		});
+
+		endParagraph();
+		writeEndGroup();
+		writeLineBreak();
+	}
+
+	private void endParagraph() throws IOException
+	{
+		writeControlWord("par");
+		writeLineBreak();
+	}
+
+	private void updateCharacterAttributes(AttributeSet attributes) throws IOException
+	{
+		Object value = diff(attributes, StyleConstants.FontFamily, false);
+		if (value != null)
+		{
+			writeControlWord("f", fonts.get(value));
+		}
+
+		writeNumber(attributes, StyleConstants.FontSize, "fs", DEFAULT_FONT_SIZE, 2f);
+
+		for (int i = 0; i < BOOLEAN_KEYS.length; i++)
+		{
+			value = diff(attributes, BOOLEAN_KEYS[i], true);
+			if (value != null)
+			{
+				writeControlWord(BOOLEAN_WORDS[i], Boolean.TRUE.equals(value) ? -1 : 0);
+			}
+		}
+
+		writeNumber(attributes, StyleConstants.LineSpacing, "sl", 0f, 20f);
+
+		value = diff(attributes, StyleConstants.Background, true);
+		if (value != null)
+		{
+			writeControlWord("cb", value == SimpleAttributeSet.EMPTY ? 0 : colors.get(value));
+		}
+
+		// Removing a foreground color writes nothing; the JDK writer never reset it either
+		value = diff(attributes, StyleConstants.Foreground, false);
+		if (value != null)
+		{
+			writeControlWord("cf", colors.get(value));
+		}
+	}
+
+	private void writeNumber(AttributeSet attributes, Object key, String word, float defaultValue, float scale)
+		throws IOException
+	{
+		Object value = diff(attributes, key, true);
+		if (value != null)
+		{
+			float number = value == SimpleAttributeSet.EMPTY ? defaultValue : ((Number) value).floatValue();
+			writeControlWord(word, Math.round(number * scale));
+		}
+	}
+
+	/**
+	 * Bring one attribute of the current formatting in line with the new attributes
+	 *
+	 * @return the new value if it has to be written, {@link SimpleAttributeSet#EMPTY} if it
+	 * was removed and {@code resetOnRemove} is set, or null if nothing has to be written
+	 */
+	private Object diff(AttributeSet attributes, Object key, boolean resetOnRemove)
+	{
+		Object oldValue = current.getAttribute(key);
+		Object newValue = attributes.getAttribute(key);
+		if (newValue == oldValue)
+		{
+			return null;
+		}
+
+		if (newValue == null)
+		{
+			current.removeAttribute(key);
+			return resetOnRemove ? SimpleAttributeSet.EMPTY : null;
+		}
+
+		if (oldValue == null || !oldValue.equals(newValue))
+		{
+			current.addAttribute(key, newValue);
+			return newValue;
+		}
+		return null;
+	}
+
+	private void writeText(String text) throws IOException
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			writeCharacter(text.charAt(i));
+		}
+	}
+
+	private void writeCharacter(char ch) throws IOException
+	{
+		if (ch == '\u00A0')
+		{
+			writeByte('\\');
+			writeByte('~');
+			afterKeyword = false;
+			return;
+		}
+
+		if (ch == '\t')
+		{
+			writeControlWord("tab");
+			return;
+		}
+
+		if (ch == '\n' || ch == '\r')
+		{
+			return;
+		}
+
+		int b = ansiByte(ch);
+		if (b == 0)
+		{
+			String keyword = TEXT_KEYWORDS.get(ch);
+			if (keyword != null)
+			{
+				writeControlWord(keyword);
+				return;
+			}
+
+			writeControlWord("u", ch);
+			writeRaw(" ?");
+			afterKeyword = false;
+			return;
+		}
+
+		if (b > 127)
+		{
+			writeByte('\\');
+			writeByte('\'');
+			writeByte(HEX_DIGITS[b >>> 4]);
+			writeByte(HEX_DIGITS[b & 0x0F]);
+			afterKeyword = false;
+			return;
+		}
+
+		if (b == '{' || b == '}' || b == '\\')
+		{
+			writeByte('\\');
+			afterKeyword = false;
+		}
+		else if (afterKeyword)
+		{
+			writeByte(' ');
+			afterKeyword = false;
+		}
+		writeByte(b);
+	}
+
+	/**
+	 * The character's byte in the "ansi" character set, or 0 if it has none
+	 */
+	private static int ansiByte(char ch)
+	{
+		if (ch < 0x80 || (ch > 0xA0 && ch <= 0xFF))
+		{
+			return ch;
+		}
+
+		for (int i = 0; i < ANSI_HIGH.length; i++)
+		{
+			if (ANSI_HIGH[i] == ch)
+			{
+				return 0x80 + i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Write a control word, with a parameter unless it is negative
+	 */
+	private void writeControlWord(String keyword, int parameter) throws IOException
+	{
+		writeByte('\\');
+		writeRaw(keyword);
+		if (parameter >= 0)
+		{
+			writeRaw(Integer.toString(parameter));
+		}
+		afterKeyword = true;
+	}
+
+	private void writeControlWord(String keyword) throws IOException
+	{
+		writeControlWord(keyword, -1);
+	}
+
+	private void writeBeginGroup() throws IOException
+	{
+		writeByte('{');
+		afterKeyword = false;
+	}
+
+	private void writeEndGroup() throws IOException
+	{
+		writeByte('}');
+		afterKeyword = false;
+	}
+
+	private void writeLineBreak() throws IOException
+	{
+		writeByte('\n');
+		afterKeyword = false;
+	}
+
+	private void writeRaw(String text) throws IOException
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			writeByte(text.charAt(i));
+		}
+	}
+
+	private void writeByte(int b) throws IOException
+	{
+		if (buffered == buffer.length)
+		{
+			drain();
+		}
+		buffer[buffered++] = (byte) b;
+	}
+
+	private void drain() throws IOException
+	{
+		out.write(buffer, 0, buffered);
+		buffered = 0;
+	}
+
+	private void flush() throws IOException
+	{
+		drain();
+		out.flush();
+	}
+}
@@ -3,13 +3,18 @@ package dev.seafoo.richtextnotes.ui.components;
 import dev.seafoo.richtextnotes.services.ItemIconService;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.Icon;
+import javax.swing.event.DocumentEvent;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import lombok.extern.slf4j.Slf4j;
@@ -22,17 +27,100 @@ import lombok.extern.slf4j.Slf4j;
 public class NotesEnhancedDocument extends DefaultStyledDocument
 {
 
-	private static final String ICON_PLACEHOLDER_PREFIX = "{{ITEM:";
-	private static final String ICON_PLACEHOLDER_SUFFIX = "}}";
+	static final String ICON_PLACEHOLDER_PREFIX = "{{ITEM:";
+	static final String ICON_PLACEHOLDER_SUFFIX = "}}";
 	private static final String ICON_ATTRIBUTE = "item-icon-data";
 
+	// Notes with more text than this load progressively: a screenful at once, the rest in pieces
+	private static final int PROGRESSIVE_LOAD_LENGTH = 64 * 1024;
+	private static final int FIRST_PIECE_LENGTH = 4 * 1024;
+	private static final int PIECE_LENGTH = 8 * 1024;
+
 	private boolean processingIcons = false;
 
+	// Content a progressive load has still to add, and whether a piece of it is going in
+	private PendingContent pending;
+	private boolean appendingPending = false;
+
+	// Bumped by every change to the text or its formatting, but not by placeholder conversion or restyling
+	private volatile long revision = 0;
+
 	public NotesEnhancedDocument()
 	{
 		super();
 	}
 
+	/**
+	 * Monotonic content revision, for telling whether anything changed since a save
+	 */
+	public long getRevision()
+	{
+		return revision;
+	}
+
+	@Override
+	protected void fireInsertUpdate(DocumentEvent e)
+	{
+		countRevision();
+		super.fireInsertUpdate(e);
+	}
+
+	@Override
+	protected void fireRemoveUpdate(DocumentEvent e)
+	{
+		countRevision();
+		super.fireRemoveUpdate(e);
+	}
+
+	@Override
+	protected void fireChangedUpdate(DocumentEvent e)
+	{
+		// Formatting edits are counted where they are made, since refreshing a shared style
+		// sends the same kind of event without changing anything. Undoing or redoing one
+		// arrives wrapped in a different event type.
+		if (!(e instanceof DefaultDocumentEvent))
+		{
+			countRevision();
+		}
+		super.fireChangedUpdate(e);
+	}
+
+	@Override
+	public void setCharacterAttributes(int offset, int length, AttributeSet s, boolean replace)
+	{
+		// Counted before the change so listeners notified during it already see the new revision
+		countRevision();
+		super.setCharacterAttributes(offset, length, s, replace);
+	}
+
+	@Override
+	public void setParagraphAttributes(int offset, int length, AttributeSet s, boolean replace)
+	{
+		countRevision();
+		super.setParagraphAttributes(offset, length, s, replace);
+	}
+
+	private void countRevision()
+	{
+		if (!processingIcons && !appendingPending)
+		{
+			revision++;
+		}
+	}
+
+	@Override
+	public void insertString(int offs, String str, AttributeSet a) throws BadLocationException
+	{
+		finishLoadingFrom(offs);
+		super.insertString(offs, str, a);
+	}
+
+	@Override
+	public void remove(int offs, int len) throws BadLocationException
+	{
+		super.remove(offs, finishLoadingForRemove(offs, len));
+	}
+
 
 	/**
 	 * Override fireUndoableEditUpdate to respect the undo tracking flag
@@ -40,12 +128,312 @@ public class NotesEnhancedDocument extends DefaultStyledDocument
 	@Override
 	protected void fireUndoableEditUpdate(UndoableEditEvent e)
 	{
-		if (!processingIcons)
+		if (!processingIcons && !appendingPending)
 		{
 			super.fireUndoableEditUpdate(e);
 		}
 	}
 
+	/**
+	 * Capture the text and its character runs under a brief read lock. The snapshot is
+	 * immutable, so it can be serialized on another thread while editing carries on.
+	 */
+	public Snapshot snapshot()
+	{
+		readLock();
+		try
+		{
+			int length = getLength();
+			String text = getText(0, length);
+
+			List<Run> runs = new ArrayList<>();
+			Element root = getDefaultRootElement();
+			for (int i = 0; i < root.getElementCount(); i++)
+			{
+				Element paragraph = root.getElement(i);
+				for (int j = 0; j < paragraph.getElementCount(); j++)
+				{
+					Element leaf = paragraph.getElement(j);
+					int start = leaf.getStartOffset();
+					int end = Math.min(leaf.getEndOffset(), length);
+					if (start < end)
+					{
+						// Large attribute sets may be changed in place later; small ones are shared and immutable
+						runs.add(new Run(start, end, leaf.getAttributes().copyAttributes()));
+					}
+				}
+			}
+			return new Snapshot(text, Collections.unmodifiableList(runs));
+		}
+		catch (BadLocationException e)
+		{
+			throw new IllegalStateException("Document changed while locked", e);
+		}
+		finally
+		{
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Build a detached document with a snapshot's content and formatting. The whole text
+	 * goes in as one bulk insert of element specs, one per run of equal attributes, so
+	 * the cost is a single pass over the runs rather than an insert per run or character.
+	 */
+	public static NotesEnhancedDocument copyOf(Snapshot snapshot) throws BadLocationException
+	{
+		NotesEnhancedDocument copy = new NotesEnhancedDocument();
+		if (!snapshot.text.isEmpty())
+		{
+			copy.insert(0, copy.createSpecs(0, snapshot, null));
+		}
+		return copy;
+	}
+
+	/**
+	 * Fill this empty document with parsed content in one bulk insert, every paragraph
+	 * getting the given attributes
+	 */
+	void load(Snapshot content, AttributeSet paragraphAttributes) throws BadLocationException
+	{
+		setParagraphAttributes(0, 0, paragraphAttributes, true);
+		if (content.text.isEmpty())
+		{
+			return;
+		}
+
+		// Only a lone item name, restored into an otherwise empty document, ever shared an
+		// element with the final newline
+		ElementSpec[] specs = createSpecs(0, content, null);
+		if (content.runs.size() > 1)
+		{
+			specs[0].setDirection(ElementSpec.OriginateDirection);
+		}
+		insert(0, specs);
+	}
+
+	/**
+	 * Like {@link #load}, but long content only goes in up to the first paragraph break
+	 * after a screenful. The rest is held back for {@link #appendPendingContent} to add a
+	 * piece at a time once the document is on screen.
+	 */
+	void loadProgressively(Snapshot content, AttributeSet paragraphAttributes) throws BadLocationException
+	{
+		if (content.text.length() <= PROGRESSIVE_LOAD_LENGTH)
+		{
+			load(content, paragraphAttributes);
+			return;
+		}
+
+		PendingContent rest = new PendingContent(content, paragraphAttributes);
+		load(rest.next(FIRST_PIECE_LENGTH), paragraphAttributes);
+		rest.advance();
+		if (!rest.isDone())
+		{
+			rest.position = createPosition(getLength());
+			pending = rest;
+		}
+	}
+
+	/**
+	 * Whether a progressive load has content still to add
+	 */
+	public synchronized boolean hasPendingContent()
+	{
+		return pending != null;
+	}
+
+	/**
+	 * Add the next piece of content held back by {@link #loadProgressively}. Like icon
+	 * conversion, it is not an edit: it leaves no undo entry and doesn't change the revision.
+	 *
+	 * @return whether there is still content to add
+	 */
+	public synchronized boolean appendPendingContent()
+	{
+		appendPending(PIECE_LENGTH);
+		return pending != null;
+	}
+
+	/**
+	 * Add all content a progressive load still holds back, e.g. before saving
+	 */
+	public synchronized void finishLoading()
+	{
+		appendPending(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Forget content a progressive load still holds back, when the whole content is replaced
+	 */
+	public synchronized void discardPendingContent()
+	{
+		pending = null;
+	}
+
+	/**
+	 * Edits up to where the loaded content ends are the same against the whole note, but
+	 * anything after it has to wait for the rest, or the edit journal would record offsets
+	 * that don't match the saved file
+	 */
+	private synchronized void finishLoadingFrom(int offset)
+	{
+		if (pending != null && !appendingPending && offset >= pending.position.getOffset())
+		{
+			finishLoading();
+		}
+	}
+
+	/**
+	 * Like {@link #finishLoadingFrom} for the removed range. Removing everything loaded so
+	 * far, e.g. Select All then Delete or typing over it, means the whole note: the rest
+	 * is added first and removed along with it, rather than left to follow the new text.
+	 *
+	 * @return the length to remove
+	 */
+	private synchronized int finishLoadingForRemove(int offs, int len)
+	{
+		if (pending == null || appendingPending)
+		{
+			return len;
+		}
+
+		if (offs == 0 && len > 0 && len == pending.position.getOffset())
+		{
+			finishLoading();
+			return getLength();
+		}
+
+		finishLoadingFrom(offs + len - 1);
+		return len;
+	}
+
+	private void appendPending(int length)
+	{
+		if (pending == null)
+		{
+			return;
+		}
+
+		appendingPending = true;
+		try
+		{
+			int offset = pending.position.getOffset();
+			Snapshot piece = pending.next(length);
+			int paragraphs = 1;
+			for (int i = piece.text.indexOf('\n'); i >= 0; i = piece.text.indexOf('\n', i + 1))
+			{
+				paragraphs++;
+			}
+
+			insert(offset, createSpecs(offset, piece, Collections.nCopies(paragraphs, pending.paragraphAttributes)));
+			pending.advance();
+		}
+		catch (BadLocationException e)
+		{
+			// Keep the rest pending, so a note that failed to load in full can't be saved
+			throw new IllegalStateException("Failed to add loaded content", e);
+		}
+		finally
+		{
+			appendingPending = false;
+		}
+
+		if (pending.isDone())
+		{
+			pending = null;
+		}
+	}
+
+	/**
+	 * The element specs insertString would build for the snapshot's text typed in at the
+	 * offset, except that each run keeps its own attributes. New paragraphs take the given
+	 * attributes in order, or those of the paragraph typed into.
+	 */
+	private ElementSpec[] createSpecs(int offset, Snapshot snapshot, List<AttributeSet> paragraphs)
+		throws BadLocationException
+	{
+		String text = snapshot.text;
+		Element paragraph = getParagraphElement(offset);
+		AttributeSet paragraphAttributes = paragraph.getAttributes();
+
+		List<ElementSpec> specs = new ArrayList<>();
+		ElementSpec lastStart = null;
+		int paragraphIndex = 0;
+
+		// After a line break the text opens a paragraph of its own, rather than going into
+		// the one it is typed into
+		boolean afterNewline = offset > 0 && getText(offset - 1, 1).charAt(0) == '\n';
+		if (afterNewline)
+		{
+			specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+			lastStart = new ElementSpec(paragraphs != null ? paragraphs.get(0) : paragraphAttributes,
+				ElementSpec.StartTagType);
+			specs.add(lastStart);
+		}
+
+		List<Run> runs = snapshot.runs;
+		int i = 0;
+		while (i < runs.size())
+		{
+			AttributeSet attributes = runs.get(i).attributes;
+			int start = runs.get(i).start;
+			int end = runs.get(i).end;
+
+			// Neighbouring runs with equal attributes end up in one element either way
+			while (i + 1 < runs.size() && runs.get(i + 1).attributes.isEqual(attributes))
+			{
+				end = runs.get(++i).end;
+			}
+			i++;
+
+			int pieceStart = start;
+			for (int pos = start; pos < end; pos++)
+			{
+				if (text.charAt(pos) == '\n')
+				{
+					specs.add(contentSpec(attributes, text, pieceStart, pos + 1));
+					specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+					paragraphIndex++;
+					lastStart = new ElementSpec(paragraphs != null ? paragraphs.get(paragraphIndex) : paragraphAttributes,
+						ElementSpec.StartTagType);
+					specs.add(lastStart);
+					pieceStart = pos + 1;
+				}
+			}
+			if (pieceStart < end)
+			{
+				specs.add(contentSpec(attributes, text, pieceStart, end));
+			}
+		}
+
+		// The text is typed onto the end of the element before it, or the start of the
+		// document's first one
+		AttributeSet previousAttributes = getCharacterElement(Math.max(offset - 1, 0)).getAttributes();
+		ElementSpec first = specs.get(0);
+		if (first.getType() == ElementSpec.ContentType && previousAttributes.isEqual(first.getAttributes()))
+		{
+			first.setDirection(ElementSpec.JoinPreviousDirection);
+		}
+
+		if (lastStart != null)
+		{
+			// The last paragraph continues into the one typed into, which is split at the
+			// insertion point unless the text began a paragraph of its own
+			lastStart.setDirection(afterNewline ? ElementSpec.JoinNextDirection : ElementSpec.JoinFractureDirection);
+		}
+
+		return specs.toArray(new ElementSpec[0]);
+	}
+
+	private static ElementSpec contentSpec(AttributeSet attributes, String text, int start, int end)
+	{
+		// Specs copy whatever array they are given, so each gets only its own piece
+		char[] piece = new char[end - start];
+		text.getChars(start, end, piece, 0);
+		return new ElementSpec(attributes, ElementSpec.ContentType, piece, 0, piece.length);
+	}
+
 	/**
 	 * Convert all icons in the document to text placeholders
 	 * Call this before saving to RTF
@@ -106,63 +494,169 @@ public class NotesEnhancedDocument extends DefaultStyledDocument
 		processingIcons = true;
 		try
 		{
-			String text = getText(0, getLength());
-			List<PlaceholderInfo> placeholders = findAllPlaceholders(text);
-
-			// Process in reverse order to maintain positions
-			Collections.reverse(placeholders);
+			List<PlaceholderInfo> placeholders = findAllPlaceholders();
+			IconLookup icons = new IconLookup(itemIconService);
 
-			for (PlaceholderInfo placeholder : placeholders)
+			// Each block of neighbouring paragraphs with placeholders is rebuilt in one edit,
+			// leaving the paragraphs between blocks alone. Going back to front keeps the
+			// offsets of the blocks still to do valid.
+			Element root = getDefaultRootElement();
+			int blockEnd = placeholders.size();
+			for (int i = placeholders.size() - 1; i >= 0; i--)
 			{
-				try
+				if (i == 0 || root.getElementIndex(placeholders.get(i).startPos)
+					> root.getElementIndex(placeholders.get(i - 1).endPos() - 1) + 1)
 				{
-					// Remove the placeholder text
-					remove(placeholder.startPos, placeholder.length);
+					replacePlaceholders(placeholders.subList(i, blockEnd), icons);
+					blockEnd = i;
+				}
+			}
 
-					// Insert icon using ItemIconService's centered icon with quantity
-					SimpleAttributeSet attrs = new SimpleAttributeSet();
+			log.debug("Restored {} icons from placeholders", placeholders.size());
 
-					// Get the centered icon from ItemIconService with quantity
-					Icon centeredIcon = itemIconService.getCenteredIconById(placeholder.itemId, placeholder.itemQuantity);
+		}
+		catch (BadLocationException e)
+		{
+			log.error("Failed to restore icons from placeholders", e);
+		}
+		finally
+		{
+			processingIcons = false;
+		}
+	}
 
-					if (centeredIcon != null)
-					{
-						StyleConstants.setIcon(attrs, centeredIcon);
+	/**
+	 * Swap a block of placeholders for their icons or fallback text in one structural edit.
+	 * The text from the first to the end of the last is rebuilt with the replacements
+	 * spliced in and put back as a single bulk insert, instead of a remove and insert per
+	 * placeholder that each shift all the text after it.
+	 */
+	private void replacePlaceholders(List<PlaceholderInfo> placeholders, IconLookup icons)
+		throws BadLocationException
+	{
+		Element root = getDefaultRootElement();
+		int regionStart = placeholders.get(0).startPos;
+		int regionEnd = placeholders.get(placeholders.size() - 1).endPos();
+		int firstParagraph = root.getElementIndex(regionStart);
+		int lastParagraph = root.getElementIndex(regionEnd - 1);
 
-						// Store metadata for future conversion including quantity
-						attrs.addAttribute(ICON_ATTRIBUTE,
-							new IconData(placeholder.itemName, placeholder.itemId, placeholder.itemQuantity));
+		StringBuilder text = new StringBuilder(regionEnd - regionStart);
+		List<Run> runs = new ArrayList<>();
+		List<AttributeSet> paragraphAttributes = new ArrayList<>();
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
 
-						insertString(placeholder.startPos, " ", attrs);
+		paragraphAttributes.add(root.getElement(firstParagraph).getAttributes().copyAttributes());
+		int next = 0;
+		for (int i = firstParagraph; i <= lastParagraph; i++)
+		{
+			Element paragraph = root.getElement(i);
+			for (int j = paragraph.getElementIndex(regionStart); j < paragraph.getElementCount(); j++)
+			{
+				Element leaf = paragraph.getElement(j);
+				int pos = Math.max(leaf.getStartOffset(), regionStart);
+				int end = Math.min(leaf.getEndOffset(), regionEnd);
+				while (pos < end)
+				{
+					PlaceholderInfo placeholder = next < placeholders.size() ? placeholders.get(next) : null;
+					if (placeholder == null || pos < placeholder.startPos)
+					{
+						int pieceEnd = placeholder != null ? Math.min(end, placeholder.startPos) : end;
+						int start = text.length();
+						for (int offset = pos; offset < pieceEnd; offset += segment.count)
+						{
+							getText(offset, pieceEnd - offset, segment);
+							text.append(segment.array, segment.offset, segment.count);
+						}
+						runs.add(new Run(start, text.length(), leaf.getAttributes().copyAttributes()));
 
+						if (pieceEnd == paragraph.getEndOffset())
+						{
+							paragraphAttributes.add(root.getElement(i + 1).getAttributes().copyAttributes());
+						}
+						pos = pieceEnd;
+						continue;
 					}
-					else
+
+					// A placeholder's text may span several elements, and even paragraphs, which it
+					// joins the way removing it would
+					if (pos == placeholder.startPos)
 					{
-						// If icon not found, keep the placeholder or insert item name with quantity
-						String fallbackText = placeholder.itemQuantity > 1 ?
-							"[" + placeholder.itemQuantity + "x " + placeholder.itemName + "]" :
-							"[" + placeholder.itemName + "]";
-						insertString(placeholder.startPos, fallbackText, null);
+						RestoredItem item = restore(placeholder, icons);
+						int start = text.length();
+						text.append(item.text);
+						runs.add(new Run(start, text.length(),
+							item.attributes != null ? item.attributes : SimpleAttributeSet.EMPTY));
+
+						// An item name can hold line breaks, which split the paragraph it lands in
+						AttributeSet current = paragraphAttributes.get(paragraphAttributes.size() - 1);
+						for (int k = item.text.indexOf('\n'); k >= 0; k = item.text.indexOf('\n', k + 1))
+						{
+							paragraphAttributes.add(current);
+						}
 					}
 
-				}
-				catch (BadLocationException e)
-				{
-					log.error("Failed to restore icon for {}", placeholder.itemName, e);
+					pos = Math.min(end, placeholder.endPos());
+					if (pos == placeholder.endPos())
+					{
+						next++;
+					}
 				}
 			}
+		}
 
-			log.debug("Restored {} icons from placeholders", placeholders.size());
-
+		remove(regionStart, regionEnd - regionStart);
+		if (regionStart == 0)
+		{
+			// Text at the very start goes into the paragraph that is already there
+			restoreParagraphAttributes(0, paragraphAttributes.get(0));
 		}
-		catch (BadLocationException e)
+		insert(regionStart, createSpecs(regionStart, new Snapshot(text.toString(), runs), paragraphAttributes));
+
+		// The paragraph the text ran into keeps its own attributes, or those of whatever it
+		// was split from
+		restoreParagraphAttributes(regionStart + text.length(), paragraphAttributes.get(paragraphAttributes.size() - 1));
+	}
+
+	private void restoreParagraphAttributes(int offset, AttributeSet attributes)
+	{
+		if (!getParagraphElement(offset).getAttributes().isEqual(attributes))
 		{
-			log.error("Failed to get document text", e);
+			setParagraphAttributes(offset, 0, attributes, true);
 		}
-		finally
+	}
+
+	/**
+	 * What a placeholder found while reading is restored to, or null if it isn't a valid one
+	 */
+	static RestoredItem restorePlaceholder(String placeholder, IconLookup icons)
+	{
+		PlaceholderInfo info = parsePlaceholder(placeholder, 0);
+		return info != null ? restore(info, icons) : null;
+	}
+
+	private static RestoredItem restore(PlaceholderInfo placeholder, IconLookup icons)
+	{
+		// Get the centered icon from ItemIconService with quantity
+		Icon centeredIcon = icons.get(placeholder.itemId, placeholder.itemQuantity);
+
+		if (centeredIcon != null)
 		{
-			processingIcons = false;
+			SimpleAttributeSet attrs = new SimpleAttributeSet();
+			StyleConstants.setIcon(attrs, centeredIcon);
+
+			// Store metadata for future conversion including quantity
+			attrs.addAttribute(ICON_ATTRIBUTE,
+				new IconData(placeholder.itemName, placeholder.itemId, placeholder.itemQuantity));
+
+			return new RestoredItem(" ", attrs);
 		}
+
+		// If icon not found, insert item name with quantity
+		String fallbackText = placeholder.itemQuantity > 1 ?
+			"[" + placeholder.itemQuantity + "x " + placeholder.itemName + "]" :
+			"[" + placeholder.itemName + "]";
+		return new RestoredItem(fallbackText, null);
 	}
 
 	/**
@@ -224,45 +718,77 @@ public class NotesEnhancedDocument extends DefaultStyledDocument
 	}
 
 	/**
-	 * Find all placeholders in text
+	 * Find all placeholders, reading the text a chunk at a time straight out of the
+	 * document's buffer. Only the characters of placeholders themselves are copied.
 	 */
-	private List<PlaceholderInfo> findAllPlaceholders(String text)
+	private List<PlaceholderInfo> findAllPlaceholders() throws BadLocationException
 	{
 		List<PlaceholderInfo> placeholders = new ArrayList<>();
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+
+		int matched = 0;
+		int start = 0;
+		StringBuilder placeholder = null;
 
-		int searchStart = 0;
-		while (searchStart < text.length())
+		int length = getLength();
+		int offset = 0;
+		while (offset < length)
 		{
-			int start = text.indexOf(ICON_PLACEHOLDER_PREFIX, searchStart);
-			if (start == -1)
+			getText(offset, length - offset, segment);
+			int end = segment.offset + segment.count;
+			for (int i = segment.offset; i < end; i++, offset++)
 			{
-				break;
-			}
+				char ch = segment.array[i];
+				if (placeholder == null)
+				{
+					matched = matchPrefix(matched, ch);
+					if (matched == ICON_PLACEHOLDER_PREFIX.length())
+					{
+						start = offset + 1 - matched;
+						placeholder = new StringBuilder(ICON_PLACEHOLDER_PREFIX);
+						matched = 0;
+					}
+					continue;
+				}
 
-			int end = text.indexOf(ICON_PLACEHOLDER_SUFFIX, start);
-			if (end == -1)
-			{
-				break;
+				placeholder.append(ch);
+				int suffixStart = placeholder.length() - ICON_PLACEHOLDER_SUFFIX.length();
+				if (suffixStart >= ICON_PLACEHOLDER_PREFIX.length()
+					&& placeholder.indexOf(ICON_PLACEHOLDER_SUFFIX, suffixStart) == suffixStart)
+				{
+					PlaceholderInfo info = parsePlaceholder(placeholder.toString(), start);
+					if (info != null)
+					{
+						placeholders.add(info);
+					}
+					placeholder = null;
+				}
 			}
+		}
 
-			end += ICON_PLACEHOLDER_SUFFIX.length();
-
-			// Parse the placeholder
-			String placeholder = text.substring(start, end);
-			PlaceholderInfo info = parsePlaceholder(placeholder, start);
+		// An unterminated placeholder, like the text after it, stays as it is
+		return placeholders;
+	}
 
-			if (info != null)
+	/**
+	 * How much of the placeholder prefix the text ends with, given how much it ended with
+	 * before the next character
+	 */
+	private static int matchPrefix(int matched, char ch)
+	{
+		for (int k = matched; k >= 0; k--)
+		{
+			if (ch == ICON_PLACEHOLDER_PREFIX.charAt(k)
+				&& ICON_PLACEHOLDER_PREFIX.regionMatches(0, ICON_PLACEHOLDER_PREFIX, matched - k, k))
 			{
-				placeholders.add(info);
+				return k + 1;
 			}
-
-			searchStart = end;
 		}
-
-		return placeholders;
+		return 0;
 	}
 
-	private PlaceholderInfo parsePlaceholder(String placeholder, int position)
+	private static PlaceholderInfo parsePlaceholder(String placeholder, int position)
 	{
 		// Format: {{ITEM:itemId:itemName:itemQuantity}}
 		if (!placeholder.startsWith(ICON_PLACEHOLDER_PREFIX) ||
@@ -320,7 +846,26 @@ public class NotesEnhancedDocument extends DefaultStyledDocument
 		}
 	}
 
-	private String createPlaceholder(String itemName, int itemId, int itemQuantity)
+	/**
+	 * The placeholder an icon character is saved as, or null if the attributes aren't an icon's
+	 */
+	static String placeholderFor(AttributeSet attrs)
+	{
+		if (attrs.getAttribute(StyleConstants.IconAttribute) == null)
+		{
+			return null;
+		}
+
+		Object iconData = attrs.getAttribute(ICON_ATTRIBUTE);
+		if (iconData instanceof IconData)
+		{
+			IconData data = (IconData) iconData;
+			return createPlaceholder(data.itemName, data.itemId, data.itemQuantity);
+		}
+		return createPlaceholder("unknown_item", 0, 1);
+	}
+
+	private static String createPlaceholder(String itemName, int itemId, int itemQuantity)
 	{
 		return ICON_PLACEHOLDER_PREFIX + itemId + ":" + itemName + ":" + itemQuantity + ICON_PLACEHOLDER_SUFFIX;
 	}
@@ -359,6 +904,51 @@ public class NotesEnhancedDocument extends DefaultStyledDocument
 			this.itemId = itemId;
 			this.itemQuantity = itemQuantity;
 		}
+
+		int endPos()
+		{
+			return startPos + length;
+		}
+	}
+
+	/**
+	 * Item icons for one pass over a note, each looked up once however many placeholders
+	 * mention the same item and quantity
+	 */
+	static class IconLookup
+	{
+		private final ItemIconService itemIconService;
+		private final Map<Long, Icon> icons = new HashMap<>();
+
+		IconLookup(ItemIconService itemIconService)
+		{
+			this.itemIconService = itemIconService;
+		}
+
+		Icon get(int itemId, int quantity)
+		{
+			long key = ((long) itemId << 32) | (quantity & 0xFFFFFFFFL);
+			if (icons.containsKey(key))
+			{
+				return icons.get(key);
+			}
+
+			Icon icon = itemIconService.getCenteredIconById(itemId, quantity);
+			icons.put(key, icon);
+			return icon;
+		}
+	}
+
+	static class RestoredItem
+	{
+		final String text;
+		final AttributeSet attributes;
+
+		RestoredItem(String text, AttributeSet attributes)
+		{
+			this.text = text;
+			this.attributes = attributes;
+		}
 	}
 
 	public static class IconData
@@ -374,4 +964,99 @@ public class NotesEnhancedDocument extends DefaultStyledDocument
 			this.itemQuantity = Math.max(1, itemQuantity); // Ensure minimum quantity of 1
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Parsed content held back by a progressive load, handed out in pieces that end at
+	 * paragraph breaks
+	 */
+	private static class PendingContent
+	{
+		private final Snapshot content;
+		private final AttributeSet paragraphAttributes;
+
+		// Where the next piece goes, which moves along with text typed in before it
+		private Position position;
+		private int start = 0;
+		private int run = 0;
+		private int pieceEnd;
+		private int pieceRun;
+
+		PendingContent(Snapshot content, AttributeSet paragraphAttributes)
+		{
+			this.content = content;
+			this.paragraphAttributes = paragraphAttributes;
+		}
+
+		/**
+		 * The text from where the last piece ended to the first line break at least the given
+		 * length on, or to the end. It is only taken once {@link #advance} is called.
+		 */
+		Snapshot next(int length)
+		{
+			String text = content.text;
+			int end = text.length();
+			if (length < end - start)
+			{
+				int lineEnd = text.indexOf('\n', start + length - 1);
+				if (lineEnd >= 0)
+				{
+					end = lineEnd + 1;
+				}
+			}
+
+			List<Run> runs = new ArrayList<>();
+			int i = run;
+			for (; i < content.runs.size() && content.runs.get(i).start < end; i++)
+			{
+				Run r = content.runs.get(i);
+				runs.add(new Run(Math.max(r.start, start) - start, Math.min(r.end, end) - start, r.attributes));
+			}
+
+			// A run cut off at the end carries on in the next piece
+			pieceRun = i > run && content.runs.get(i - 1).end > end ? i - 1 : i;
+			pieceEnd = end;
+			return new Snapshot(text.substring(start, end), runs);
+		}
+
+		void advance()
+		{
+			start = pieceEnd;
+			run = pieceRun;
+		}
+
+		boolean isDone()
+		{
+			return start == content.text.length();
+		}
+	}
+
+	/**
+	 * Text of a document at one point in time, or as parsed from a note file, with the
+	 * character attributes of each run
+	 */
+	public static class Snapshot
+	{
+		public final String text;
+		public final List<Run> runs;
+
+		Snapshot(String text, List<Run> runs)
+		{
+			this.text = text;
+			this.runs = runs;
+		}
+	}
+
+	public static class Run
+	{
+		public final int start;
+		public final int end;
+		public final AttributeSet attributes;
+
+		Run(int start, int end, AttributeSet attributes)
+		{
+			this.start = start;
+			this.end = end;
+			this.attributes = attributes;
+		}
+	}
+}
@@ -7,16 +7,21 @@ import dev.seafoo.richtextnotes.ui.components.clipboard.EnhancedPasteAction;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ActionMap;
+import javax.swing.Icon;
 import javax.swing.JEditorPane;
 import javax.swing.JTextPane;
+import javax.swing.UIManager;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultEditorKit;
@@ -28,6 +33,7 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 import javax.swing.text.StyledDocument;
 import javax.swing.text.StyledEditorKit;
+import javax.swing.text.ViewFactory;
 import javax.swing.text.rtf.RTFEditorKit;
 import javax.swing.undo.UndoManager;
 import lombok.Setter;
@@ -59,9 +65,19 @@ public class NotesEnhancedEditorKit extends RTFEditorKit
 	public static final String STYLE_BIGGER = "bigger";
 	public static final String STYLE_HUGE = "huge";
 
+	// Stored content starting with this, after any whitespace, is read as RTF
+	private static final byte[] RTF_SIGNATURE = {'{', '\\', 'r', 't', 'f'};
+	private static final int RTF_SNIFF_LIMIT = 1024;
+	// How much of a stream is kept for the JDK reader in case the note reader gives up on it
+	private static final int RTF_REPLAY_LIMIT = 64 * 1024;
+
 	private final Map<String, Action> customActions;
 	private final ItemIconService itemIconService;
 
+	// Large notes read by this kit load progressively; only for kits that never read pasted RTF
+	@Setter
+	private boolean progressiveLoading = false;
+
 	public NotesEnhancedEditorKit(ItemIconService itemIconService)
 	{
 		super();
@@ -70,6 +86,24 @@ public class NotesEnhancedEditorKit extends RTFEditorKit
 		initializeCustomActions();
 	}
 
+	/**
+	 * The usual styled views, except that item icons get an {@link ItemIconView}, which
+	 * only has the image requested once the icon is in sight
+	 */
+	@Override
+	public ViewFactory getViewFactory()
+	{
+		ViewFactory styledViews = super.getViewFactory();
+		return elem -> {
+			Icon icon = StyleConstants.getIcon(elem.getAttributes());
+			if (icon instanceof ItemIconService.ItemIcon && StyleConstants.IconElementName.equals(elem.getName()))
+			{
+				return new ItemIconView(elem, (ItemIconService.ItemIcon) icon);
+			}
+			return styledViews.create(elem);
+		};
+	}
+
 	/**
 	 * Override to use our custom document
 	 */
@@ -89,24 +123,7 @@ public class NotesEnhancedEditorKit extends RTFEditorKit
 
 		if (doc instanceof NotesEnhancedDocument)
 		{
-			// Create a copy of the document for saving
-			NotesEnhancedDocument copyDoc = createDocumentCopy((NotesEnhancedDocument) doc);
-
-			try
-			{
-				// Convert icons to placeholders in the copy only
-				copyDoc.convertIconsToPlaceholders();
-
-				// Write the copy to RTF
-				super.write(out, copyDoc, 0, copyDoc.getLength());
-
-			}
-			catch (Exception e)
-			{
-				log.error("Failed to save with icon conversion, trying original document", e);
-				// Fallback to original document if copy fails
-				super.write(out, doc, pos, len);
-			}
+			write(out, ((NotesEnhancedDocument) doc).snapshot());
 		}
 		else
 		{
@@ -116,44 +133,30 @@ public class NotesEnhancedEditorKit extends RTFEditorKit
 	}
 
 	/**
-	 * Create a copy of the document with all content and formatting
-	 */
-	private NotesEnhancedDocument createDocumentCopy(NotesEnhancedDocument originalDoc) throws BadLocationException
-	{
-		NotesEnhancedDocument copyDoc = new NotesEnhancedDocument();
-		try
-		{
-			// Copy all content from original to copy
-			copyDocumentContent(originalDoc, copyDoc);
-			return copyDoc;
-
-		}
-		catch (Exception e)
-		{
-			log.error("Failed to create document copy", e);
-			throw new BadLocationException("Could not copy document", 0);
-		}
-	}
-
-	/**
-	 * Copy all content and formatting from source to destination document
+	 * Write a snapshot from {@link NotesEnhancedDocument#snapshot()}. Nothing here touches
+	 * the live document, so this can run on any thread.
 	 */
-	private void copyDocumentContent(StyledDocument sourceDoc, StyledDocument destDoc) throws BadLocationException
+	public void write(OutputStream out, NotesEnhancedDocument.Snapshot snapshot) throws IOException
 	{
-		int sourceLength = sourceDoc.getLength();
-		if (sourceLength == 0)
+		if (NoteRtfWriter.canWrite(snapshot))
 		{
+			NoteRtfWriter.write(snapshot, out);
 			return;
 		}
 
-		// Copy character by character with exact attributes to preserve structure
-		for (int i = 0; i < sourceLength; i++)
+		// Named character styles need the JDK writer's style sheet, so convert icons in a copy for it
+		try
 		{
-			String ch = sourceDoc.getText(i, 1);
-			AttributeSet attrs = sourceDoc.getCharacterElement(i).getAttributes();
+			NotesEnhancedDocument copyDoc = NotesEnhancedDocument.copyOf(snapshot);
+
+			// Convert icons to placeholders in the copy only
+			copyDoc.convertIconsToPlaceholders();
 
-			// Insert into destination at the same position
-			destDoc.insertString(i, ch, attrs);
+			super.write(out, copyDoc, 0, copyDoc.getLength());
+		}
+		catch (BadLocationException e)
+		{
+			throw new IOException("Failed to write note content", e);
 		}
 	}
 
@@ -164,6 +167,28 @@ public class NotesEnhancedEditorKit extends RTFEditorKit
 	public void read(InputStream in, Document doc, int pos)
 		throws IOException, BadLocationException
 	{
+		if (doc instanceof NotesEnhancedDocument && doc.getLength() == 0)
+		{
+			// Notes we saved are parsed straight from the stream; the JDK reader below handles
+			// any other RTF, replayed from the mark since the note reader gives up early on it
+			InputStream marked = in.markSupported() ? in : new BufferedInputStream(in);
+			marked.mark(RTF_REPLAY_LIMIT);
+			if (NoteRtfReader.read(marked, (NotesEnhancedDocument) doc, itemIconService, progressiveLoading))
+			{
+				return;
+			}
+			log.debug("Note uses RTF the note reader doesn't handle, using the JDK reader");
+
+			try
+			{
+				marked.reset();
+			}
+			catch (IOException e)
+			{
+				throw new IOException("Note reader gave up too far into the stream to replay it", e);
+			}
+			in = marked;
+		}
 
 		// First do the regular RTF read
 		super.read(in, doc, pos);
@@ -239,23 +264,149 @@ public class NotesEnhancedEditorKit extends RTFEditorKit
 		return customActions.get(actionName);
 	}
 
+	/**
+	 * Build a styled document from stored note content. The document isn't attached to
+	 * anything yet, so this can run off the EDT and be handed to {@link #createTextPane(StyledDocument)}.
+	 */
+	public NotesEnhancedDocument parseDocument(String content)
+	{
+		NotesEnhancedDocument doc = (NotesEnhancedDocument) createDefaultDocument();
+		initializeStyles(doc, UIManager.getFont("TextPane.font"));
+
+		if (content == null || content.trim().isEmpty())
+		{
+			return doc;
+		}
+
+		try
+		{
+			if (content.trim().startsWith("{\\rtf"))
+			{
+				read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), doc, 0);
+			}
+			else
+			{
+				doc.insertString(0, content, null);
+			}
+		}
+		catch (Exception e)
+		{
+			log.warn("Failed to parse note content, falling back to plain text", e);
+			try
+			{
+				doc.remove(0, doc.getLength());
+				doc.insertString(0, content, null);
+			}
+			catch (BadLocationException ex)
+			{
+				log.error("Failed to load note content as plain text", ex);
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Build a styled document straight from a note file's decoded byte stream, without
+	 * first turning the whole note into a String. Unlike {@link #parseDocument(String)}
+	 * this can't retry as plain text once the stream has been consumed, so parse failures
+	 * are thrown and the caller decides how to fall back.
+	 */
+	public NotesEnhancedDocument parseDocument(InputStream in) throws IOException
+	{
+		NotesEnhancedDocument doc = (NotesEnhancedDocument) createDefaultDocument();
+		initializeStyles(doc, UIManager.getFont("TextPane.font"));
+		readContent(in, doc);
+		return doc;
+	}
+
+	/**
+	 * Read stored note content from a stream into a document, as RTF if it looks like RTF
+	 * and as plain text otherwise
+	 */
+	public void readContent(InputStream in, Document doc) throws IOException
+	{
+		BufferedInputStream buffered = in instanceof BufferedInputStream
+			? (BufferedInputStream) in
+			: new BufferedInputStream(in);
+
+		try
+		{
+			if (startsWithRtf(buffered))
+			{
+				read(buffered, doc, 0);
+				return;
+			}
+
+			String text = new String(buffered.readAllBytes(), StandardCharsets.UTF_8);
+			if (!text.trim().isEmpty())
+			{
+				doc.insertString(0, text, null);
+			}
+		}
+		catch (BadLocationException e)
+		{
+			throw new IOException("Failed to read note content", e);
+		}
+	}
+
+	/**
+	 * Peek past leading whitespace for the RTF signature, leaving the stream where it was
+	 */
+	private static boolean startsWithRtf(BufferedInputStream in) throws IOException
+	{
+		in.mark(RTF_SNIFF_LIMIT + RTF_SIGNATURE.length);
+		try
+		{
+			int b = in.read();
+			for (int skipped = 0; b != -1 && b <= ' ' && skipped < RTF_SNIFF_LIMIT; skipped++)
+			{
+				b = in.read();
+			}
+
+			for (byte expected : RTF_SIGNATURE)
+			{
+				if (b != expected)
+				{
+					return false;
+				}
+				b = in.read();
+			}
+			return true;
+		}
+		finally
+		{
+			in.reset();
+		}
+	}
+
 	/**
 	 * Create a JTextPane configured for Notes Enhanced
 	 */
 	public JTextPane createTextPane()
+	{
+		return createTextPane(null);
+	}
+
+	/**
+	 * Create a JTextPane around a document from {@link #parseDocument}, or a new empty one if null
+	 */
+	public JTextPane createTextPane(StyledDocument document)
 	{
 		JTextPane textPane = new JTextPane();
 		textPane.setEditorKit(this);
 
 		// Use our custom document
-		textPane.setDocument(createDefaultDocument());
+		textPane.setDocument(document != null ? document : createDefaultDocument());
 
 		textPane.setBackground(ColorScheme.DARKER_GRAY_COLOR);
 		textPane.setForeground(Color.WHITE);
 		textPane.setCaretColor(Color.WHITE);
 		textPane.setSelectedTextColor(Color.WHITE);
 
-		initializeStyles(textPane.getStyledDocument(), textPane.getFont());
+		if (document == null)
+		{
+			initializeStyles(textPane.getStyledDocument(), textPane.getFont());
+		}
 
 		// Override default copy/paste actions
 		setupEnhancedCopyPaste(textPane);
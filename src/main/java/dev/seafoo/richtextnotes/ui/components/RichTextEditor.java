@@ -2,6 +2,9 @@ package dev.seafoo.richtextnotes.ui.components;
 
 import dev.seafoo.richtextnotes.RichTextNotesConfig;
 import dev.seafoo.richtextnotes.models.Note;
+import dev.seafoo.richtextnotes.models.NoteContentWriter;
+import dev.seafoo.richtextnotes.models.NoteSaveRequest;
+import dev.seafoo.richtextnotes.services.EditJournal;
 import dev.seafoo.richtextnotes.services.ItemIconService;
 import dev.seafoo.richtextnotes.ui.popups.InlineItemAutoComplete;
 import java.awt.BorderLayout;
@@ -13,10 +16,13 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.KeyEvent;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import javax.swing.ActionMap;
 import javax.swing.BorderFactory;
+import javax.swing.Icon;
 import javax.swing.InputMap;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -27,6 +33,14 @@ import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 import javax.swing.undo.UndoManager;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -42,6 +56,11 @@ import net.runelite.client.ui.ColorScheme;
 @Data
 public class RichTextEditor extends JPanel
 {
+	// Document properties shared by every editor showing the same document
+	private static final String LOADING_PROPERTY = "rich-text-notes-loading";
+	private static final String REPLAYING_PROPERTY = "rich-text-notes-replaying";
+	private static final String UNDO_MANAGER_PROPERTY = "rich-text-notes-undo";
+	private static final String JOURNAL_OWNER_PROPERTY = "rich-text-notes-journal-owner";
 
 	private final Note note;
 	private final Runnable changeCallback;
@@ -58,32 +77,54 @@ public class RichTextEditor extends JPanel
 	// Undo/Redo support
 	private UndoManager undoManager;
 
+	// Crash recovery, set by the owner once the editor is created
+	private EditJournal editJournal;
+
 	// State tracking
-	private boolean documentChanging = false;
 	private boolean toolbarVisible = true; // Track toolbar visibility state
+	private DocumentListener documentListener;
 
 
 	public RichTextEditor(Note note, Runnable changeCallback, ItemIconService itemIconService, RichTextNotesConfig config)
+	{
+		this(note, changeCallback, itemIconService, config, null);
+	}
+
+	/**
+	 * Create an editor around a document already parsed from the note's content, e.g. by
+	 * {@link NotesEnhancedEditorKit#parseDocument} on a background thread. The document can
+	 * be shared with other editors; they share its undo history and only one journals edits.
+	 */
+	public RichTextEditor(Note note, Runnable changeCallback, ItemIconService itemIconService, RichTextNotesConfig config,
+		StyledDocument document)
 	{
 		this.note = note;
 		this.changeCallback = changeCallback;
 		this.itemIconService = itemIconService;
 		this.config = config;
 
-		setupEditor();
+		setupEditor(document);
 		setupUndoRedo();
-		loadContent();
+		if (document == null)
+		{
+			loadContent();
+		}
 		setupKeyboardShortcuts();
+
+		if (((NotesEnhancedDocument) textPane.getDocument()).hasPendingContent())
+		{
+			SwingUtilities.invokeLater(this::appendPendingContent);
+		}
 	}
 
-	private void setupEditor()
+	private void setupEditor(StyledDocument document)
 	{
 		setLayout(new BorderLayout());
 		setBackground(ColorScheme.DARK_GRAY_COLOR);
 
 		// Create the editor kit with icon service
 		editorKit = new NotesEnhancedEditorKit(itemIconService);
-		textPane = editorKit.createTextPane();
+		textPane = editorKit.createTextPane(document);
 
 		// Configure text pane
 		textPane.setBorder(new EmptyBorder(10, 10, 10, 10));
@@ -139,17 +180,22 @@ public class RichTextEditor extends JPanel
 		add(scrollPane, BorderLayout.CENTER);
 
 		// Add document listener for change tracking
-		textPane.getDocument().addDocumentListener(new DocumentListener()
+		documentListener = new DocumentListener()
 		{
 			@Override
 			public void insertUpdate(DocumentEvent e)
 			{
+				journalInsert(e.getOffset(), e.getLength());
 				onTextChanged();
 			}
 
 			@Override
 			public void removeUpdate(DocumentEvent e)
 			{
+				if (isJournaling())
+				{
+					editJournal.recordRemove(note.getNoteId(), e.getOffset(), e.getLength());
+				}
 				onTextChanged();
 			}
 
@@ -159,7 +205,8 @@ public class RichTextEditor extends JPanel
 				// This fires for attribute changes (formatting, icons, etc.)
 				onTextChanged();
 			}
-		});
+		};
+		textPane.getDocument().addDocumentListener(documentListener);
 	}
 
 	/**
@@ -167,20 +214,30 @@ public class RichTextEditor extends JPanel
 	 */
 	private void setupUndoRedo()
 	{
-		// Create undo manager
-		undoManager = new UndoManager();
-
-		// Limit undo history to prevent memory issues
-		undoManager.setLimit(100);
+		Document document = textPane.getDocument();
 
-		// Add undoable edit listener to document
-		textPane.getDocument().addUndoableEditListener(e -> {
-			// Only add to undo history if we're not currently loading content
-			if (!documentChanging)
-			{
-				undoManager.addEdit(e.getEdit());
-			}
-		});
+		// Editors sharing a document share its history, or undoing in one would break the other
+		undoManager = (UndoManager) document.getProperty(UNDO_MANAGER_PROPERTY);
+		if (undoManager == null)
+		{
+			// Create undo manager
+			UndoManager sharedUndoManager = new UndoManager();
+
+			// Limit undo history to prevent memory issues
+			sharedUndoManager.setLimit(100);
+
+			// Add undoable edit listener to document
+			document.addUndoableEditListener(e -> {
+				// Only add to undo history if we're not currently loading content
+				if (!hasFlag(document, LOADING_PROPERTY))
+				{
+					sharedUndoManager.addEdit(e.getEdit());
+				}
+			});
+
+			document.putProperty(UNDO_MANAGER_PROPERTY, sharedUndoManager);
+			undoManager = sharedUndoManager;
+		}
 
 		// Configure the undo/redo actions with our undo manager
 		NotesEnhancedEditorKit.UndoAction undoAction =
@@ -236,7 +293,7 @@ public class RichTextEditor extends JPanel
 			return;
 		}
 
-		documentChanging = true;
+		setFlag(LOADING_PROPERTY, true);
 
 		try
 		{
@@ -256,8 +313,17 @@ public class RichTextEditor extends JPanel
 			}
 			else if (isRtfContent(content))
 			{
-				// Load RTF content - icons will be automatically restored
-				loadRtfContent(content);
+				// Load RTF content - icons will be automatically restored. A whole note, so a
+				// large one can show its start while the rest is added
+				editorKit.setProgressiveLoading(true);
+				try
+				{
+					loadRtfContent(content);
+				}
+				finally
+				{
+					editorKit.setProgressiveLoading(false);
+				}
 			}
 			else
 			{
@@ -274,16 +340,57 @@ public class RichTextEditor extends JPanel
 		}
 		finally
 		{
-			documentChanging = false;
+			setFlag(LOADING_PROPERTY, false);
 
 			// Reset the modified flag since we just loaded content
 			if (note != null)
 			{
-				note.markSaved();
+				note.markSaved(getRevision());
 			}
 		}
 	}
 
+	/**
+	 * Add the next piece of a progressively loaded note, then let queued input run before
+	 * the one after. Pieces go in as loading, so they aren't undoable, journaled or counted
+	 * as changes to save.
+	 */
+	private void appendPendingContent()
+	{
+		NotesEnhancedDocument document = (NotesEnhancedDocument) textPane.getDocument();
+		Caret caret = textPane.getCaret();
+		int dot = caret.getDot();
+		int mark = caret.getMark();
+		boolean more;
+
+		setFlag(LOADING_PROPERTY, true);
+		try
+		{
+			more = document.appendPendingContent();
+		}
+		catch (IllegalStateException e)
+		{
+			log.error("Failed to load the rest of note: {}", note != null ? note.getNoteId() : "unknown", e);
+			return;
+		}
+		finally
+		{
+			setFlag(LOADING_PROPERTY, false);
+		}
+
+		// A caret at the end of what was loaded stays there instead of riding along
+		if (caret.getDot() != dot || caret.getMark() != mark)
+		{
+			caret.setDot(mark);
+			caret.moveDot(dot);
+		}
+
+		if (more)
+		{
+			SwingUtilities.invokeLater(this::appendPendingContent);
+		}
+	}
+
 	private boolean isRtfContent(String content)
 	{
 		return content.trim().startsWith("{\\rtf");
@@ -356,11 +463,16 @@ public class RichTextEditor extends JPanel
 
 	private void onTextChanged()
 	{
-		if (documentChanging || note == null)
+		if (hasFlag(textPane.getDocument(), LOADING_PROPERTY) || note == null)
 		{
 			return;
 		}
 
+		if (note.isSavedRevision(getRevision()))
+		{
+			return; // Nothing that needs saving changed, e.g. a style was refreshed
+		}
+
 		// Update the note content
 		try
 		{
@@ -378,32 +490,202 @@ public class RichTextEditor extends JPanel
 		}
 	}
 
+	private boolean isJournaling()
+	{
+		Document document = textPane.getDocument();
+		if (editJournal == null || note == null || hasFlag(document, LOADING_PROPERTY) || hasFlag(document, REPLAYING_PROPERTY))
+		{
+			return false;
+		}
+
+		// Every editor on a shared document hears each edit; the first one to claim it records them
+		Object owner = document.getProperty(JOURNAL_OWNER_PROPERTY);
+		if (owner == null)
+		{
+			document.putProperty(JOURNAL_OWNER_PROPERTY, this);
+			return true;
+		}
+		return owner == this;
+	}
+
+	private void setFlag(String property, boolean value)
+	{
+		textPane.getDocument().putProperty(property, value ? Boolean.TRUE : null);
+	}
+
+	private static boolean hasFlag(Document document, String property)
+	{
+		return Boolean.TRUE.equals(document.getProperty(property));
+	}
+
 	/**
-	 * Get the current content as RTF string
-	 * Icons are automatically converted to placeholders during this process
+	 * Record inserted text in the edit journal, with item icons as their own entries
 	 */
-	public String getContentAsRtf()
+	private void journalInsert(int offset, int length)
 	{
+		if (!isJournaling())
+		{
+			return;
+		}
+
+		Document document = textPane.getDocument();
+		String noteId = note.getNoteId();
+		int end = offset + length;
+
 		try
 		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			textPane.getEditorKit().write(baos, textPane.getDocument(), 0, textPane.getDocument().getLength());
-			return baos.toString(String.valueOf(StandardCharsets.UTF_8));
+			int pos = offset;
+			while (pos < end)
+			{
+				Element element = ((StyledDocument) document).getCharacterElement(pos);
+				int runEnd = Math.min(element.getEndOffset(), end);
+				Object iconData = element.getAttributes().getAttribute("item-icon-data");
+
+				if (iconData instanceof NotesEnhancedDocument.IconData)
+				{
+					NotesEnhancedDocument.IconData data = (NotesEnhancedDocument.IconData) iconData;
+					for (int i = pos; i < runEnd; i++)
+					{
+						editJournal.recordIcon(noteId, i, data.itemName, data.itemId, data.itemQuantity);
+					}
+				}
+				else
+				{
+					editJournal.recordInsert(noteId, pos, document.getText(pos, runEnd - pos));
+				}
+				pos = runEnd;
+			}
 		}
-		catch (Exception e)
+		catch (BadLocationException e)
 		{
-			log.warn("Failed to export RTF content, using plain text", e);
-			return textPane.getText();
+			log.warn("Failed to journal edit for note: {}", noteId, e);
 		}
 	}
 
+	/**
+	 * Re-apply edits recovered from the journal on top of the saved content.
+	 * Leaves the note modified so the recovered text gets saved.
+	 */
+	public void replayJournaledEdits(List<EditJournal.Edit> edits)
+	{
+		Document document = textPane.getDocument();
+		setFlag(REPLAYING_PROPERTY, true);
+
+		try
+		{
+			for (EditJournal.Edit edit : edits)
+			{
+				switch (edit.getType())
+				{
+					case INSERT:
+						document.insertString(edit.getOffset(), edit.getText(), inheritedAttributes(edit.getOffset()));
+						break;
+					case REMOVE:
+						document.remove(edit.getOffset(), edit.getLength());
+						break;
+					case ICON:
+						document.insertString(edit.getOffset(), " ", iconAttributes(edit));
+						break;
+				}
+			}
+			log.debug("Replayed {} journaled edits for note: {}", edits.size(), note.getNoteId());
+		}
+		catch (BadLocationException e)
+		{
+			// The saved file doesn't match what the edits were made against
+			log.warn("Journaled edits don't apply to note {}, stopped replaying", note.getNoteId(), e);
+		}
+		finally
+		{
+			setFlag(REPLAYING_PROPERTY, false);
+		}
+	}
+
+	private AttributeSet inheritedAttributes(int offset)
+	{
+		if (offset == 0)
+		{
+			return null;
+		}
+
+		AttributeSet attrs = textPane.getStyledDocument().getCharacterElement(offset - 1).getAttributes();
+		return StyleConstants.getIcon(attrs) != null ? null : attrs.copyAttributes();
+	}
+
+	private AttributeSet iconAttributes(EditJournal.Edit edit)
+	{
+		Icon icon = itemIconService != null ? itemIconService.getCenteredIconById(edit.getItemId(), edit.getItemQuantity()) : null;
+		if (icon == null)
+		{
+			return null;
+		}
+
+		SimpleAttributeSet attrs = new SimpleAttributeSet();
+		StyleConstants.setIcon(attrs, icon);
+		attrs.addAttribute("item-icon-data",
+			new NotesEnhancedDocument.IconData(edit.getText(), edit.getItemId(), edit.getItemQuantity()));
+		return attrs;
+	}
+
+	/**
+	 * A writer that streams this editor's document as RTF, e.g. straight into the note file
+	 * on the storage writer thread. The document is snapshotted under its read lock, so the
+	 * output matches a single point in the edit journal, and that point is reported. The
+	 * RTF itself is generated from the snapshot without holding up edits.
+	 */
+	public NoteContentWriter getContentWriter()
+	{
+		NotesEnhancedDocument document = (NotesEnhancedDocument) textPane.getDocument();
+		NotesEnhancedEditorKit kit = editorKit;
+		EditJournal journal = editJournal;
+
+		// A note still loading progressively is saved whole
+		document.finishLoading();
+
+		return out -> {
+			long[] sequence = {NoteSaveRequest.NO_JOURNAL_SEQUENCE};
+			NotesEnhancedDocument.Snapshot[] snapshot = new NotesEnhancedDocument.Snapshot[1];
+
+			// Only the snapshot holds up edits; the RTF is generated from it afterwards
+			document.render(() -> {
+				if (journal != null)
+				{
+					sequence[0] = journal.currentSequence();
+				}
+				snapshot[0] = document.snapshot();
+			});
+
+			kit.write(out, snapshot[0]);
+			return sequence[0];
+		};
+	}
+
+	/**
+	 * Like {@link #getContentWriter()}, but the content is captured now rather than when
+	 * the write happens, for saving it elsewhere just before the document is replaced
+	 */
+	public NoteContentWriter getContentWriterForCopy()
+	{
+		NotesEnhancedDocument document = (NotesEnhancedDocument) textPane.getDocument();
+		NotesEnhancedEditorKit kit = editorKit;
+
+		document.finishLoading();
+		NotesEnhancedDocument.Snapshot[] snapshot = new NotesEnhancedDocument.Snapshot[1];
+		document.render(() -> snapshot[0] = document.snapshot());
+
+		return out -> {
+			kit.write(out, snapshot[0]);
+			return NoteSaveRequest.NO_JOURNAL_SEQUENCE; // Journaled edits belong to the original note
+		};
+	}
+
 	/**
 	 * Set content from RTF string
 	 * Icons are automatically restored from placeholders during this process
 	 */
 	public void setContent(String rtfContent)
 	{
-		documentChanging = true;
+		setFlag(LOADING_PROPERTY, true);
 
 		try
 		{
@@ -413,6 +695,7 @@ public class RichTextEditor extends JPanel
 				undoManager.discardAllEdits();
 				log.debug("Cleared undo history for content change");
 			}
+			((NotesEnhancedDocument) textPane.getDocument()).discardPendingContent();
 
 			if (rtfContent == null || rtfContent.trim().isEmpty())
 			{
@@ -420,6 +703,8 @@ public class RichTextEditor extends JPanel
 			}
 			else if (isRtfContent(rtfContent))
 			{
+				// Reading RTF inserts into the document, so empty it first
+				textPane.setText("");
 				loadRtfContent(rtfContent);
 			}
 			else
@@ -429,7 +714,82 @@ public class RichTextEditor extends JPanel
 		}
 		finally
 		{
-			documentChanging = false;
+			setFlag(LOADING_PROPERTY, false);
+		}
+	}
+
+	/**
+	 * Revision of the document's content, see {@link NotesEnhancedDocument#getRevision()}
+	 */
+	public long getRevision()
+	{
+		return ((NotesEnhancedDocument) textPane.getDocument()).getRevision();
+	}
+
+	/**
+	 * Replace the content with a note streamed from disk, clearing undo history like
+	 * {@link #setContent(String)}. A failed read leaves the editor empty and is thrown.
+	 */
+	public void setContent(InputStream in) throws IOException
+	{
+		setFlag(LOADING_PROPERTY, true);
+
+		try
+		{
+			if (undoManager != null)
+			{
+				undoManager.discardAllEdits();
+			}
+
+			((NotesEnhancedDocument) textPane.getDocument()).discardPendingContent();
+			textPane.setText("");
+			editorKit.readContent(in, textPane.getDocument());
+		}
+		finally
+		{
+			setFlag(LOADING_PROPERTY, false);
+		}
+	}
+
+	/**
+	 * Detach from the document, which other editors may still be showing
+	 */
+	public void dispose()
+	{
+		Document document = textPane.getDocument();
+		document.removeDocumentListener(documentListener);
+		if (document.getProperty(JOURNAL_OWNER_PROPERTY) == this)
+		{
+			document.putProperty(JOURNAL_OWNER_PROPERTY, null);
+		}
+
+		((NotesEnhancedDocument) document).render(this::detachIcons);
+
+		toolbar.cleanup();
+		if (autoComplete != null)
+		{
+			autoComplete.cleanup();
+		}
+	}
+
+	/**
+	 * Item icons are shared between notes and can outlive this editor, so stop them
+	 * repainting its text pane
+	 */
+	private void detachIcons()
+	{
+		Element root = textPane.getDocument().getDefaultRootElement();
+		for (int i = 0; i < root.getElementCount(); i++)
+		{
+			Element paragraph = root.getElement(i);
+			for (int j = 0; j < paragraph.getElementCount(); j++)
+			{
+				Icon icon = StyleConstants.getIcon(paragraph.getElement(j).getAttributes());
+				if (icon instanceof ItemIconService.ItemIcon)
+				{
+					((ItemIconService.ItemIcon) icon).detachFromComponent(textPane);
+				}
+			}
 		}
 	}
 
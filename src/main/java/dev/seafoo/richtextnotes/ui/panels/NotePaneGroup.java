@@ -2,9 +2,14 @@ package dev.seafoo.richtextnotes.ui.panels;
 
 import dev.seafoo.richtextnotes.RichTextNotesConfig;
 import dev.seafoo.richtextnotes.models.Note;
+import dev.seafoo.richtextnotes.models.NoteContentWriter;
+import dev.seafoo.richtextnotes.models.NoteFileChange;
 import dev.seafoo.richtextnotes.models.NoteMetadata;
+import dev.seafoo.richtextnotes.models.NoteSaveRequest;
+import dev.seafoo.richtextnotes.services.EditJournal;
 import dev.seafoo.richtextnotes.services.FileStorageService;
 import dev.seafoo.richtextnotes.services.ItemIconService;
+import dev.seafoo.richtextnotes.services.NoteCache;
 import dev.seafoo.richtextnotes.ui.components.RichTextEditor;
 import dev.seafoo.richtextnotes.ui.popups.NoteSelectionDialog;
 import dev.seafoo.richtextnotes.ui.popups.TagEditDialog;
@@ -17,10 +22,15 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -31,8 +41,10 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JTabbedPane;
+import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import javax.swing.text.StyledDocument;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
@@ -56,9 +68,14 @@ public class NotePaneGroup extends JPanel
 	// UI Components
 	private JTabbedPane tabbedPane;
 
-	// Note management for this pane group
+	// Note management for this pane group. Notes and their documents come from the
+	// storage service's NoteCache and are shared with any other pane showing them.
 	private final Map<String, Note> loadedNotes = new ConcurrentHashMap<>();
 	private final Map<String, NoteEditor> noteEditors = new ConcurrentHashMap<>();
+
+	// Tabs that haven't been shown yet hold only metadata; the editor is built on first selection
+	private final Map<String, NoteMetadata> stubTabs = new ConcurrentHashMap<>();
+	private final Set<String> materializing = new HashSet<>();
 	private String currentNoteId;
 	private final String paneGroupId;
 
@@ -116,6 +133,9 @@ public class NotePaneGroup extends JPanel
 					currentNoteId = noteId;
 					updateTabHeader();
 					parentPanel.onActiveNoteChanged(this, noteId);
+
+					// Deferred so a selection that is immediately replaced (e.g. during restore) costs nothing
+					SwingUtilities.invokeLater(this::materializeSelectedTab);
 				}
 			}
 		});
@@ -237,6 +257,10 @@ public class NotePaneGroup extends JPanel
 				{
 					title += " *";
 				}
+				if (note.isChangedOnDisk())
+				{
+					title += " (changed on disk)";
+				}
 
 				// Show tab position if multiple tabs
 				if (tabCount > 1)
@@ -248,6 +272,19 @@ public class NotePaneGroup extends JPanel
 				// Set the note title as tooltip
 				currentNoteLabel.setToolTipText(note.getDisplayTitle());
 			}
+			else
+			{
+				// Not built yet; the stub's metadata is enough for the header
+				NoteMetadata stub = stubTabs.get(currentNoteId);
+				String title = stub != null && stub.getTitle() != null && !stub.getTitle().trim().isEmpty() ?
+					stub.getTitle() : "Untitled Note";
+				if (tabCount > 1)
+				{
+					title += String.format(" (%d/%d)", selectedIndex + 1, tabCount);
+				}
+				currentNoteLabel.setText(title);
+				currentNoteLabel.setToolTipText(null);
+			}
 		}
 		else
 		{
@@ -287,6 +324,16 @@ public class NotePaneGroup extends JPanel
 
 		menu.addSeparator();
 
+		Note current = loadedNotes.get(currentNoteId);
+		if (current != null && current.isChangedOnDisk())
+		{
+			String noteId = currentNoteId;
+			JMenuItem resolve = new JMenuItem("Resolve Disk Changes...");
+			resolve.addActionListener(ev -> resolveDiskConflict(noteId));
+			menu.add(resolve);
+			menu.addSeparator();
+		}
+
 		JMenuItem rename = new JMenuItem("Rename Note");
 		rename.addActionListener(ev -> renameNote(currentNoteId));
 		menu.add(rename);
@@ -373,6 +420,11 @@ public class NotePaneGroup extends JPanel
 		openDirectory.addActionListener(e -> openNotesDirectory());
 		menu.add(openDirectory);
 
+		JMenuItem recompress = new JMenuItem("Recompress All Notes");
+		recompress.setToolTipText("Rewrite every note using the 'Compress Notes' setting");
+		recompress.addActionListener(e -> recompressAllNotes());
+		menu.add(recompress);
+
 		menu.show(menuButton, 0, menuButton.getHeight());
 	}
 
@@ -433,6 +485,22 @@ public class NotePaneGroup extends JPanel
 		}
 	}
 
+	private void recompressAllNotes()
+	{
+		storageService.recompressNotes().whenComplete((rewritten, error) -> SwingUtilities.invokeLater(() -> {
+			if (error != null)
+			{
+				log.error("Failed to recompress notes", error);
+				JOptionPane.showMessageDialog(this, "Failed to recompress notes:\n" + error.getMessage(),
+					"Recompress Notes", JOptionPane.WARNING_MESSAGE);
+				return;
+			}
+
+			JOptionPane.showMessageDialog(this, "Rewrote " + rewritten + " note(s).",
+				"Recompress Notes", JOptionPane.INFORMATION_MESSAGE);
+		}));
+	}
+
 	private void editNoteTags(String noteId)
 	{
 		Note note = loadedNotes.get(noteId);
@@ -465,46 +533,28 @@ public class NotePaneGroup extends JPanel
 
 			metadata.updateModified();
 
-			try
-			{
-				storageService.saveNoteMetadata(noteId, metadata);
-				updateTabHeader(); // Update display to show tag count
-				log.debug("Updated tags for note {}: {}", noteId, newTags);
-			}
-			catch (Exception e)
-			{
-				log.error("Failed to save note tags", e);
-			}
+			storageService.queueSave(new NoteSaveRequest(noteId, null, metadata.copy()),
+				null, e -> log.error("Failed to save note tags", e));
+			updateTabHeader(); // Update display to show tag count
+			log.debug("Updated tags for note {}: {}", noteId, newTags);
 		}
 	}
 
 	public void createNewNote()
 	{
-		try
-		{
-			// Create new note with default content
-			String defaultContent = "";
-			String noteId = storageService.saveNote(null, defaultContent);
-
-			// Create metadata
-			NoteMetadata metadata = new NoteMetadata(
-				noteId,
-				"Untitled Note",
-				LocalDateTime.now(),
-				new ArrayList<>()
-			);
-			storageService.saveNoteMetadata(noteId, metadata);
+		String noteId = storageService.generateNoteId();
+		NoteMetadata metadata = new NoteMetadata(
+			noteId,
+			"Untitled Note",
+			LocalDateTime.now(),
+			new ArrayList<>()
+		);
 
-			// Open in new tab
+		// Written with its metadata on the writer thread, then opened once it exists
+		storageService.queueSave(new NoteSaveRequest(noteId, "", metadata), () -> {
 			openNoteInTab(noteId, true);
-
 			log.debug("Created new note: {} in pane group: {}", noteId, paneGroupId);
-
-		}
-		catch (Exception e)
-		{
-			log.error("Failed to create new note", e);
-		}
+		}, e -> log.error("Failed to create new note", e));
 	}
 
 	public void openNoteInTab(String noteId, boolean focus)
@@ -526,19 +576,16 @@ public class NotePaneGroup extends JPanel
 				}
 			}
 
-			// Load note if not already loaded
-			Note note = loadedNotes.get(noteId);
-			if (note == null)
+			// Reuse the note if another pane has it open or it was closed recently
+			NoteCache.Entry entry = storageService.getNoteCache().acquire(noteId);
+			if (entry == null)
 			{
-				String content = storageService.loadNote(noteId);
-				NoteMetadata metadata = storageService.loadNoteMetadata(noteId);
-				note = new Note(noteId, content, metadata);
-				loadedNotes.put(noteId, note);
+				NotesPanel.LoadedNote loaded = parentPanel.loadNote(noteId);
+				entry = storageService.getNoteCache().register(loaded.getNote(), loaded.getDocument());
 			}
 
 			// Create editor for this note
-			NoteEditor editor = new NoteEditor(note, parentPanel::scheduleAutoSave, itemIconService, config);
-			noteEditors.put(noteId, editor);
+			NoteEditor editor = createEditor(entry);
 
 			// Add tab to tabbedPane (hidden, just for content management)
 			int tabIndex = tabbedPane.getTabCount();
@@ -567,6 +614,184 @@ public class NotePaneGroup extends JPanel
 		}
 	}
 
+	/**
+	 * Add a lightweight tab that holds only the note's metadata. Its editor is built
+	 * and its content parsed the first time the tab is selected.
+	 */
+	public void addStubTab(NoteMetadata metadata)
+	{
+		String noteId = metadata.getNoteId();
+		if (findTabIndex(noteId) >= 0)
+		{
+			return;
+		}
+
+		stubTabs.put(noteId, metadata);
+
+		// Set first: adding the first tab selects it, and the change listener looks the note up
+		int tabIndex = tabbedPane.getTabCount();
+		tabbedPane.putClientProperty("noteId_" + tabIndex, noteId);
+		tabbedPane.addTab("", createLoadingPlaceholder());
+
+		if (currentNoteId == null)
+		{
+			currentNoteId = noteId;
+		}
+
+		updateTabHeader();
+	}
+
+	/**
+	 * Build the editor for the selected tab if it is still a stub. The note is read and
+	 * parsed on the loader pool and swapped in on the EDT.
+	 */
+	public void materializeSelectedTab()
+	{
+		int selectedIndex = tabbedPane.getSelectedIndex();
+		if (selectedIndex < 0)
+		{
+			return;
+		}
+
+		String noteId = (String) tabbedPane.getClientProperty("noteId_" + selectedIndex);
+		if (noteId == null || !stubTabs.containsKey(noteId) || !materializing.add(noteId))
+		{
+			return;
+		}
+
+		// Already parsed for another pane, or closed recently
+		NoteCache.Entry cached = storageService.getNoteCache().acquire(noteId);
+		if (cached != null)
+		{
+			materializing.remove(noteId);
+			attachEntry(cached);
+			return;
+		}
+
+		parentPanel.loadNoteAsync(noteId).handleAsync((loaded, error) -> {
+			materializing.remove(noteId);
+			if (error != null)
+			{
+				log.error("Failed to load note {} into pane {}", noteId, paneGroupId, error);
+				closeTabFor(noteId);
+			}
+			else
+			{
+				attachEditor(loaded.getNote(), loaded.getDocument());
+			}
+			return null;
+		}, SwingUtilities::invokeLater);
+	}
+
+	/**
+	 * Build a stub tab's editor right away, for callers that need it on the spot
+	 */
+	private void materializeNow(String noteId) throws IOException
+	{
+		if (!stubTabs.containsKey(noteId) || noteEditors.containsKey(noteId))
+		{
+			return;
+		}
+
+		NoteCache.Entry entry = storageService.getNoteCache().acquire(noteId);
+		if (entry == null)
+		{
+			NotesPanel.LoadedNote loaded = parentPanel.loadNote(noteId);
+			entry = storageService.getNoteCache().register(loaded.getNote(), loaded.getDocument());
+		}
+		attachEntry(entry);
+	}
+
+	/**
+	 * Hand a freshly parsed note to the cache, unless another pane got there first, and
+	 * show it in its stub tab
+	 */
+	private void attachEditor(Note note, StyledDocument document)
+	{
+		String noteId = note.getNoteId();
+		if (findTabIndex(noteId) < 0 || noteEditors.containsKey(noteId))
+		{
+			return; // Closed, or built another way, while it was loading
+		}
+
+		attachEntry(storageService.getNoteCache().register(note, document));
+	}
+
+	/**
+	 * Replace a stub tab's placeholder with an editor on the cached note
+	 */
+	private void attachEntry(NoteCache.Entry entry)
+	{
+		String noteId = entry.getNote().getNoteId();
+		int tabIndex = findTabIndex(noteId);
+		if (tabIndex < 0 || noteEditors.containsKey(noteId))
+		{
+			storageService.getNoteCache().release(noteId);
+			return;
+		}
+
+		stubTabs.remove(noteId);
+		NoteEditor editor = createEditor(entry);
+
+		tabbedPane.setComponentAt(tabIndex, editor.getEditorComponent());
+		updateTabHeader();
+	}
+
+	/**
+	 * Build this pane's view of a cached note; the caller holds a cache reference for it
+	 */
+	private NoteEditor createEditor(NoteCache.Entry entry)
+	{
+		Note note = entry.getNote();
+		NoteEditor editor = new NoteEditor(note, parentPanel::scheduleAutoSave, itemIconService, config, entry.getDocument());
+		editor.setEditJournal(storageService.getEditJournal());
+
+		// The document is the content from here on; saves stream from it
+		note.releaseContent();
+
+		loadedNotes.put(note.getNoteId(), note);
+		noteEditors.put(note.getNoteId(), editor);
+		return editor;
+	}
+
+	/**
+	 * Let go of every note in this pane, when the pane itself goes away
+	 */
+	public void releaseNotes()
+	{
+		for (String noteId : new ArrayList<>(noteEditors.keySet()))
+		{
+			noteEditors.remove(noteId).dispose();
+			storageService.getNoteCache().release(noteId);
+		}
+		loadedNotes.clear();
+		stubTabs.clear();
+	}
+
+	private int findTabIndex(String noteId)
+	{
+		for (int i = 0; i < tabbedPane.getTabCount(); i++)
+		{
+			if (noteId.equals(tabbedPane.getClientProperty("noteId_" + i)))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private JComponent createLoadingPlaceholder()
+	{
+		JPanel placeholder = new JPanel(new BorderLayout());
+		placeholder.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+
+		JLabel label = new JLabel("Loading...", SwingConstants.CENTER);
+		label.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		placeholder.add(label, BorderLayout.CENTER);
+
+		return placeholder;
+	}
+
 	private void closeTab(int tabIndex)
 	{
 		String noteId = (String) tabbedPane.getClientProperty("noteId_" + tabIndex);
@@ -601,9 +826,15 @@ public class NotePaneGroup extends JPanel
 		// Remove the last property that's now unused
 		tabbedPane.putClientProperty("noteId_" + tabbedPane.getTabCount(), null);
 
-		// Clean up editor and memory
-		noteEditors.remove(noteId);
+		// Clean up this pane's view; the note stays cached while other panes use it
+		NoteEditor editor = noteEditors.remove(noteId);
+		if (editor != null)
+		{
+			editor.dispose();
+			storageService.getNoteCache().release(noteId);
+		}
 		loadedNotes.remove(noteId);
+		stubTabs.remove(noteId);
 
 		// Update current note
 		if (noteId.equals(currentNoteId))
@@ -632,20 +863,13 @@ public class NotePaneGroup extends JPanel
 
 		if (newTitle != null && !newTitle.trim().isEmpty() && !newTitle.equals(currentTitle))
 		{
-			try
-			{
-				note.getMetadata().setTitle(newTitle.trim());
-				note.getMetadata().updateModified();
-				storageService.saveNoteMetadata(noteId, note.getMetadata());
-
-				// Update tab display
-				updateTabHeader();
+			note.getMetadata().setTitle(newTitle.trim());
+			note.getMetadata().updateModified();
+			storageService.queueSave(new NoteSaveRequest(noteId, null, note.getMetadata().copy()),
+				null, e -> log.error("Failed to rename note", e));
 
-			}
-			catch (Exception e)
-			{
-				log.error("Failed to rename note", e);
-			}
+			// Update tab display
+			updateTabHeader();
 		}
 	}
 
@@ -661,28 +885,20 @@ public class NotePaneGroup extends JPanel
 
 		if (result == JOptionPane.YES_OPTION)
 		{
-			try
-			{
-				// Remove from storage
-				storageService.deleteNote(noteId);
+			// Remove from storage in the background; the tab can go right away
+			storageService.queueDelete(noteId,
+				() -> log.debug("Deleted note: {} from pane group: {}", noteId, paneGroupId),
+				e -> log.error("Failed to delete note", e));
 
-				// Find and remove tab
-				for (int i = 0; i < tabbedPane.getTabCount(); i++)
+			// Find and remove tab
+			for (int i = 0; i < tabbedPane.getTabCount(); i++)
+			{
+				String tabNoteId = (String) tabbedPane.getClientProperty("noteId_" + i);
+				if (noteId.equals(tabNoteId))
 				{
-					String tabNoteId = (String) tabbedPane.getClientProperty("noteId_" + i);
-					if (noteId.equals(tabNoteId))
-					{
-						closeTabInternal(i);
-						break;
-					}
+					closeTabInternal(i);
+					break;
 				}
-
-				log.debug("Deleted note: {} from pane group: {}", noteId, paneGroupId);
-
-			}
-			catch (Exception e)
-			{
-				log.error("Failed to delete note", e);
 			}
 		}
 	}
@@ -694,26 +910,44 @@ public class NotePaneGroup extends JPanel
 		try
 		{
 			Note note = loadedNotes.get(noteId);
-			if (note == null || !note.isModified())
+			if (note == null || !note.isModified() || note.isChangedOnDisk())
 			{
-				return;
+				return; // Nothing to save, or waiting for the user to resolve a disk change
 			}
 
-			// Get current content from editor
 			NoteEditor editor = noteEditors.get(noteId);
-			if (editor != null)
+			if (editor == null)
+			{
+				return; // Only notes with an editor can have edits
+			}
+
+			long revision = editor.getRevision();
+			if (note.isSavedRevision(revision))
+			{
+				// Marked dirty without its content changing; skip serializing it again
+				note.markSaved(revision);
+				updateTabHeader();
+				return;
+			}
+
+			if (note.getMetadata() != null)
 			{
-				String currentContent = editor.getContent();
-				note.setRtfContent(currentContent);
+				note.getMetadata().updateModified();
 			}
 
-			// Save to storage
-			storageService.saveNote(noteId, note.getRtfContent());
-			storageService.saveNoteMetadata(noteId, note.getMetadata());
+			// The background writer streams the document straight into the note file
+			NoteSaveRequest request = NoteSaveRequest.streaming(noteId, editor.getContentWriter(),
+				note.getMetadata() != null ? note.getMetadata().copy() : null);
 
-			note.markSaved();
+			note.markSaved(revision);
 			updateTabHeader(); // Update to remove the * indicator
 
+			storageService.queueSave(request, null, e -> {
+				// Keep the note dirty so the next autosave retries the write
+				note.markSaveFailed();
+				updateTabHeader();
+			});
+
 		}
 		catch (Exception e)
 		{
@@ -738,6 +972,244 @@ public class NotePaneGroup extends JPanel
 		return loadedNotes.values().stream().anyMatch(Note::isModified);
 	}
 
+	/**
+	 * React to a note's files being changed outside the plugin. Notes without unsaved
+	 * edits simply follow the disk; otherwise the user decides what to keep.
+	 */
+	public void handleExternalChange(NoteFileChange change)
+	{
+		String noteId = change.getNoteId();
+		if (stubTabs.containsKey(noteId))
+		{
+			handleExternalStubChange(change);
+			return;
+		}
+
+		Note note = loadedNotes.get(noteId);
+		if (note == null)
+		{
+			return;
+		}
+
+		switch (change.getType())
+		{
+			case METADATA_CHANGED:
+				try
+				{
+					note.setMetadata(storageService.loadNoteMetadata(noteId));
+					updateTabHeader();
+				}
+				catch (Exception e)
+				{
+					log.warn("Failed to reload metadata for note: {}", noteId, e);
+				}
+				break;
+			case DELETED:
+				if (!note.isModified())
+				{
+					closeTabFor(noteId);
+				}
+				// With unsaved edits the tab stays open and the next save recreates the note
+				break;
+			case CONTENT_CHANGED:
+				if (!note.isModified())
+				{
+					reloadNoteFromDisk(noteId);
+				}
+				else if (!note.isChangedOnDisk())
+				{
+					note.setChangedOnDisk(true);
+					updateTabHeader();
+					resolveDiskConflict(noteId);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Stubs have nothing unsaved, so they just follow the disk. Content is read when the tab is shown.
+	 */
+	private void handleExternalStubChange(NoteFileChange change)
+	{
+		String noteId = change.getNoteId();
+		switch (change.getType())
+		{
+			case METADATA_CHANGED:
+				try
+				{
+					stubTabs.put(noteId, storageService.loadNoteMetadata(noteId));
+					updateTabHeader();
+				}
+				catch (Exception e)
+				{
+					log.warn("Failed to reload metadata for note: {}", noteId, e);
+				}
+				break;
+			case DELETED:
+				closeTabFor(noteId);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void resolveDiskConflict(String noteId)
+	{
+		Note note = loadedNotes.get(noteId);
+		if (note == null || !note.isChangedOnDisk())
+		{
+			return;
+		}
+
+		String[] options = {"Reload", "Keep Mine", "Save Mine as Copy"};
+		int choice = JOptionPane.showOptionDialog(
+			this,
+			"\"" + note.getDisplayTitle() + "\" was changed outside RuneLite while it had unsaved edits.\n" +
+				"Reload the version on disk, keep your version, or save your version as a separate note?",
+			"Note Changed on Disk",
+			JOptionPane.DEFAULT_OPTION,
+			JOptionPane.WARNING_MESSAGE,
+			null,
+			options,
+			options[0]
+		);
+
+		switch (choice)
+		{
+			case 0:
+				reloadNoteFromDisk(noteId);
+				break;
+			case 1:
+				note.setChangedOnDisk(false);
+				saveNote(noteId);
+				break;
+			case 2:
+				saveCopyAndReload(noteId);
+				break;
+			default:
+				// Leave it unresolved; the header menu offers this dialog again
+				break;
+		}
+	}
+
+	private void saveCopyAndReload(String noteId)
+	{
+		Note note = loadedNotes.get(noteId);
+		NoteEditor editor = noteEditors.get(noteId);
+		if (note == null || editor == null)
+		{
+			return;
+		}
+
+		String copyId = storageService.generateNoteId();
+		NoteMetadata copyMetadata = new NoteMetadata(
+			copyId,
+			note.getDisplayTitle() + " (my copy)",
+			LocalDateTime.now(),
+			note.getMetadata() != null && note.getMetadata().getTags() != null ?
+				new ArrayList<>(note.getMetadata().getTags()) : new ArrayList<>()
+		);
+
+		// The copy is captured before the reload and written by the background writer;
+		// its tab opens once it is on disk
+		storageService.queueSave(NoteSaveRequest.streaming(copyId, editor.getContentWriterForCopy(), copyMetadata),
+			() -> openNoteInTab(copyId, false),
+			e -> log.error("Failed to save a copy of note: {}", noteId, e));
+
+		reloadNoteFromDisk(noteId);
+	}
+
+	/**
+	 * Replace an open note's content with what is on disk, dropping unsaved edits
+	 */
+	private void reloadNoteFromDisk(String noteId)
+	{
+		Note note = loadedNotes.get(noteId);
+		NoteEditor editor = noteEditors.get(noteId);
+		if (note == null || editor == null)
+		{
+			return;
+		}
+
+		try
+		{
+			note.setMetadata(storageService.loadNoteMetadata(noteId));
+			loadContent(editor, noteId);
+
+			// The journaled edits were made against the old content
+			storageService.getEditJournal().discard(noteId);
+
+			note.setChangedOnDisk(false);
+			note.markSaved(editor.getRevision());
+			updateTabHeader();
+			log.debug("Reloaded note {} from disk", noteId);
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to reload note from disk: {}", noteId, e);
+		}
+	}
+
+	private void loadContent(NoteEditor editor, String noteId) throws IOException
+	{
+		try (InputStream in = storageService.openNote(noteId))
+		{
+			editor.setContent(in);
+		}
+		catch (FileNotFoundException e)
+		{
+			throw e;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// The String path can fall back to the JDK reader however late the note reader gives up
+			log.warn("Failed to stream note {}, reading it in full instead", noteId, e);
+			editor.setContent(storageService.loadNote(noteId));
+		}
+	}
+
+	private void closeTabFor(String noteId)
+	{
+		int tabIndex = findTabIndex(noteId);
+		if (tabIndex >= 0)
+		{
+			closeTabInternal(tabIndex);
+		}
+	}
+
+	public boolean hasEditorFor(String noteId)
+	{
+		return noteEditors.containsKey(noteId);
+	}
+
+	public boolean hasNoteOpen(String noteId)
+	{
+		return noteEditors.containsKey(noteId) || stubTabs.containsKey(noteId);
+	}
+
+	/**
+	 * Re-apply edits recovered from the journal to an open note
+	 */
+	public void replayJournaledEdits(String noteId, List<EditJournal.Edit> edits)
+	{
+		try
+		{
+			materializeNow(noteId);
+		}
+		catch (IOException e)
+		{
+			log.error("Failed to load note {} to replay its edits", noteId, e);
+			return;
+		}
+
+		NoteEditor editor = noteEditors.get(noteId);
+		if (editor != null)
+		{
+			editor.replayJournaledEdits(edits);
+			updateTabHeader();
+		}
+	}
+
 	public int getTabCount()
 	{
 		return tabbedPane.getTabCount();
@@ -756,7 +1228,15 @@ public class NotePaneGroup extends JPanel
 			String tabNoteId = (String) tabbedPane.getClientProperty("noteId_" + i);
 			if (noteId.equals(tabNoteId))
 			{
-				tabbedPane.setSelectedIndex(i);
+				if (tabbedPane.getSelectedIndex() == i)
+				{
+					// Already selected, so the change listener won't load it
+					materializeSelectedTab();
+				}
+				else
+				{
+					tabbedPane.setSelectedIndex(i);
+				}
 				currentNoteId = noteId;
 				updateTabHeader();
 				return;
@@ -774,13 +1254,14 @@ public class NotePaneGroup extends JPanel
 		private final Runnable saveCallback;
 		private final RichTextNotesConfig config;
 
-		public NoteEditor(Note note, Runnable saveCallback, ItemIconService itemIconService, RichTextNotesConfig config)
+		public NoteEditor(Note note, Runnable saveCallback, ItemIconService itemIconService, RichTextNotesConfig config,
+			StyledDocument document)
 		{
 			this.note = note;
 			this.saveCallback = saveCallback;
 			this.config = config;
 			this.richTextEditor = new RichTextEditor(
-				note, saveCallback, itemIconService, config);
+				note, saveCallback, itemIconService, config, document);
 		}
 
 		public JComponent getEditorComponent()
@@ -788,15 +1269,50 @@ public class NotePaneGroup extends JPanel
 			return richTextEditor;
 		}
 
-		public String getContent()
+		public NoteContentWriter getContentWriter()
+		{
+			return richTextEditor.getContentWriter();
+		}
+
+		public NoteContentWriter getContentWriterForCopy()
 		{
-			return richTextEditor.getContentAsRtf();
+			return richTextEditor.getContentWriterForCopy();
+		}
+
+		public long getRevision()
+		{
+			return richTextEditor.getRevision();
 		}
 
 		public void requestFocus()
 		{
 			richTextEditor.requestEditorFocus();
 		}
+
+		public void setContent(InputStream in) throws IOException
+		{
+			richTextEditor.setContent(in);
+		}
+
+		public void setContent(String rtfContent)
+		{
+			richTextEditor.setContent(rtfContent);
+		}
+
+		public void setEditJournal(EditJournal editJournal)
+		{
+			richTextEditor.setEditJournal(editJournal);
+		}
+
+		public void replayJournaledEdits(List<EditJournal.Edit> edits)
+		{
+			richTextEditor.replayJournaledEdits(edits);
+		}
+
+		public void dispose()
+		{
+			richTextEditor.dispose();
+		}
 	}
 
 }
\ No newline at end of file
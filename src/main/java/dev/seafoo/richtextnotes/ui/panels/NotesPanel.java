@@ -2,14 +2,27 @@ package dev.seafoo.richtextnotes.ui.panels;
 
 import dev.seafoo.richtextnotes.RichTextNotesConfig;
 import dev.seafoo.richtextnotes.models.EditorLayout;
+import dev.seafoo.richtextnotes.models.Note;
+import dev.seafoo.richtextnotes.models.NoteFileChange;
 import dev.seafoo.richtextnotes.models.NoteMetadata;
+import dev.seafoo.richtextnotes.services.EditJournal;
 import dev.seafoo.richtextnotes.services.FileStorageService;
 import dev.seafoo.richtextnotes.services.ItemIconService;
+import dev.seafoo.richtextnotes.ui.components.NotesEnhancedDocument;
+import dev.seafoo.richtextnotes.ui.components.NotesEnhancedEditorKit;
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.BorderFactory;
 import javax.swing.JOptionPane;
@@ -18,6 +31,7 @@ import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.PluginPanel;
@@ -30,6 +44,7 @@ public class NotesPanel extends PluginPanel
 {
 	private static final int AUTO_SAVE_DELAY_MS = 2000;
 	private static final int LAYOUT_SAVE_DELAY_MS = 2000;
+	private static final int NOTE_LOADER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
 
 	private FileStorageService storageService;
 	private RichTextNotesConfig config;
@@ -48,6 +63,10 @@ public class NotesPanel extends PluginPanel
 	private String activeNoteId;
 	private Timer layoutSaveTimer;
 
+	// Reads and parses notes off the EDT when a tab is first shown
+	private ExecutorService noteLoader;
+	private NotesEnhancedEditorKit loaderKit;
+
 	public void init(RichTextNotesConfig config, FileStorageService storageService, ItemIconService itemIconService)
 	{
 
@@ -55,9 +74,21 @@ public class NotesPanel extends PluginPanel
 		this.storageService = storageService;
 		this.itemIconService = itemIconService;
 
+		this.noteLoader = Executors.newFixedThreadPool(NOTE_LOADER_THREADS, r -> {
+			Thread thread = new Thread(r, "rich-text-notes-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.loaderKit = new NotesEnhancedEditorKit(itemIconService);
+		// Large notes open with their start, and the editor adds the rest
+		this.loaderKit.setProgressiveLoading(true);
+
 		setupUI();
 		setupAutoSave();
 		restoreEditorLayout();
+		recoverJournaledEdits();
+
+		storageService.addExternalChangeListener(this::onExternalNoteChange);
 
 	}
 
@@ -169,6 +200,7 @@ public class NotesPanel extends PluginPanel
 		String closedPaneId = paneGroup.getPaneGroupId();
 
 		// Remove the pane group
+		paneGroup.releaseNotes();
 		paneGroups.remove(paneGroup);
 
 		// Update active pane if necessary
@@ -271,6 +303,11 @@ public class NotesPanel extends PluginPanel
 	}
 
 
+	/**
+	 * Rebuild the saved panes with stub tabs that hold only metadata. Only the tabs that
+	 * get shown are read and parsed, on the loader pool: to begin with each pane's active
+	 * note, in parallel, with the active pane's queued first.
+	 */
 	private void restoreEditorLayout()
 	{
 		try
@@ -305,7 +342,7 @@ public class NotesPanel extends PluginPanel
 				NotePaneGroup paneGroup = new NotePaneGroup(this, storageService, config, paneGroupId, itemIconService);
 				paneGroups.add(paneGroup);
 
-				// Load notes into this pane group
+				// Add a stub tab per note; selecting one loads its content
 				for (String noteId : paneLayout.getNoteIds())
 				{
 					try
@@ -313,7 +350,7 @@ public class NotesPanel extends PluginPanel
 						// Check if note still exists
 						if (storageService.noteExists(noteId))
 						{
-							paneGroup.openNoteInTab(noteId, false);
+							paneGroup.addStubTab(storageService.loadNoteMetadata(noteId));
 						}
 						else
 						{
@@ -378,6 +415,14 @@ public class NotesPanel extends PluginPanel
 				activeNoteId = activePaneGroup.getCurrentNoteId();
 			}
 
+			// Start every pane's selected note loading in parallel, the active pane's first.
+			// A tab selected as it was added hasn't started loading yet.
+			activePaneGroup.materializeSelectedTab();
+			for (NotePaneGroup paneGroup : paneGroups)
+			{
+				paneGroup.materializeSelectedTab();
+			}
+
 		}
 		catch (Exception e)
 		{
@@ -400,6 +445,98 @@ public class NotesPanel extends PluginPanel
 		}
 	}
 
+	/**
+	 * Read and parse a note. The document isn't attached to anything yet, so this is safe
+	 * off the EDT; the caller hands it to an editor on the EDT. The file is streamed
+	 * straight into the reader, so the note's RTF is never held as a String.
+	 */
+	LoadedNote loadNote(String noteId) throws IOException
+	{
+		NoteMetadata metadata = storageService.loadNoteMetadata(noteId);
+		NotesEnhancedDocument document = parseNote(noteId);
+
+		// Whatever parsing did to the revision, this is the content on disk
+		Note note = new Note(noteId, null, metadata);
+		note.markSaved(document.getRevision());
+		return new LoadedNote(note, document);
+	}
+
+	private NotesEnhancedDocument parseNote(String noteId) throws IOException
+	{
+		try (InputStream in = storageService.openNote(noteId))
+		{
+			return loaderKit.parseDocument(in);
+		}
+		catch (FileNotFoundException e)
+		{
+			throw e;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// The lenient String path falls back to plain text for content the reader rejects
+			log.warn("Failed to stream note {}, reading it in full instead", noteId, e);
+			return loaderKit.parseDocument(storageService.loadNote(noteId));
+		}
+	}
+
+	/**
+	 * {@link #loadNote} on the loader pool
+	 */
+	CompletableFuture<LoadedNote> loadNoteAsync(String noteId)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try
+			{
+				return loadNote(noteId);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException("Failed to load note " + noteId, e);
+			}
+		}, noteLoader);
+	}
+
+	/**
+	 * Replay edits that never made it to disk before the client last closed or crashed.
+	 * Affected notes are opened if needed and left modified, so the next autosave keeps them.
+	 */
+	private void recoverJournaledEdits()
+	{
+		EditJournal journal = storageService.getEditJournal();
+		Map<String, List<EditJournal.Edit>> recovered = journal.takeRecoveredEdits();
+
+		for (Map.Entry<String, List<EditJournal.Edit>> entry : recovered.entrySet())
+		{
+			String noteId = entry.getKey();
+			try
+			{
+				if (!storageService.noteExists(noteId))
+				{
+					journal.discard(noteId);
+					continue;
+				}
+
+				NotePaneGroup paneGroup = paneGroups.stream()
+					.filter(pg -> pg.hasNoteOpen(noteId))
+					.findFirst()
+					.orElse(activePaneGroup != null ? activePaneGroup : paneGroups.get(0));
+
+				paneGroup.openNoteInTab(noteId, false);
+				paneGroup.replayJournaledEdits(noteId, entry.getValue());
+			}
+			catch (Exception e)
+			{
+				log.error("Failed to recover unsaved edits for note {}", noteId, e);
+			}
+		}
+
+		if (!recovered.isEmpty())
+		{
+			log.info("Recovered unsaved edits for {} notes", recovered.size());
+			scheduleAutoSave();
+		}
+	}
+
 	private void loadExistingNotesDefaultBehavior()
 	{
 		try
@@ -438,10 +575,11 @@ public class NotesPanel extends PluginPanel
 				{
 					if (metadata.isPinned() || loadedCount < 5)
 					{
-						firstPane.openNoteInTab(metadata.getNoteId(), false);
+						firstPane.addStubTab(metadata);
 						loadedCount++;
 					}
 				}
+				firstPane.materializeSelectedTab();
 
 				log.debug("Loaded {} notes into first pane (default behavior)", loadedCount);
 			}
@@ -462,6 +600,27 @@ public class NotesPanel extends PluginPanel
 		activeNoteId = noteId;
 	}
 
+	/**
+	 * A note's files were changed outside the plugin; let every pane showing it react.
+	 * Panes share the note's content, so a content change is resolved by just one of them.
+	 */
+	private void onExternalNoteChange(NoteFileChange change)
+	{
+		boolean contentHandled = false;
+		for (NotePaneGroup paneGroup : new ArrayList<>(paneGroups))
+		{
+			if (change.getType() == NoteFileChange.Type.CONTENT_CHANGED)
+			{
+				if (contentHandled || !paneGroup.hasEditorFor(change.getNoteId()))
+				{
+					continue;
+				}
+				contentHandled = true;
+			}
+			paneGroup.handleExternalChange(change);
+		}
+	}
+
 	public void scheduleAutoSave()
 	{
 		if (autoSaveTimer.isRunning())
@@ -483,6 +642,8 @@ public class NotesPanel extends PluginPanel
 
 	public void saveAllNotes()
 	{
+		// Batch every dirty note into one group commit instead of one sync per file
+		storageService.beginGroupCommit();
 		try
 		{
 			int savedCount = 0;
@@ -505,6 +666,10 @@ public class NotesPanel extends PluginPanel
 		{
 			log.error("Failed to auto-save notes", e);
 		}
+		finally
+		{
+			storageService.endGroupCommit();
+		}
 	}
 
 	public void scheduleLayoutSave()
@@ -597,6 +762,7 @@ public class NotesPanel extends PluginPanel
 				try
 				{
 					// Clear all pane groups
+					paneGroups.forEach(NotePaneGroup::releaseNotes);
 					paneGroups.clear();
 					mainContentPanel.removeAll();
 					activePaneGroup = null;
@@ -607,6 +773,7 @@ public class NotesPanel extends PluginPanel
 
 					// Load notes for new profile
 					restoreEditorLayout();
+					recoverJournaledEdits();
 
 					log.debug("Successfully switched to profile: {}", storageService.getDisplayProfileName());
 
@@ -638,6 +805,12 @@ public class NotesPanel extends PluginPanel
 				autoSaveTimer.stop();
 			}
 
+			if (noteLoader != null)
+			{
+				noteLoader.shutdownNow();
+			}
+
+			paneGroups.forEach(NotePaneGroup::releaseNotes);
 			paneGroups.clear();
 
 		}
@@ -646,4 +819,14 @@ public class NotesPanel extends PluginPanel
 			log.error("Error during NotesPanel cleanup", e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A note read and parsed on the loader pool, waiting to be attached on the EDT
+	 */
+	@Value
+	static class LoadedNote
+	{
+		Note note;
+		NotesEnhancedDocument document;
+	}
+}
@@ -62,6 +62,7 @@ public class InlineItemAutoComplete
 	private DefaultListModel<SuggestionItem> listModel;
 	private int triggerPosition = -1;
 	private boolean isShowingPopup = false;
+	private DocumentListener documentListener;
 
 	public InlineItemAutoComplete(JTextPane textPane, ItemIconService itemIconService)
 	{
@@ -131,19 +132,26 @@ public class InlineItemAutoComplete
 
 	private void attachListeners()
 	{
-		// Document listener for text changes
-		textPane.getDocument().addDocumentListener(new DocumentListener()
+		// Document listener for text changes. The document may be shared with editors
+		// in other panes, so only react to typing in this one.
+		documentListener = new DocumentListener()
 		{
 			@Override
 			public void insertUpdate(DocumentEvent e)
 			{
-				SwingUtilities.invokeLater(() -> checkForTrigger());
+				if (textPane.isFocusOwner())
+				{
+					SwingUtilities.invokeLater(() -> checkForTrigger());
+				}
 			}
 
 			@Override
 			public void removeUpdate(DocumentEvent e)
 			{
-				SwingUtilities.invokeLater(() -> checkForTrigger());
+				if (textPane.isFocusOwner())
+				{
+					SwingUtilities.invokeLater(() -> checkForTrigger());
+				}
 			}
 
 			@Override
@@ -151,7 +159,8 @@ public class InlineItemAutoComplete
 			{
 				// Attribute changes, ignore
 			}
-		});
+		};
+		textPane.getDocument().addDocumentListener(documentListener);
 
 		// Key listener for navigation
 		textPane.addKeyListener(new KeyAdapter()
@@ -410,12 +419,6 @@ public class InlineItemAutoComplete
 			Icon icon = itemIconService.getCenteredIconById(selected.result.getId(), defaultQuantity);
 			if (icon != null)
 			{
-				// Attach icon for repaint
-				if (icon instanceof ItemIconService.CenteredImageIcon)
-				{
-					((ItemIconService.CenteredImageIcon) icon).attachToComponent(textPane);
-				}
-
 				// Create attributes with icon and metadata
 				SimpleAttributeSet attrs = new SimpleAttributeSet();
 				StyleConstants.setIcon(attrs, icon);
@@ -448,6 +451,7 @@ public class InlineItemAutoComplete
 	public void cleanup()
 	{
 		hidePopup();
+		textPane.getDocument().removeDocumentListener(documentListener);
 	}
 
 	/**
@@ -0,0 +1,70 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * {@link BackupRetention#selectExpired} has to keep everything from the last hour, then
+ * only the newest point per hour, per day and per ISO week as backups get older
+ */
+public class BackupRetentionTest
+{
+	private static final LocalDateTime NOW = LocalDateTime.of(2025, 6, 10, 12, 0);
+
+	@Test
+	public void keepsEverythingRecent()
+	{
+		List<LocalDateTime> points = Arrays.asList(NOW.minusMinutes(1), NOW.minusMinutes(2), NOW.minusMinutes(59));
+		assertEquals(Collections.emptyList(), expired(points));
+	}
+
+	@Test
+	public void keepsNewestPerHourForADay()
+	{
+		LocalDateTime older = NOW.minusHours(5).withMinute(10);
+		LocalDateTime newer = NOW.minusHours(5).withMinute(40);
+		LocalDateTime otherHour = NOW.minusHours(6).withMinute(40);
+
+		assertEquals(Collections.singletonList(older), expired(Arrays.asList(older, newer, otherHour)));
+	}
+
+	@Test
+	public void keepsNewestPerDayForAMonth()
+	{
+		LocalDateTime morning = LocalDateTime.of(2025, 5, 31, 8, 0);
+		LocalDateTime evening = LocalDateTime.of(2025, 5, 31, 20, 0);
+		LocalDateTime nextDay = LocalDateTime.of(2025, 6, 1, 8, 0);
+
+		assertEquals(Collections.singletonList(morning), expired(Arrays.asList(morning, evening, nextDay)));
+	}
+
+	@Test
+	public void keepsNewestPerWeekAfterThat()
+	{
+		// Monday and Friday of the same ISO week, and the Sunday before it
+		LocalDateTime monday = LocalDateTime.of(2025, 3, 3, 12, 0);
+		LocalDateTime friday = LocalDateTime.of(2025, 3, 7, 12, 0);
+		LocalDateTime sunday = LocalDateTime.of(2025, 3, 2, 12, 0);
+
+		assertEquals(Collections.singletonList(monday), expired(Arrays.asList(monday, friday, sunday)));
+	}
+
+	@Test
+	public void seriesAreIndependentOfOrder()
+	{
+		LocalDateTime older = NOW.minusHours(5).withMinute(10);
+		LocalDateTime newer = NOW.minusHours(5).withMinute(40);
+
+		assertEquals(Collections.singletonList(older), expired(Arrays.asList(newer, older)));
+	}
+
+	private static List<LocalDateTime> expired(List<LocalDateTime> points)
+	{
+		return BackupRetention.DEFAULT.selectExpired(points, Function.identity(), NOW);
+	}
+}
@@ -0,0 +1,213 @@
+package dev.seafoo.richtextnotes.services;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link BackupStore} has to keep each distinct content once: identical notes share a
+ * blob, and backing up a note that hasn't changed writes no new manifest. Compaction
+ * thins each note's backups on its own and never sweeps a blob inside its grace period.
+ */
+public class BackupStoreTest
+{
+	private final Gson gson = new GsonBuilder()
+		.registerTypeAdapter(LocalDateTime.class, new FileStorageService.LocalDateTimeTypeAdapter())
+		.create();
+
+	private Path profileDir;
+	private Path notesDir;
+	private Path backupDir;
+	private BackupStore store;
+
+	@Before
+	public void createDirectories() throws IOException
+	{
+		profileDir = Files.createTempDirectory("backup-store-test");
+		notesDir = Files.createDirectories(profileDir.resolve("notes"));
+		backupDir = Files.createDirectories(profileDir.resolve("backups"));
+		store = new BackupStore(backupDir, gson);
+	}
+
+	@After
+	public void deleteDirectories() throws IOException
+	{
+		try (Stream<Path> files = Files.walk(profileDir))
+		{
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void identicalNotesShareBlobs() throws IOException
+	{
+		writeNote("a", "same content");
+		writeNote("b", "same content");
+
+		AtomicWriteBatch batch = new AtomicWriteBatch();
+		backup(batch, "a");
+		backup(batch, "b");
+		batch.commit();
+
+		assertEquals(2, files(BackupStore.MANIFESTS_SUBDIR, BackupStore.MANIFEST_EXTENSION).size());
+		assertEquals(1, files(BackupStore.BLOBS_SUBDIR, BackupStore.BLOB_EXTENSION).size());
+		assertEquals(0, files(BackupStore.BLOBS_SUBDIR, AtomicWriteBatch.TEMP_SUFFIX).size());
+	}
+
+	@Test
+	public void unchangedNoteWritesNothing() throws IOException
+	{
+		writeNote("a", "first");
+		commitBackup("a");
+		commitBackup("a");
+		assertEquals(1, files(BackupStore.MANIFESTS_SUBDIR, BackupStore.MANIFEST_EXTENSION).size());
+
+		writeNote("a", "second");
+		commitBackup("a");
+		assertEquals(2, files(BackupStore.BLOBS_SUBDIR, BackupStore.BLOB_EXTENSION).size());
+	}
+
+	@Test
+	public void fullBackupReusesNoteBlobs() throws IOException
+	{
+		writeNote("a", "first");
+		writeNote("b", "second");
+		commitBackup("a");
+		commitBackup("b");
+
+		AtomicWriteBatch batch = new AtomicWriteBatch();
+		store.backupAll(batch, notesDir, profileDir.resolve("layout.json"));
+		batch.commit();
+
+		assertEquals(3, files(BackupStore.MANIFESTS_SUBDIR, BackupStore.MANIFEST_EXTENSION).size());
+		assertEquals(2, files(BackupStore.BLOBS_SUBDIR, BackupStore.BLOB_EXTENSION).size());
+	}
+
+	@Test
+	public void sharedBlobSurvivesAbortedNote() throws IOException
+	{
+		writeNote("a", "same content");
+		writeNote("b", "same content");
+
+		AtomicWriteBatch batch = new AtomicWriteBatch();
+		AtomicWriteBatch first = new AtomicWriteBatch();
+		AtomicWriteBatch second = new AtomicWriteBatch();
+		backup(first, "a");
+		backup(second, "b");
+		batch.include(first);
+		second.abort();
+		batch.commit();
+
+		assertEquals(1, files(BackupStore.BLOBS_SUBDIR, BackupStore.BLOB_EXTENSION).size());
+		assertEquals(0, files(BackupStore.BLOBS_SUBDIR, AtomicWriteBatch.TEMP_SUFFIX).size());
+	}
+
+	@Test
+	public void sweepsUnreferencedBlobsOnlyAfterGracePeriod() throws IOException
+	{
+		writeNote("a", "content");
+		commitBackup("a");
+		Path blob = files(BackupStore.BLOBS_SUBDIR, BackupStore.BLOB_EXTENSION).get(0);
+
+		BackupStore.CompactionResult result = store.compact(BackupRetention.DEFAULT, LocalDateTime.now());
+		assertEquals(0, result.getRemovedBlobs());
+
+		// Unreferenced, but young enough that a backup being written might still need it
+		for (Path manifest : files(BackupStore.MANIFESTS_SUBDIR, BackupStore.MANIFEST_EXTENSION))
+		{
+			Files.delete(manifest);
+		}
+		Path staleTemp = Files.write(blob.resolveSibling("stale.gz.1.tmp"), new byte[10]);
+		Path liveTemp = Files.write(blob.resolveSibling("live.gz.2.tmp"), new byte[10]);
+		result = store.compact(BackupRetention.DEFAULT, LocalDateTime.now());
+		assertEquals(0, result.getRemovedBlobs());
+		assertTrue(Files.exists(blob));
+
+		FileTime twoHoursAgo = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+		Files.setLastModifiedTime(blob, twoHoursAgo);
+		Files.setLastModifiedTime(staleTemp, twoHoursAgo);
+		result = store.compact(BackupRetention.DEFAULT, LocalDateTime.now());
+		assertEquals(1, result.getRemovedBlobs());
+		assertFalse(Files.exists(blob));
+		assertFalse(Files.exists(staleTemp));
+		assertTrue(Files.exists(liveTemp));
+	}
+
+	@Test
+	public void thinsLegacyDirectoriesPerNote() throws IOException
+	{
+		// Ten days old, so each note keeps its newest backup of that day
+		writeLegacy("20250531_080000", "a", "b");
+		writeLegacy("20250531_090000", "a", "c");
+		writeLegacy("20250531_100000", "b");
+		writeLegacy("20250531_110000", "a");
+		writeLegacy("full_20250531_080000", "notes");
+		writeLegacy("full_20250531_120000", "notes");
+
+		BackupStore.CompactionResult result = store.compact(BackupRetention.DEFAULT, LocalDateTime.of(2025, 6, 10, 12, 0));
+
+		assertEquals(2, result.getRemovedBackupPoints());
+		assertFalse(Files.exists(backupDir.resolve("20250531_080000")));
+		assertTrue(Files.exists(backupDir.resolve("20250531_090000")));
+		assertTrue(Files.exists(backupDir.resolve("20250531_100000")));
+		assertTrue(Files.exists(backupDir.resolve("20250531_110000")));
+		assertFalse(Files.exists(backupDir.resolve("full_20250531_080000")));
+		assertTrue(Files.exists(backupDir.resolve("full_20250531_120000")));
+	}
+
+	private void writeLegacy(String name, String... noteIds) throws IOException
+	{
+		Path directory = Files.createDirectories(backupDir.resolve(name));
+		for (String noteId : noteIds)
+		{
+			Files.write(directory.resolve(noteId + ".rtf"), noteId.getBytes(StandardCharsets.UTF_8));
+			Files.write(directory.resolve(noteId + ".json"), "{}".getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private void writeNote(String noteId, String content) throws IOException
+	{
+		Files.write(notesDir.resolve(noteId + ".rtf"), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void backup(AtomicWriteBatch batch, String noteId) throws IOException
+	{
+		store.backupNote(batch, noteId, notesDir.resolve(noteId + ".rtf"), notesDir.resolve(noteId + ".json"));
+	}
+
+	private void commitBackup(String noteId) throws IOException
+	{
+		AtomicWriteBatch batch = new AtomicWriteBatch();
+		backup(batch, noteId);
+		batch.commit();
+	}
+
+	private List<Path> files(String subdirectory, String extension) throws IOException
+	{
+		Path directory = backupDir.resolve(subdirectory);
+		if (!Files.exists(directory))
+		{
+			return List.of();
+		}
+		try (Stream<Path> walk = Files.walk(directory))
+		{
+			return walk.filter(p -> p.getFileName().toString().endsWith(extension)).collect(Collectors.toList());
+		}
+	}
+}
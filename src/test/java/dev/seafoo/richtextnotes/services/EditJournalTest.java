@@ -0,0 +1,188 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link EditJournal} has to hand back exactly the edits that never made it into a saved
+ * note: nothing a checkpoint or a saved sequence covers, nothing past a torn record, and
+ * everything still unsaved after the journal compacted itself
+ */
+public class EditJournalTest
+{
+	// Header, then an insert of "hello" into note "a": length, CRC, type, sequence, ID, offset, text
+	private static final int HEADER_SIZE = 24;
+	private static final int HELLO_RECORD_SIZE = 8 + 1 + 8 + 2 + 1 + 8 + 5;
+
+	private Path directory;
+	private Path file;
+	private EditJournal journal;
+
+	@Before
+	public void openJournal() throws IOException
+	{
+		directory = Files.createTempDirectory("edit-journal-test");
+		file = directory.resolve("edits.journal");
+		journal = new EditJournal(file);
+		journal.open();
+	}
+
+	@After
+	public void deleteJournal() throws IOException
+	{
+		journal.close();
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void recoversUnsavedEdits() throws IOException
+	{
+		journal.recordInsert("a", 0, "hello");
+		journal.recordRemove("a", 1, 2);
+		journal.recordIcon("b", 3, "Coins", 995, 100);
+
+		Map<String, List<EditJournal.Edit>> recovered = reopen().takeRecoveredEdits();
+
+		assertEquals("[INSERT:0:hello, REMOVE:1:null]", describe(recovered.get("a")));
+		assertEquals("[ICON:3:Coins]", describe(recovered.get("b")));
+		assertEquals(995, recovered.get("b").get(0).getItemId());
+	}
+
+	@Test
+	public void dropsCheckpointedEdits() throws IOException
+	{
+		journal.recordInsert("a", 0, "one");
+		long saved = journal.currentSequence();
+		journal.recordInsert("a", 3, "two");
+		journal.recordInsert("b", 0, "three");
+		journal.checkpoint("a", saved);
+
+		Map<String, List<EditJournal.Edit>> recovered = reopen().takeRecoveredEdits();
+
+		assertEquals("[INSERT:3:two]", describe(recovered.get("a")));
+		assertEquals("[INSERT:0:three]", describe(recovered.get("b")));
+	}
+
+	@Test
+	public void dropsEditsAtOrBelowSavedSequence() throws IOException
+	{
+		journal.recordInsert("a", 0, "one");
+		journal.recordInsert("a", 3, "two");
+		long saved = journal.currentSequence();
+		journal.recordInsert("a", 6, "three");
+		long journalId = journal.getJournalId();
+
+		// The save's checkpoint never made it to disk, but its metadata file did
+		journal.close();
+		journal = new EditJournal(file);
+		journal.open((noteId, id) -> id == journalId && noteId.equals("a") ? saved : EditJournal.NO_SAVED_SEQUENCE);
+
+		assertEquals("[INSERT:6:three]", describe(journal.takeRecoveredEdits().get("a")));
+		assertNotEquals(journalId, journal.getJournalId());
+
+		// The remaining edit keeps its sequence, but under the new ID the old save means nothing
+		EditJournal.Edit remaining = reopen().takeRecoveredEdits().get("a").get(0);
+		assertEquals(saved + 1, remaining.getSequence());
+	}
+
+	@Test
+	public void stopsAtCorruptRecord() throws IOException
+	{
+		journal.recordInsert("a", 0, "hello");
+		journal.recordInsert("a", 5, "hello");
+		journal.recordInsert("a", 10, "hello");
+		journal.close();
+
+		// Flip a byte in the second record's text
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			channel.write(ByteBuffer.wrap(new byte[]{'X'}), HEADER_SIZE + 2L * HELLO_RECORD_SIZE - 1);
+		}
+
+		journal = new EditJournal(file);
+		journal.open();
+		assertEquals("[INSERT:0:hello]", describe(journal.takeRecoveredEdits().get("a")));
+	}
+
+	@Test
+	public void stopsAtTornLength() throws IOException
+	{
+		journal.recordInsert("a", 0, "hello");
+		journal.recordInsert("a", 5, "hello");
+		journal.close();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), HEADER_SIZE + HELLO_RECORD_SIZE);
+		}
+
+		journal = new EditJournal(file);
+		journal.open();
+		assertEquals("[INSERT:0:hello]", describe(journal.takeRecoveredEdits().get("a")));
+	}
+
+	@Test
+	public void compactsInsteadOfGrowing() throws IOException
+	{
+		long initialSize = Files.size(file);
+		String text = String.join("", Collections.nCopies(1000, "x"));
+
+		// Note b's edit is never saved, so the journal never gets to start over
+		journal.recordInsert("b", 0, "unsaved");
+		for (int i = 0; i < 2000; i++)
+		{
+			journal.recordInsert("a", 0, text);
+			journal.checkpoint("a", journal.currentSequence());
+		}
+		journal.recordInsert("a", 0, "last");
+
+		assertEquals(initialSize, Files.size(file));
+		Map<String, List<EditJournal.Edit>> recovered = reopen().takeRecoveredEdits();
+		assertEquals("[INSERT:0:last]", describe(recovered.get("a")));
+		assertEquals("[INSERT:0:unsaved]", describe(recovered.get("b")));
+	}
+
+	@Test
+	public void startsOverOnceEverythingIsSaved() throws IOException
+	{
+		journal.recordInsert("a", 0, "hello");
+		journal.checkpoint("a", journal.currentSequence());
+
+		assertTrue(reopen().takeRecoveredEdits().isEmpty());
+	}
+
+	private EditJournal reopen() throws IOException
+	{
+		journal.close();
+		journal = new EditJournal(file);
+		journal.open();
+		return journal;
+	}
+
+	private static String describe(List<EditJournal.Edit> edits)
+	{
+		return edits.stream()
+			.map(edit -> edit.getType() + ":" + edit.getOffset() + ":" + edit.getText())
+			.collect(Collectors.toList())
+			.toString();
+	}
+}
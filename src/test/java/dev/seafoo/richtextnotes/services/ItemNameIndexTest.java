@@ -0,0 +1,177 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * {@link ItemNameIndex#search} has to find what filtering the item cache on every search
+ * did: lowercase names containing the search, in item order, the first of each canonical
+ * item, skipping "null" names and items that look like an earlier result
+ */
+public class ItemNameIndexTest
+{
+	private static final String[] WORDS = {"Rune", "Dragon", "scimitar", "Abyssal", "whip", "Coins", "potion(4)",
+		"null", "Bones", "Shark", "Super", "Ä", "Jagex", "bow", "arrow"};
+
+	@Test
+	public void findsNamesContainingSearch()
+	{
+		Items items = new Items();
+		items.add(0, "Abyssal whip", 1);
+		items.add(1, "Rune scimitar", 2);
+		items.add(2, "Volcanic abyssal whip", 3);
+		items.add(3, "Whip", 4);
+
+		assertEquals(Arrays.asList("0:Abyssal whip:abyssal_whip", "2:Volcanic abyssal whip:volcanic_abyssal_whip", "3:Whip:whip"),
+			describe(items.index().search("whip", 60)));
+		assertSameAsFiltering(items, "whip", "abyssal w", "rune", "ip", "", "x");
+	}
+
+	@Test
+	public void skipsNullNamesAndNotedDuplicates()
+	{
+		Items items = new Items();
+		items.add(0, "Coins", 1);
+		items.add(1, "null", 2);
+		items.add(2, "Shark", 3);
+		items.canonical[3] = 2; // Noted shark
+		items.add(4, "NULL", 5);
+
+		assertEquals(Arrays.asList("2:Shark:shark"), describe(items.index().search("shark", 60)));
+		assertEquals(0, items.index().search("null", 60).size());
+		assertSameAsFiltering(items, "shark", "null", "n", "");
+	}
+
+	@Test
+	public void skipsItemsLookingLikeAnEarlierResult()
+	{
+		Items items = new Items();
+		items.add(0, "Dragon scimitar", 7);
+		items.add(1, "Dragon scimitar (or)", 8);
+		items.add(2, "Dragon scimitar (cr)", 7);
+		items.add(3, "Bones", 7);
+
+		assertEquals(Arrays.asList("0:Dragon scimitar:dragon_scimitar", "1:Dragon scimitar (or):dragon_scimitar_(or)"),
+			describe(items.index().search("scimitar", 60)));
+		// A look-alike is only skipped after a result with its icon
+		assertEquals(Arrays.asList("3:Bones:bones"), describe(items.index().search("bones", 60)));
+		assertSameAsFiltering(items, "scimitar", "bones", "(cr)", "o");
+	}
+
+	@Test
+	public void stopsAtLimit()
+	{
+		Items items = new Items();
+		for (int i = 0; i < 100; i++)
+		{
+			items.add(i, "Item " + i, i);
+		}
+
+		assertEquals(60, items.index().search("item", 60).size());
+		assertEquals(5, items.index().search("item", 5).size());
+		assertSameAsFiltering(items, "item", "item 1", "9");
+	}
+
+	@Test
+	public void matchesFilteringOnManyItems()
+	{
+		Random random = new Random(25);
+		Items items = new Items();
+		for (int i = 0; i < 30000; i++)
+		{
+			StringBuilder name = new StringBuilder();
+			for (int w = 1 + random.nextInt(3); w > 0; w--)
+			{
+				name.append(WORDS[random.nextInt(WORDS.length)]).append(w > 1 ? " " : "");
+			}
+			items.add(i, random.nextInt(20) == 0 ? "null" : name.toString(), random.nextInt(10000));
+			if (i % 2 == 1 && random.nextBoolean())
+			{
+				items.canonical[i] = i - 1;
+			}
+		}
+
+		assertSameAsFiltering(items, "rune", "dragon s", "a", "whip", "null", "ä", "p", "zzz", "bones shark", "w", "(4)");
+	}
+
+	private static void assertSameAsFiltering(Items items, String... searches)
+	{
+		ItemNameIndex index = items.index();
+		for (String search : searches)
+		{
+			assertEquals(search, describe(items.filter(search, 60)), describe(index.search(search, 60)));
+		}
+	}
+
+	private static List<String> describe(List<ItemIconService.ItemSearchResult> results)
+	{
+		List<String> described = new ArrayList<>();
+		for (ItemIconService.ItemSearchResult result : results)
+		{
+			described.add(result.getId() + ":" + result.getName() + ":" + result.getSearchName());
+		}
+		return described;
+	}
+
+	/**
+	 * A stand-in item cache: each item's name, icon and canonical item, which is itself
+	 * unless set otherwise, like a noted item's
+	 */
+	private static class Items
+	{
+		final int[] canonical = new int[30000];
+		final String[] names = new String[30000];
+		final int[] icons = new int[30000];
+		int count;
+
+		void add(int id, String name, int icon)
+		{
+			canonical[id] = id;
+			names[id] = name;
+			icons[id] = icon;
+			count = Math.max(count, id + 1);
+		}
+
+		ItemNameIndex index()
+		{
+			ItemNameIndex.Builder builder = new ItemNameIndex.Builder(count);
+			for (int i = 0; i < count; i++)
+			{
+				int id = canonical[i];
+				builder.add(id, names[id], icons[id]);
+			}
+			return builder.build();
+		}
+
+		/**
+		 * The search as it was before the index, walking the items
+		 */
+		List<ItemIconService.ItemSearchResult> filter(String search, int limit)
+		{
+			Map<Integer, ItemIconService.ItemSearchResult> results = new LinkedHashMap<>();
+			Set<Integer> seenIcons = new HashSet<>();
+			for (int i = 0; i < count && results.size() < limit; i++)
+			{
+				int id = canonical[i];
+				String name = names[id].toLowerCase();
+				if (!"null".equals(name) && name.contains(search) && !results.containsKey(id))
+				{
+					if (!seenIcons.add(icons[id]))
+					{
+						continue;
+					}
+					results.put(id, new ItemIconService.ItemSearchResult(id, names[id], names[id].toLowerCase().replace(" ", "_")));
+				}
+			}
+			return new ArrayList<>(results.values());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package dev.seafoo.richtextnotes.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * {@link NoteCodec} has to give back exactly the RTF it was given, compressed or not, and
+ * refuse a compressed note whose header or stream doesn't add up rather than allocate
+ * whatever its length claims
+ */
+public class NoteCodecTest
+{
+	private static final String RTF = "{\\rtf1\\ansi Caf\\'e9 " + String.join("", Collections.nCopies(500, "Rune scimitar ")) + "Ä€}";
+
+	@Test
+	public void roundTripsPlainAndCompressed() throws IOException
+	{
+		byte[] plain = NoteCodec.encode(RTF, false);
+		assertFalse(NoteCodec.isCompressed(plain));
+		assertEquals(RTF, NoteCodec.decode(plain));
+
+		byte[] compressed = NoteCodec.encode(RTF, true);
+		assertTrue(NoteCodec.isCompressed(compressed));
+		assertTrue(compressed.length < plain.length);
+		assertEquals(RTF, NoteCodec.decode(compressed));
+		assertEquals("", NoteCodec.decode(NoteCodec.encode("", true)));
+	}
+
+	@Test
+	public void streamedEncodingMatches() throws IOException
+	{
+		Path file = Files.createTempFile("note-codec-test", ".rtf");
+		try
+		{
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				long sequence = NoteCodec.encode(out -> {
+					out.write(RTF.getBytes(StandardCharsets.UTF_8));
+					return 42;
+				}, true, channel, ByteBuffer.allocateDirect(1024));
+				assertEquals(42, sequence);
+			}
+
+			byte[] written = Files.readAllBytes(file);
+			assertEquals(RTF, NoteCodec.decode(written));
+			try (InputStream in = NoteCodec.decodingStream(Files.newInputStream(file)))
+			{
+				assertArrayEquals(RTF.getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+			}
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void decodingStreamPassesPlainNotesThrough() throws IOException
+	{
+		byte[] plain = NoteCodec.encode(RTF, false);
+		try (InputStream in = NoteCodec.decodingStream(new ByteArrayInputStream(plain)))
+		{
+			assertArrayEquals(plain, in.readAllBytes());
+		}
+	}
+
+	@Test
+	public void rejectsCorruptLength()
+	{
+		byte[] compressed = NoteCodec.encode(RTF, true);
+		int length = RTF.getBytes(StandardCharsets.UTF_8).length;
+		assertRejected(withLength(compressed, Integer.MAX_VALUE));
+		assertRejected(withLength(compressed, -1));
+		assertRejected(withLength(compressed, length - 1));
+		assertRejected(withLength(compressed, length + 1));
+	}
+
+	@Test
+	public void rejectsTruncatedAndUnknownVersion()
+	{
+		byte[] compressed = NoteCodec.encode(RTF, true);
+		assertRejected(Arrays.copyOf(compressed, compressed.length / 2));
+
+		byte[] future = compressed.clone();
+		future[4] = 2;
+		assertRejected(future);
+	}
+
+	private static byte[] withLength(byte[] compressed, int length)
+	{
+		byte[] corrupt = compressed.clone();
+		ByteBuffer.wrap(corrupt).putInt(5, length);
+		return corrupt;
+	}
+
+	private static void assertRejected(byte[] data)
+	{
+		try
+		{
+			NoteCodec.decode(data);
+			fail("Expected a corrupt note to be rejected");
+		}
+		catch (IOException expected)
+		{
+		}
+	}
+}
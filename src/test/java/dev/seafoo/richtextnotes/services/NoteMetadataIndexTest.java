@@ -0,0 +1,181 @@
+package dev.seafoo.richtextnotes.services;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import dev.seafoo.richtextnotes.models.NoteMetadata;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link NoteMetadataIndex} has to serve what the metadata files say: entries are only
+ * re-read when a file's modification time moved, changes land in the delta log instead
+ * of a rewrite of the index, and the log is folded back in on the next load
+ */
+public class NoteMetadataIndexTest
+{
+	private final Gson gson = new GsonBuilder()
+		.registerTypeAdapter(LocalDateTime.class, new FileStorageService.LocalDateTimeTypeAdapter())
+		.create();
+
+	private Path profileDir;
+	private Path notesDir;
+	private Path indexFile;
+	private Path deltaFile;
+
+	@Before
+	public void createDirectories() throws IOException
+	{
+		profileDir = Files.createTempDirectory("notes-index-test");
+		notesDir = Files.createDirectories(profileDir.resolve("notes"));
+		indexFile = profileDir.resolve("notes-index.json");
+		deltaFile = profileDir.resolve("notes-index.json.delta");
+	}
+
+	@After
+	public void deleteDirectories() throws IOException
+	{
+		try (Stream<Path> files = Files.walk(profileDir))
+		{
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void rereadsOnlyMetadataWhoseFileTimeChanged() throws IOException
+	{
+		writeNote("a", "First");
+		load();
+
+		// Same modification time: the index entry is trusted over the file
+		FileTime modified = Files.getLastModifiedTime(notesDir.resolve("a.json"));
+		writeMetadata("a", "Second");
+		Files.setLastModifiedTime(notesDir.resolve("a.json"), modified);
+		assertEquals("First", load().get("a").getTitle());
+
+		Files.setLastModifiedTime(notesDir.resolve("a.json"), FileTime.fromMillis(modified.toMillis() + 5000));
+		assertEquals("Second", load().get("a").getTitle());
+	}
+
+	@Test
+	public void dropsNotesWhoseFilesAreGone() throws IOException
+	{
+		writeNote("a", "First");
+		writeNote("b", "Second");
+		assertEquals(2, load().getNoteIds().size());
+
+		Files.delete(notesDir.resolve("b.rtf"));
+		NoteMetadataIndex index = load();
+		assertEquals(1, index.getNoteIds().size());
+		assertFalse(index.contains("b"));
+	}
+
+	@Test
+	public void appliesChangesThroughDeltaLog() throws IOException
+	{
+		writeNote("a", "First");
+		NoteMetadataIndex index = load();
+		byte[] indexBefore = Files.readAllBytes(indexFile);
+
+		writeNote("b", "On disk");
+		long modified = Files.getLastModifiedTime(notesDir.resolve("b.json")).toMillis();
+		NoteMetadataIndex.Changes changes = new NoteMetadataIndex.Changes();
+		changes.put("b", metadata("b", "From delta"), modified);
+		index.apply(changes);
+
+		assertArrayEquals(indexBefore, Files.readAllBytes(indexFile));
+		assertTrue(Files.exists(deltaFile));
+		assertEquals("From delta", index.get("b").getTitle());
+
+		// The logged entry matches the file's time, so it is used as is and folded in
+		NoteMetadataIndex reloaded = load();
+		assertEquals("From delta", reloaded.get("b").getTitle());
+		assertFalse(Files.exists(deltaFile));
+		assertTrue(new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8).contains("From delta"));
+	}
+
+	@Test
+	public void replaysRemovalsAndSkipsTornLine() throws IOException
+	{
+		writeNote("a", "First");
+		writeNote("b", "Second");
+		NoteMetadataIndex index = load();
+
+		index.remove("b");
+		Files.write(deltaFile, "{\"put\":{\"id\":\"a\",\"meta".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		Files.delete(notesDir.resolve("b.rtf"));
+
+		NoteMetadataIndex reloaded = load();
+		assertEquals(1, reloaded.getNoteIds().size());
+		assertEquals("First", reloaded.get("a").getTitle());
+	}
+
+	@Test
+	public void noDeltaForNoteAlreadyIndexed() throws IOException
+	{
+		writeNote("a", "First");
+		NoteMetadataIndex index = load();
+
+		NoteMetadataIndex.Changes changes = new NoteMetadataIndex.Changes();
+		changes.ensureEntry("a");
+		index.apply(changes);
+
+		assertFalse(Files.exists(deltaFile));
+		assertFalse(index.needsCompaction());
+		assertEquals("First", index.get("a").getTitle());
+	}
+
+	@Test
+	public void needsCompactionOnceDeltaGrows() throws IOException
+	{
+		writeNote("a", "First");
+		NoteMetadataIndex index = load();
+
+		for (int i = 0; i < 1000 && !index.needsCompaction(); i++)
+		{
+			index.put("a", metadata("a", "Title " + i), i);
+		}
+		assertTrue(index.needsCompaction());
+
+		index.save();
+		assertFalse(index.needsCompaction());
+		assertFalse(Files.exists(deltaFile));
+	}
+
+	private NoteMetadataIndex load() throws IOException
+	{
+		NoteMetadataIndex index = new NoteMetadataIndex(indexFile, notesDir, gson);
+		index.load();
+		return index;
+	}
+
+	private void writeNote(String noteId, String title) throws IOException
+	{
+		Files.write(notesDir.resolve(noteId + ".rtf"), "{\\rtf1 }".getBytes(StandardCharsets.UTF_8));
+		writeMetadata(noteId, title);
+	}
+
+	private void writeMetadata(String noteId, String title) throws IOException
+	{
+		Files.write(notesDir.resolve(noteId + ".json"), gson.toJson(metadata(noteId, title)).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static NoteMetadata metadata(String noteId, String title)
+	{
+		return new NoteMetadata(noteId, title, LocalDateTime.of(2025, 1, 1, 12, 0), new ArrayList<>());
+	}
+}
@@ -0,0 +1,124 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import net.runelite.client.util.AsyncBufferedImage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * {@link AsyncImageIcon} only weakly holds the components it repaints once its image
+ * loads, and forgets the ones detached from it
+ */
+public class AsyncImageIconTest
+{
+	@Test
+	public void doesNotKeepComponentsReachable() throws Exception
+	{
+		AsyncImageIcon icon = new AsyncImageIcon(image());
+		List<WeakReference<JTextPane>> attached = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+		{
+			JTextPane pane = new JTextPane();
+			icon.attachToComponent(pane);
+			icon.attachToComponent(pane);
+			attached.add(new WeakReference<>(pane));
+		}
+
+		for (int i = 0; i < 20 && !allCleared(attached); i++)
+		{
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertTrue("the icon kept closed components reachable", allCleared(attached));
+	}
+
+	@Test
+	public void repaintsWherePaintedOnceLoaded() throws Exception
+	{
+		AsyncBufferedImage image = image();
+		AsyncImageIcon icon = new AsyncImageIcon(image);
+		IconRepaintCoalescerTest.CountingTextPane pane = new IconRepaintCoalescerTest.CountingTextPane();
+		icon.attachToComponent(pane);
+		paint(icon, pane, 10, 20);
+
+		image.loaded();
+		IconRepaintCoalescerTest.waitForFlush();
+
+		assertEquals(1, pane.revalidates);
+		assertEquals(Collections.singletonList(new Rectangle(10, 20, 36, 32)), pane.repainted);
+	}
+
+	@Test
+	public void doesNotRepaintDetachedComponents() throws Exception
+	{
+		AsyncBufferedImage image = image();
+		AsyncImageIcon icon = new AsyncImageIcon(image);
+		IconRepaintCoalescerTest.CountingTextPane detached = new IconRepaintCoalescerTest.CountingTextPane();
+		IconRepaintCoalescerTest.CountingTextPane kept = new IconRepaintCoalescerTest.CountingTextPane();
+		icon.attachToComponent(detached);
+		icon.attachToComponent(kept);
+		paint(icon, detached, 0, 0);
+		paint(icon, kept, 0, 0);
+
+		icon.detachFromComponent(detached);
+		image.loaded();
+		IconRepaintCoalescerTest.waitForFlush();
+
+		assertEquals(0, detached.revalidates);
+		assertTrue(detached.repainted.isEmpty());
+		assertEquals(1, kept.revalidates);
+		assertEquals(1, kept.repainted.size());
+	}
+
+	@Test
+	public void ignoresComponentsAttachedAfterLoading() throws Exception
+	{
+		AsyncBufferedImage image = image();
+		AsyncImageIcon icon = new AsyncImageIcon(image);
+		image.loaded();
+		IconRepaintCoalescerTest.waitForFlush();
+
+		IconRepaintCoalescerTest.CountingTextPane pane = new IconRepaintCoalescerTest.CountingTextPane();
+		icon.attachToComponent(pane);
+		paint(icon, pane, 0, 0);
+		IconRepaintCoalescerTest.waitForFlush();
+
+		assertEquals(0, pane.revalidates);
+		assertTrue(pane.repainted.isEmpty());
+	}
+
+	private static AsyncBufferedImage image()
+	{
+		return new AsyncBufferedImage(null, 36, 32, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	private static void paint(AsyncImageIcon icon, JTextPane pane, int x, int y) throws Exception
+	{
+		SwingUtilities.invokeAndWait(() -> {
+			Graphics g = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB).getGraphics();
+			icon.paintIcon(pane, g, x, y);
+			g.dispose();
+		});
+	}
+
+	private static boolean allCleared(List<WeakReference<JTextPane>> references)
+	{
+		for (WeakReference<JTextPane> reference : references)
+		{
+			if (reference.get() != null)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
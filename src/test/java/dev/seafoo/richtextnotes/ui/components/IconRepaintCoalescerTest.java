@@ -0,0 +1,148 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.JPanel;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Icons finishing loading in the same frame have to cost their text component one
+ * revalidate and a repaint of just the regions they were painted in
+ */
+public class IconRepaintCoalescerTest
+{
+	@Test
+	public void revalidatesOnceAndRepaintsIconRegions() throws Exception
+	{
+		CountingTextPane pane = new CountingTextPane();
+		List<Rectangle> regions = new ArrayList<>();
+		SwingUtilities.invokeAndWait(() -> {
+			for (int i = 0; i < 200; i++)
+			{
+				Rectangle region = new Rectangle(i * 36 % 360, i / 10 * 32, 36, 32);
+				regions.add(region);
+				IconRepaintCoalescer.iconLoaded(pane, Collections.singleton(region));
+			}
+		});
+		waitForFlush();
+
+		assertEquals(1, pane.revalidates);
+		assertEquals(regions, pane.repainted);
+	}
+
+	@Test
+	public void repaintsWholeComponentForIconNotPaintedYet() throws Exception
+	{
+		CountingTextPane pane = new CountingTextPane();
+		pane.setSize(400, 300);
+		SwingUtilities.invokeAndWait(() -> {
+			IconRepaintCoalescer.iconLoaded(pane, Collections.singleton(new Rectangle(0, 0, 36, 32)));
+			IconRepaintCoalescer.iconLoaded(pane, Collections.emptySet());
+			IconRepaintCoalescer.iconLoaded(pane, Collections.singleton(new Rectangle(36, 0, 36, 32)));
+		});
+		waitForFlush();
+
+		assertEquals(1, pane.revalidates);
+		assertEquals(Collections.singletonList(new Rectangle(0, 0, 400, 300)), pane.repainted);
+	}
+
+	@Test
+	public void onlyRevalidatesTextComponents() throws Exception
+	{
+		CountingPanel panel = new CountingPanel();
+		Rectangle region = new Rectangle(4, 4, 36, 32);
+		SwingUtilities.invokeAndWait(() -> IconRepaintCoalescer.iconLoaded(panel, Collections.singleton(region)));
+		waitForFlush();
+
+		assertEquals(0, panel.revalidates);
+		assertEquals(Collections.singletonList(region), panel.repainted);
+	}
+
+	@Test
+	public void flushesEachFrameSeparately() throws Exception
+	{
+		CountingTextPane pane = new CountingTextPane();
+		SwingUtilities.invokeAndWait(() -> IconRepaintCoalescer.iconLoaded(pane, Collections.singleton(new Rectangle(0, 0, 36, 32))));
+		waitForFlush();
+		SwingUtilities.invokeAndWait(() -> IconRepaintCoalescer.iconLoaded(pane, Collections.singleton(new Rectangle(36, 0, 36, 32))));
+		waitForFlush();
+
+		assertEquals(2, pane.revalidates);
+		assertEquals(2, pane.repainted.size());
+	}
+
+	/**
+	 * Let the frame timer fire, then wait for the flush it queued on the EDT
+	 */
+	static void waitForFlush() throws Exception
+	{
+		Thread.sleep(200);
+		SwingUtilities.invokeAndWait(() -> {
+		});
+	}
+
+	static class CountingTextPane extends JTextPane
+	{
+		// Only set once constructed, so what the constructor asks for isn't counted
+		int revalidates;
+		List<Rectangle> repainted;
+
+		CountingTextPane()
+		{
+			repainted = new ArrayList<>();
+		}
+
+		@Override
+		public void revalidate()
+		{
+			if (repainted != null)
+			{
+				revalidates++;
+			}
+		}
+
+		@Override
+		public void repaint(long tm, int x, int y, int width, int height)
+		{
+			if (repainted != null)
+			{
+				repainted.add(new Rectangle(x, y, width, height));
+			}
+		}
+	}
+
+	static class CountingPanel extends JPanel
+	{
+		// Only set once constructed, so what the constructor asks for isn't counted
+		int revalidates;
+		List<Rectangle> repainted;
+
+		CountingPanel()
+		{
+			repainted = new ArrayList<>();
+		}
+
+		@Override
+		public void revalidate()
+		{
+			if (repainted != null)
+			{
+				revalidates++;
+			}
+		}
+
+		@Override
+		public void repaint(long tm, int x, int y, int width, int height)
+		{
+			if (repainted != null)
+			{
+				repainted.add(new Rectangle(x, y, width, height));
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * {@link NoteRtfReader} has to build the same document as the JDK reader followed by
+ * placeholder conversion, and leave the document alone for anything it hands back to the JDK reader
+ */
+public class NoteRtfReaderTest
+{
+	private static final String HEADER = "{\\rtf1\\ansi\n{\\fonttbl\\f0\\fnil Monospaced;\\f1\\fnil Arial;}\n"
+		+ "{\\colortbl\\red0\\green0\\blue0;\\red255\\green0\\blue0;}\n\n";
+
+	@Test
+	public void readsEmptyNote() throws Exception
+	{
+		assertSameAsJdk("{\\rtf1\\ansi\n}");
+		assertSameAsJdk("{\\rtf1\\ansi\n\\par\n\\par\n}");
+	}
+
+	@Test
+	public void readsFormattedParagraphs() throws Exception
+	{
+		assertSameAsJdk(HEADER + "\\f1\\fs32 abc\\par\n\\b x\\cf1 y\\b0\\i z\\par\n\\par\n\\strike s\\strike0\\ul u\\ulnone\\par\n}\n");
+	}
+
+	@Test
+	public void readsLineSpacing() throws Exception
+	{
+		assertSameAsJdk(HEADER + "\\sl300 spaced\\par\nmore\\sl1000 wider\\par\n}");
+	}
+
+	@Test
+	public void readsSpecialCharacters() throws Exception
+	{
+		assertSameAsJdk("{\\rtf1\\ansi caf\\'e9 \\'80\\'a0x \\u8364 ?\\u20013 ?\\b \\u-3 ?\\par\n"
+			+ "a\\tab\\~\\_\\-\\emdash\\lquote\\ b\\\\c \\{d\\}\\par\n}");
+	}
+
+	@Test
+	public void restoresItemIcons() throws Exception
+	{
+		assertSameAsJdk(HEADER + "foo \\{\\{ITEM:4151:Abyssal whip:1\\}\\} bar\\par\n"
+			+ "\\b \\{\\{ITEM:10:Coins:3\\}\\}\\b0\\{\\{ITEM:385:Shark:2\\}\\}\\{\\{ITEM:x:bad:1\\}\\}\\par\n}\n");
+	}
+
+	@Test
+	public void restoresPlaceholdersSplitByFormattingOrParagraphs() throws Exception
+	{
+		assertSameAsJdk(HEADER + "\\{\\{ITEM:4151:Ab\\b yssal whip:1\\}\\b0\\} bar\\par\n}\n");
+		assertSameAsJdk(HEADER + "\\{\\{ITEM:4151:Abyssal\\par\n whip:1\\}\\}\\par\n}\n");
+		assertSameAsJdk("{\\rtf1\\ansi \\{\\{ITEM:1:a:1 no end \\{\\{ITEM:2:b:1\\}\\}\\par}");
+	}
+
+	@Test
+	public void leavesNestedGroupsToJdk() throws Exception
+	{
+		assertLeftToJdk("{\\rtf1\\ansi {\\b a}\\par}");
+	}
+
+	@Test
+	public void leavesUnicodeSkipCountToJdk() throws Exception
+	{
+		assertLeftToJdk("{\\rtf1\\ansi\\uc2 \\u8364 ??x\\par}");
+	}
+
+	@Test
+	public void leavesParagraphFormattingToJdk() throws Exception
+	{
+		assertLeftToJdk(HEADER + "\\qc centered\\par\n\\pard\\li300 indented\\par\n}");
+	}
+
+	@Test
+	public void leavesStylesheetsToJdk() throws Exception
+	{
+		assertLeftToJdk("{\\rtf1\\ansi{\\stylesheet{\\s0 Normal;}}\n\\s0 a\\par}");
+	}
+
+	@Test(expected = IOException.class)
+	public void throwsWhenGivingUpPastReplayLimit() throws Exception
+	{
+		String rtf = "{\\rtf1\\ansi " + String.join("", Collections.nCopies(100_000, "a")) + "{\\b nested}\\par}";
+		new NotesEnhancedEditorKit(new RtfTestSupport.StubItemIconService())
+			.read(unmarkable(rtf), RtfTestSupport.emptyDocument(), 0);
+	}
+
+	private static InputStream unmarkable(String rtf)
+	{
+		return new FilterInputStream(new ByteArrayInputStream(bytes(rtf)))
+		{
+			@Override
+			public boolean markSupported()
+			{
+				return false;
+			}
+		};
+	}
+
+	private static void assertSameAsJdk(String rtf) throws Exception
+	{
+		NotesEnhancedDocument expected = RtfTestSupport.readWithJdk(rtf);
+		expected.convertPlaceholdersToIcons(new RtfTestSupport.StubItemIconService());
+
+		NotesEnhancedDocument actual = RtfTestSupport.emptyDocument();
+		assertTrue("reader should handle: " + rtf,
+			NoteRtfReader.read(new ByteArrayInputStream(bytes(rtf)), actual, new RtfTestSupport.StubItemIconService(), false));
+		assertEquals(RtfTestSupport.describe(expected), RtfTestSupport.describe(actual));
+	}
+
+	private static void assertLeftToJdk(String rtf) throws Exception
+	{
+		NotesEnhancedDocument doc = RtfTestSupport.emptyDocument();
+		String before = RtfTestSupport.describe(doc);
+		long revision = doc.getRevision();
+		AtomicInteger events = new AtomicInteger();
+		doc.addDocumentListener(new DocumentListener()
+		{
+			@Override
+			public void insertUpdate(DocumentEvent e)
+			{
+				events.incrementAndGet();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e)
+			{
+				events.incrementAndGet();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e)
+			{
+				events.incrementAndGet();
+			}
+		});
+
+		assertFalse(NoteRtfReader.read(new ByteArrayInputStream(bytes(rtf)), doc, new RtfTestSupport.StubItemIconService(), false));
+		assertEquals(before, RtfTestSupport.describe(doc));
+		assertEquals(revision, doc.getRevision());
+		assertEquals(0, events.get());
+
+		// The editor kit then replays it to the JDK reader, even from a stream it had to mark itself
+		NotesEnhancedDocument expected = RtfTestSupport.readWithJdk(rtf);
+		expected.convertPlaceholdersToIcons(new RtfTestSupport.StubItemIconService());
+		new NotesEnhancedEditorKit(new RtfTestSupport.StubItemIconService()).read(unmarkable(rtf), doc, 0);
+		assertEquals(RtfTestSupport.describe(expected), RtfTestSupport.describe(doc));
+	}
+
+	private static byte[] bytes(String rtf)
+	{
+		return rtf.getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
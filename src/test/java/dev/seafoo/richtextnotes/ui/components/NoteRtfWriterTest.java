@@ -0,0 +1,128 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * {@link NoteRtfWriter} has to produce exactly the bytes the JDK writer produced for the
+ * same note, so notes saved by either read back the same
+ */
+public class NoteRtfWriterTest
+{
+	@Test
+	public void writesEmptyDocument() throws Exception
+	{
+		assertSameAsJdk(new NotesEnhancedDocument());
+	}
+
+	@Test
+	public void writesPlainParagraphs() throws Exception
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		doc.insertString(0, "first\n\nthird\n", null);
+		assertSameAsJdk(doc);
+	}
+
+	@Test
+	public void writesMixedFormatting() throws Exception
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		doc.insertString(0, "plain ", null);
+		doc.insertString(doc.getLength(), "bold ", attributes(true, false, null, 0, "Arial"));
+		doc.insertString(doc.getLength(), "italic red\n", attributes(false, true, Color.RED, 16, null));
+		doc.insertString(doc.getLength(), "big mono", attributes(true, true, new Color(1, 2, 3), 24, "Monospaced"));
+
+		SimpleAttributeSet struck = new SimpleAttributeSet();
+		StyleConstants.setStrikeThrough(struck, true);
+		StyleConstants.setUnderline(struck, true);
+		doc.insertString(doc.getLength(), " struck\n", struck);
+		assertSameAsJdk(doc);
+	}
+
+	@Test
+	public void writesIconsAsPlaceholders() throws Exception
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		doc.insertString(0, "Bring ", attributes(true, false, null, 0, null));
+		RtfTestSupport.insertIcon(doc, "Abyssal whip", 4151, 1);
+		doc.insertString(doc.getLength(), " and ", null);
+		RtfTestSupport.insertIcon(doc, "Café {x}", 995, 10000);
+		RtfTestSupport.insertIcon(doc, "Shark", 385, 3);
+		doc.insertString(doc.getLength(), "\n", null);
+		RtfTestSupport.insertIcon(doc, "Rune pouch", 12791, 1);
+
+		String rtf = write(doc);
+		assertTrue(rtf.contains("\\{\\{ITEM:4151:Abyssal whip:1\\}\\}"));
+		assertSameAsJdk(doc);
+	}
+
+	@Test
+	public void writesSpecialCharacters() throws Exception
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		// Escaped RTF syntax, tab, no-break space, ANSI characters above 127 and characters written as Unicode escapes
+		doc.insertString(0, "{braces} back\\slash\ttab\u00A0nbsp\n", null);
+		doc.insertString(doc.getLength(), "café ÿ ¡ © ", attributes(true, false, null, 0, null));
+		doc.insertString(doc.getLength(), "€ — ‘q’ “q” • … ™\n", null);
+		doc.insertString(doc.getLength(), "中文 😀 \u0080\u009F", attributes(false, true, Color.BLUE, 0, null));
+
+		String rtf = write(doc);
+		assertTrue(rtf.contains("\\tab "));
+		assertTrue(rtf.contains("caf\\'e9"));
+		assertTrue(rtf.contains("\\u8364 "));
+		assertSameAsJdk(doc);
+	}
+
+	@Test
+	public void writesIconsBetweenSpecialCharacters() throws Exception
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		doc.insertString(0, "€\t", attributes(false, false, Color.GREEN, 12, null));
+		RtfTestSupport.insertIcon(doc, "Coins", 995, 2);
+		doc.insertString(doc.getLength(), " é", attributes(false, false, Color.GREEN, 12, null));
+		RtfTestSupport.insertIcon(doc, "Éclair", 4151, 1);
+		doc.insertString(doc.getLength(), "中", null);
+		assertSameAsJdk(doc);
+	}
+
+	private static void assertSameAsJdk(NotesEnhancedDocument doc) throws BadLocationException, IOException
+	{
+		assertTrue(NoteRtfWriter.canWrite(doc.snapshot()));
+		assertEquals(RtfTestSupport.writeWithJdk(doc), write(doc));
+	}
+
+	private static String write(NotesEnhancedDocument doc) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NoteRtfWriter.write(doc.snapshot(), out);
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static SimpleAttributeSet attributes(boolean bold, boolean italic, Color color, int size, String font)
+	{
+		SimpleAttributeSet attributes = new SimpleAttributeSet();
+		StyleConstants.setBold(attributes, bold);
+		StyleConstants.setItalic(attributes, italic);
+		if (color != null)
+		{
+			StyleConstants.setForeground(attributes, color);
+		}
+		if (size > 0)
+		{
+			StyleConstants.setFontSize(attributes, size);
+		}
+		if (font != null)
+		{
+			StyleConstants.setFontFamily(attributes, font);
+		}
+		return attributes;
+	}
+}
@@ -0,0 +1,184 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import javax.swing.ImageIcon;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * {@link NotesEnhancedDocument#copyOf} builds the copy from element specs in one pass;
+ * it has to end up with the same elements as copying the document a character at a time.
+ */
+public class NotesEnhancedDocumentCopyTest
+{
+	private static final String ICON_DATA = "item-icon-data";
+	private static final SimpleAttributeSet BOLD = new SimpleAttributeSet();
+
+	static
+	{
+		StyleConstants.setBold(BOLD, true);
+	}
+
+	@Test
+	public void copiesEmptyDocument() throws BadLocationException
+	{
+		assertSameAsPerCharacterCopy(document("", null));
+	}
+
+	@Test
+	public void copiesSingleParagraph() throws BadLocationException
+	{
+		assertSameAsPerCharacterCopy(document("abc", null));
+	}
+
+	@Test
+	public void copiesLeadingNewline() throws BadLocationException
+	{
+		assertSameAsPerCharacterCopy(document("\nabc", null));
+		assertSameAsPerCharacterCopy(document("\nabc", BOLD));
+	}
+
+	@Test
+	public void copiesTrailingNewline() throws BadLocationException
+	{
+		assertSameAsPerCharacterCopy(document("abc\n", null));
+		assertSameAsPerCharacterCopy(document("x\ny\n", BOLD));
+	}
+
+	@Test
+	public void copiesRepeatedNewlines() throws BadLocationException
+	{
+		assertSameAsPerCharacterCopy(document("a\n\n\nb\n", null));
+		assertSameAsPerCharacterCopy(document("\n\n\n", BOLD));
+	}
+
+	@Test
+	public void copiesRunsCrossingParagraphs() throws BadLocationException
+	{
+		NotesEnhancedDocument doc = document("abc\ndef", null);
+		doc.setCharacterAttributes(2, 3, BOLD, false);
+		assertSameAsPerCharacterCopy(doc);
+
+		NotesEnhancedDocument boldDoc = document("abc\ndef\n", BOLD);
+		boldDoc.setCharacterAttributes(0, 2, SimpleAttributeSet.EMPTY, true);
+		assertSameAsPerCharacterCopy(boldDoc);
+	}
+
+	@Test
+	public void copiesMixedFormattingAndIcons() throws BadLocationException
+	{
+		assertSameAsPerCharacterCopy(randomDocument(50));
+	}
+
+	private static void assertSameAsPerCharacterCopy(NotesEnhancedDocument source) throws BadLocationException
+	{
+		NotesEnhancedDocument expected = perCharacterCopy(source);
+		NotesEnhancedDocument actual = NotesEnhancedDocument.copyOf(source.snapshot());
+
+		assertEquals(source.getText(0, source.getLength()), actual.getText(0, actual.getLength()));
+		assertEquals(describe(expected.getDefaultRootElement()), describe(actual.getDefaultRootElement()));
+	}
+
+	private static NotesEnhancedDocument perCharacterCopy(NotesEnhancedDocument source) throws BadLocationException
+	{
+		NotesEnhancedDocument copy = new NotesEnhancedDocument();
+		for (int i = 0; i < source.getLength(); i++)
+		{
+			copy.insertString(i, source.getText(i, 1), source.getCharacterElement(i).getAttributes());
+		}
+		return copy;
+	}
+
+	/**
+	 * Element tree with each leaf's formatting, one element per line
+	 */
+	private static String describe(Element root)
+	{
+		StringBuilder description = new StringBuilder();
+		describe(root, description, 0);
+		return description.toString();
+	}
+
+	private static void describe(Element element, StringBuilder description, int depth)
+	{
+		for (int i = 0; i < depth; i++)
+		{
+			description.append("  ");
+		}
+		description.append(element.getName())
+			.append(' ').append(element.getStartOffset())
+			.append('-').append(element.getEndOffset());
+
+		if (element.isLeaf())
+		{
+			AttributeSet attributes = element.getAttributes();
+			description.append(" bold=").append(StyleConstants.isBold(attributes))
+				.append(" italic=").append(StyleConstants.isItalic(attributes))
+				.append(" strike=").append(StyleConstants.isStrikeThrough(attributes))
+				.append(" color=").append(attributes.getAttribute(StyleConstants.Foreground))
+				.append(" size=").append(attributes.getAttribute(StyleConstants.FontSize))
+				.append(" icon=").append(attributes.getAttribute(ICON_DATA) != null)
+				.append(" attributes=").append(attributes.getAttributeCount());
+		}
+		description.append('\n');
+
+		for (int i = 0; i < element.getElementCount(); i++)
+		{
+			describe(element.getElement(i), description, depth + 1);
+		}
+	}
+
+	private static NotesEnhancedDocument document(String text, AttributeSet attributes) throws BadLocationException
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		doc.insertString(0, text, attributes);
+		return doc;
+	}
+
+	private static NotesEnhancedDocument randomDocument(int paragraphs) throws BadLocationException
+	{
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		Random random = new Random(1);
+		ImageIcon icon = new ImageIcon(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB));
+
+		for (int p = 0; p < paragraphs; p++)
+		{
+			for (int w = 0; w < 5; w++)
+			{
+				SimpleAttributeSet attributes = new SimpleAttributeSet();
+				StyleConstants.setBold(attributes, random.nextBoolean());
+				StyleConstants.setItalic(attributes, random.nextBoolean());
+				if (random.nextInt(3) == 0)
+				{
+					StyleConstants.setForeground(attributes, new Color(random.nextInt(0xFFFFFF)));
+				}
+				if (random.nextInt(3) == 0)
+				{
+					StyleConstants.setFontSize(attributes, 12 + random.nextInt(4) * 4);
+				}
+				doc.insertString(doc.getLength(), "word " + w + " ", attributes);
+
+				if (random.nextInt(4) == 0)
+				{
+					SimpleAttributeSet iconAttributes = new SimpleAttributeSet();
+					StyleConstants.setIcon(iconAttributes, icon);
+					iconAttributes.addAttribute(ICON_DATA,
+						new NotesEnhancedDocument.IconData("Abyssal whip", 4151, 1 + random.nextInt(3)));
+					doc.insertString(doc.getLength(), " ", iconAttributes);
+				}
+			}
+			doc.insertString(doc.getLength(), "\n", null);
+		}
+
+		assertTrue(doc.getLength() > 0);
+		return doc;
+	}
+}
@@ -0,0 +1,128 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyleConstants;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * {@link NotesEnhancedDocument#convertPlaceholdersToIcons} converts every placeholder in
+ * one pass; it has to leave the document as replacing them one at a time did
+ */
+public class NotesEnhancedDocumentPlaceholderTest
+{
+	private static final String HEADER = "{\\rtf1\\ansi{\\colortbl\\red0\\green0\\blue0;\\red255\\green0\\blue0;}\n";
+
+	@Test
+	public void convertsPlaceholdersInAParagraph() throws Exception
+	{
+		assertEquals(1, iconCount(assertSameAsOneAtATime(HEADER + "foo \\{\\{ITEM:4151:Abyssal whip:1\\}\\} bar\\par}")));
+		assertEquals(1, iconCount(assertSameAsOneAtATime(HEADER + "\\{\\{ITEM:4151:w:1\\}\\}}")));
+	}
+
+	@Test
+	public void convertsAdjacentAndFormattedPlaceholders() throws Exception
+	{
+		NotesEnhancedDocument doc = assertSameAsOneAtATime(HEADER
+			+ "\\b \\{\\{ITEM:1:a:1\\}\\}\\b0 x\\{\\{ITEM:1:a:1\\}\\}\\{\\{ITEM:6:a:2\\}\\}\\cf1\\{\\{ITEM:7:b:1\\}\\}\\par}");
+		assertEquals(4, iconCount(doc));
+	}
+
+	@Test
+	public void leavesUnknownItemsAndMalformedPlaceholders() throws Exception
+	{
+		// Item 10 has no icon in the stub service
+		assertSameAsOneAtATime(HEADER + "\\{\\{ITEM:10:w:1\\}\\} \\{\\{ITEM:x:bad:1\\}\\} \\{\\{ITEM:7:w:abc\\}\\}\\par}");
+		assertSameAsOneAtATime(HEADER + "\\{\\{ITEM:1:a:1 no end \\{\\{ITEM:2:b:1\\}\\}\\par}");
+		assertSameAsOneAtATime(HEADER + "\\{\\{\\{ITEM:1:w:1\\}\\}\\} \\{\\{IT\\{\\{ITEM:4:z:2\\}\\}}");
+	}
+
+	@Test
+	public void convertsPlaceholdersSpanningParagraphs() throws Exception
+	{
+		NotesEnhancedDocument doc = assertSameAsOneAtATime(HEADER
+			+ "\\qc a \\{\\{ITEM:4151:w\\par\\pard\\qr :1\\}\\} b\\par\\pard\\li300 c}");
+		assertEquals(1, iconCount(doc));
+		assertEquals(2, doc.getDefaultRootElement().getElementCount());
+
+		assertSameAsOneAtATime(HEADER + "\\{\\{ITEM:7:a\\par\\qc b:2\\}\\} after\\par}");
+		assertSameAsOneAtATime(HEADER + "\\{\\{ITEM:6:a\\par\\par\\qr b\\par\\}\\}\\par}");
+	}
+
+	@Test
+	public void convertsPlaceholdersNextToParagraphBreaks() throws Exception
+	{
+		assertSameAsOneAtATime(HEADER + "\\qc \\{\\{ITEM:11:w:1\\}\\}\\par\\pard\\qr x}");
+		assertSameAsOneAtATime(HEADER + "\\qc x\\par\\pard\\qr \\{\\{ITEM:1:w:1\\}\\}}");
+		assertSameAsOneAtATime(HEADER + "\\qc x\\par\\pard\\qr \\{\\{ITEM:1:w:1\\}\\}\\par}");
+	}
+
+	private static NotesEnhancedDocument assertSameAsOneAtATime(String rtf) throws Exception
+	{
+		NotesEnhancedDocument expected = RtfTestSupport.readWithJdk(rtf);
+		convertOneAtATime(expected);
+
+		NotesEnhancedDocument actual = RtfTestSupport.readWithJdk(rtf);
+		actual.convertPlaceholdersToIcons(new RtfTestSupport.StubItemIconService());
+
+		assertEquals(RtfTestSupport.describe(expected), RtfTestSupport.describe(actual));
+		return actual;
+	}
+
+	private static int iconCount(NotesEnhancedDocument doc)
+	{
+		int icons = 0;
+		for (int offset = 0; offset < doc.getLength(); offset++)
+		{
+			if (StyleConstants.getIcon(doc.getCharacterElement(offset).getAttributes()) != null)
+			{
+				icons++;
+			}
+		}
+		return icons;
+	}
+
+	/**
+	 * The conversion as it was before: find each placeholder in the text, then replace
+	 * them from the last to the first so earlier offsets stay valid
+	 */
+	private static void convertOneAtATime(NotesEnhancedDocument doc) throws BadLocationException
+	{
+		String text = doc.getText(0, doc.getLength());
+		NotesEnhancedDocument.IconLookup icons = new NotesEnhancedDocument.IconLookup(new RtfTestSupport.StubItemIconService());
+		List<int[]> ranges = new ArrayList<>();
+		List<NotesEnhancedDocument.RestoredItem> items = new ArrayList<>();
+
+		int searchFrom = 0;
+		while (searchFrom < text.length())
+		{
+			int start = text.indexOf("{{ITEM:", searchFrom);
+			if (start < 0)
+			{
+				break;
+			}
+			int end = text.indexOf("}}", start);
+			if (end < 0)
+			{
+				break;
+			}
+			end += 2;
+
+			NotesEnhancedDocument.RestoredItem item = NotesEnhancedDocument.restorePlaceholder(text.substring(start, end), icons);
+			if (item != null)
+			{
+				ranges.add(new int[]{start, end - start});
+				items.add(item);
+			}
+			searchFrom = end;
+		}
+
+		for (int i = ranges.size() - 1; i >= 0; i--)
+		{
+			doc.remove(ranges.get(i)[0], ranges.get(i)[1]);
+			doc.insertString(ranges.get(i)[0], items.get(i).text, items.get(i).attributes);
+		}
+	}
+}
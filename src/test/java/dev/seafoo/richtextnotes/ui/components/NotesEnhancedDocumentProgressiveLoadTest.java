@@ -0,0 +1,99 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Edits made while {@link NotesEnhancedDocument#loadProgressively} still holds content
+ * back have to leave the same note as making them once it is all loaded
+ */
+public class NotesEnhancedDocumentProgressiveLoadTest
+{
+	private static final String NOTE = note();
+
+	@Test
+	public void loadsInPieces() throws BadLocationException
+	{
+		NotesEnhancedDocument doc = loading();
+		assertTrue(doc.getLength() < NOTE.length());
+
+		while (doc.appendPendingContent())
+		{
+		}
+		assertEquals(NOTE, text(doc));
+	}
+
+	@Test
+	public void removingEverythingLoadedRemovesTheWholeNote() throws BadLocationException
+	{
+		NotesEnhancedDocument doc = loading();
+		doc.remove(0, doc.getLength());
+
+		assertFalse(doc.hasPendingContent());
+		assertEquals("", text(doc));
+	}
+
+	@Test
+	public void typingOverEverythingLoadedReplacesTheWholeNote() throws BadLocationException
+	{
+		NotesEnhancedDocument doc = loading();
+		doc.replace(0, doc.getLength(), "new", null);
+
+		assertFalse(doc.hasPendingContent());
+		assertEquals("new", text(doc));
+	}
+
+	@Test
+	public void editsBeforeTheRestKeepItPending() throws BadLocationException
+	{
+		NotesEnhancedDocument doc = loading();
+		int loaded = doc.getLength();
+		doc.replace(0, loaded - 1, "new", null);
+		doc.insertString(0, "x", null);
+
+		assertTrue(doc.hasPendingContent());
+		doc.finishLoading();
+		assertEquals("xnew" + NOTE.substring(loaded - 1), text(doc));
+	}
+
+	@Test
+	public void editsReachingTheRestFinishLoading() throws BadLocationException
+	{
+		NotesEnhancedDocument doc = loading();
+		int loaded = doc.getLength();
+		doc.remove(1, loaded);
+
+		assertFalse(doc.hasPendingContent());
+		assertEquals(NOTE.charAt(0) + NOTE.substring(loaded + 1), text(doc));
+	}
+
+	private static NotesEnhancedDocument loading() throws BadLocationException
+	{
+		NotesEnhancedDocument source = new NotesEnhancedDocument();
+		source.insertString(0, NOTE, null);
+
+		NotesEnhancedDocument doc = new NotesEnhancedDocument();
+		doc.loadProgressively(source.snapshot(), new SimpleAttributeSet());
+		assertTrue(doc.hasPendingContent());
+		return doc;
+	}
+
+	private static String text(NotesEnhancedDocument doc) throws BadLocationException
+	{
+		return doc.getText(0, doc.getLength());
+	}
+
+	private static String note()
+	{
+		StringBuilder note = new StringBuilder();
+		for (int i = 0; note.length() < 200 * 1024; i++)
+		{
+			note.append("line ").append(i).append('\n');
+		}
+		return note.toString();
+	}
+}
@@ -0,0 +1,197 @@
+package dev.seafoo.richtextnotes.ui.components;
+
+import dev.seafoo.richtextnotes.services.ItemIconService;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import javax.swing.Icon;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import javax.swing.text.rtf.RTFEditorKit;
+
+/**
+ * The JDK RTF round trip the plugin's own reader and writer replace, and a way to
+ * compare the documents both produce
+ */
+final class RtfTestSupport
+{
+	static final String ICON_DATA = "item-icon-data";
+
+	private RtfTestSupport()
+	{
+	}
+
+	/**
+	 * Resolves every item to a comparable icon, except items whose ID is a multiple of five,
+	 * which have no icon
+	 */
+	static class StubItemIconService extends ItemIconService
+	{
+		@Override
+		public Icon getCenteredIconById(int itemId, int quantity)
+		{
+			return itemId % 5 == 0 ? null : new StubIcon(itemId, quantity);
+		}
+	}
+
+	static class StubIcon implements Icon
+	{
+		private final int itemId;
+		private final int quantity;
+
+		StubIcon(int itemId, int quantity)
+		{
+			this.itemId = itemId;
+			this.quantity = quantity;
+		}
+
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y)
+		{
+		}
+
+		@Override
+		public int getIconWidth()
+		{
+			return 1;
+		}
+
+		@Override
+		public int getIconHeight()
+		{
+			return 1;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof StubIcon && ((StubIcon) obj).itemId == itemId && ((StubIcon) obj).quantity == quantity;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return itemId * 31 + quantity;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "icon " + itemId + "x" + quantity;
+		}
+	}
+
+	static NotesEnhancedDocument emptyDocument()
+	{
+		return new NotesEnhancedEditorKit(null).parseDocument("");
+	}
+
+	static void insertIcon(NotesEnhancedDocument doc, String itemName, int itemId, int quantity) throws BadLocationException
+	{
+		SimpleAttributeSet attributes = new SimpleAttributeSet();
+		StyleConstants.setIcon(attributes, new StubIcon(itemId, quantity));
+		attributes.addAttribute(ICON_DATA, new NotesEnhancedDocument.IconData(itemName, itemId, quantity));
+		doc.insertString(doc.getLength(), " ", attributes);
+	}
+
+	/**
+	 * What saving looked like before the plugin's own writer: copy the document a
+	 * character at a time, swap icons for placeholders and hand it to the JDK writer
+	 */
+	static String writeWithJdk(NotesEnhancedDocument source) throws BadLocationException, IOException
+	{
+		NotesEnhancedDocument copy = new NotesEnhancedDocument();
+		for (int i = 0; i < source.getLength(); i++)
+		{
+			copy.insertString(i, source.getText(i, 1), source.getCharacterElement(i).getAttributes());
+		}
+		copy.convertIconsToPlaceholders();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new RTFEditorKit().write(out, copy, 0, copy.getLength());
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * What loading looked like before the plugin's own reader: the JDK reader, minus the
+	 * trailing newline it adds
+	 */
+	static NotesEnhancedDocument readWithJdk(String rtf) throws BadLocationException, IOException
+	{
+		NotesEnhancedDocument doc = emptyDocument();
+		new RTFEditorKit().read(new ByteArrayInputStream(rtf.getBytes(StandardCharsets.ISO_8859_1)), doc, 0);
+		if (doc.getLength() > 0 && "\n".equals(doc.getText(doc.getLength() - 1, 1)))
+		{
+			doc.remove(doc.getLength() - 1, 1);
+		}
+		return doc;
+	}
+
+	/**
+	 * Each paragraph's attributes, then its text in stretches of identical character
+	 * attributes. Two documents that look and behave the same describe the same, however
+	 * their leaves happen to be split.
+	 */
+	static String describe(StyledDocument doc) throws BadLocationException
+	{
+		StringBuilder description = new StringBuilder("length ").append(doc.getLength()).append('\n');
+		Element root = doc.getDefaultRootElement();
+		for (int i = 0; i < root.getElementCount(); i++)
+		{
+			Element paragraph = root.getElement(i);
+			description.append("paragraph ").append(describe(paragraph.getAttributes())).append('\n');
+
+			String previous = null;
+			StringBuilder run = new StringBuilder();
+			for (int offset = paragraph.getStartOffset(); offset < paragraph.getEndOffset(); offset++)
+			{
+				String attributes = describe(doc.getCharacterElement(offset).getAttributes());
+				if (previous != null && !attributes.equals(previous))
+				{
+					description.append("  [").append(run).append("] ").append(previous).append('\n');
+					run.setLength(0);
+				}
+				previous = attributes;
+				run.append(doc.getText(offset, 1).replace("\n", "\\n"));
+			}
+			description.append("  [").append(run).append("] ").append(previous).append('\n');
+		}
+		return description.toString();
+	}
+
+	private static String describe(AttributeSet attributes)
+	{
+		List<String> described = new ArrayList<>();
+		for (Enumeration<?> names = attributes.getAttributeNames(); names.hasMoreElements(); )
+		{
+			Object name = names.nextElement();
+			Object value = attributes.getAttribute(name);
+			if (name == AttributeSet.ResolveAttribute)
+			{
+				described.add("resolve=" + (value instanceof javax.swing.text.Style ? ((javax.swing.text.Style) value).getName() : value));
+			}
+			else if (value instanceof NotesEnhancedDocument.IconData)
+			{
+				NotesEnhancedDocument.IconData data = (NotesEnhancedDocument.IconData) value;
+				described.add(name + "=" + data.itemName + "/" + data.itemId + "/" + data.itemQuantity);
+			}
+			else
+			{
+				described.add(name + "=" + value + (value != null ? " (" + value.getClass().getSimpleName() + ")" : ""));
+			}
+		}
+		Collections.sort(described);
+		return described.toString();
+	}
+}